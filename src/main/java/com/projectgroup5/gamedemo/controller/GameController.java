@@ -2,13 +2,23 @@ package com.projectgroup5.gamedemo.controller;
 
 import com.projectgroup5.gamedemo.dto.GameHeartbeatRequest;
 import com.projectgroup5.gamedemo.dto.GameScoreEntry;
+import com.projectgroup5.gamedemo.dto.SimulationRequest;
 import com.projectgroup5.gamedemo.entity.User;
+import com.projectgroup5.gamedemo.event.EventBus;
+import com.projectgroup5.gamedemo.event.EventJournal;
+import com.projectgroup5.gamedemo.game.BatchSimulator;
+import com.projectgroup5.gamedemo.game.GameRoomManager;
+import com.projectgroup5.gamedemo.game.GameWorld;
+import com.projectgroup5.gamedemo.game.ReplayEngine;
 import com.projectgroup5.gamedemo.service.*;
+import com.projectgroup5.gamedemo.websocket.MessageRateLimiter;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @RestController
@@ -20,15 +30,36 @@ public class GameController {
     private final LobbyService lobbyService;
     private final GameServiceArchA gameServiceArchA;
     private final GameServiceArchB gameServiceArchB;
+    private final GossipAuditLog gossipAuditLog;
+    private final MessageRateLimiter rateLimiter;
+    private final EventBus eventBus;
+    private final EventJournal eventJournal;
+    private final ReplayEngine replayEngine;
+    private final BatchSimulator batchSimulator;
+    private final GameRoomManager roomManager;
 
     public GameController(AuthService authService,
                           LobbyService lobbyService,
                           GameServiceArchA gameServiceArchA,
-                          GameServiceArchB gameServiceArchB) {
+                          GameServiceArchB gameServiceArchB,
+                          GossipAuditLog gossipAuditLog,
+                          MessageRateLimiter rateLimiter,
+                          EventBus eventBus,
+                          EventJournal eventJournal,
+                          ReplayEngine replayEngine,
+                          BatchSimulator batchSimulator,
+                          GameRoomManager roomManager) {
         this.authService = authService;
         this.lobbyService = lobbyService;
         this.gameServiceArchA = gameServiceArchA;
         this.gameServiceArchB = gameServiceArchB;
+        this.gossipAuditLog = gossipAuditLog;
+        this.rateLimiter = rateLimiter;
+        this.eventBus = eventBus;
+        this.eventJournal = eventJournal;
+        this.replayEngine = replayEngine;
+        this.batchSimulator = batchSimulator;
+        this.roomManager = roomManager;
     }
 
     private String getUsernameFromAuth(String authHeader) {
@@ -86,4 +117,92 @@ public class GameController {
         }
         return ResponseEntity.ok().build();
     }
+
+    /**
+     * Architecture B 房间的 gossip 审计记录（采样后的），游戏结束后也能查
+     */
+    @GetMapping("/room/{roomId}/gossip-audit")
+    public ResponseEntity<List<GossipAuditLog.Entry>> getGossipAudit(@PathVariable("roomId") long roomId,
+                                                                     @RequestParam(value = "type", required = false) String type,
+                                                                     @RequestParam(value = "limit", defaultValue = "200") int limit,
+                                                                     @RequestHeader("Authorization") String authHeader) {
+        getUsernameFromAuth(authHeader);
+        return ResponseEntity.ok(gossipAuditLog.query(roomId, type, Math.min(limit, 5000)));
+    }
+
+    /**
+     * WebSocket 上行限流统计：各 handler / 消息类型被丢弃的次数
+     */
+    @GetMapping("/ws-drops")
+    public ResponseEntity<Map<String, Long>> getWebSocketDrops() {
+        return ResponseEntity.ok(rateLimiter.getDropCounts());
+    }
+
+    /**
+     * 事件总线异步分发统计：发布数、lane 满被丢弃的事件数、订阅者异常数
+     */
+    @GetMapping("/event-bus")
+    public ResponseEntity<Map<String, Long>> getEventBusStats() {
+        return ResponseEntity.ok(eventBus.getStats());
+    }
+
+    /**
+     * 房间事件日志（按时间从旧到新，最多最近 limit 条；同一房间多局依次排列，以 GAME_ENDED 分隔）
+     * 需要登录
+     */
+    @GetMapping("/room/{roomId}/journal")
+    public ResponseEntity<?> getEventJournal(@PathVariable("roomId") long roomId,
+                                             @RequestParam(value = "limit", defaultValue = "500") int limit,
+                                             @RequestHeader("Authorization") String authHeader) {
+        getUsernameFromAuth(authHeader);
+        try {
+            return ResponseEntity.ok(eventJournal.readLast(roomId, Math.max(0, Math.min(limit, 20000))));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to read journal: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/journal-stats")
+    public ResponseEntity<Map<String, Long>> getEventJournalStats() {
+        return ResponseEntity.ok(eventJournal.getStats());
+    }
+
+    /**
+     * 按录像重新模拟房间最近一局（Architecture A），返回是否逐帧一致、最终分数和回放速度
+     * 需要登录；同一时间只跑一个回放，正在跑时返回 409
+     */
+    @GetMapping("/room/{roomId}/replay")
+    public ResponseEntity<?> replayRoom(@PathVariable("roomId") long roomId,
+                                        @RequestHeader("Authorization") String authHeader) {
+        getUsernameFromAuth(authHeader);
+        try {
+            return replayEngine.replay(roomId)
+                    .<ResponseEntity<?>>map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    /**
+     * 离线批量模拟：机器人对局跑满模拟线程池，返回吞吐和结果分布（阻塞到整批跑完，同一时间只能跑一批）
+     * 有 Architecture A 房间正在进行时拒绝，避免和 tick 分片抢 CPU
+     */
+    @PostMapping("/simulations")
+    public ResponseEntity<?> runSimulation(@RequestBody SimulationRequest req,
+                                           @RequestHeader("Authorization") String authHeader) {
+        getUsernameFromAuth(authHeader);
+        boolean liveRooms = roomManager.getActiveWorlds().stream()
+                .anyMatch(world -> world.getPhase() != GameWorld.GamePhase.FINISHED);
+        if (liveRooms) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("有房间正在进行，暂不能运行批量模拟");
+        }
+        try {
+            return ResponseEntity.ok(batchSimulator.run(req));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
 }
@@ -228,6 +228,8 @@ public class LobbyController {
                     dto.setMapName(room.mapName);
                     dto.setWinMode(room.winMode);
                     dto.setMaxPlayers(room.maxPlayers);
+                    dto.setSimulationHz(room.simulationHz);
+                    dto.setSnapshotHz(room.snapshotHz);
                     return ResponseEntity.ok(dto);
                 })
                 .orElseGet(() -> ResponseEntity.notFound().build());
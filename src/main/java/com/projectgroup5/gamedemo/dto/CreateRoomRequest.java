@@ -4,6 +4,8 @@ public class CreateRoomRequest {
     private int maxPlayers;     // 1-4
     private String mapName;     // "Nebula-01" / "Asteroid Field" / "Eclipse Station"
     private String winMode;     // "SCORE_50" / "SCORE_100" / "TIME_1M" / "TIME_5M"
+    private int simulationHz;   // Arch A 物理模拟频率，0 = 默认 25Hz
+    private int snapshotHz;     // Arch A 快照广播频率，0 = 默认 25Hz，不超过 simulationHz
 
     public int getMaxPlayers() {
         return maxPlayers;
@@ -28,5 +30,21 @@ public class CreateRoomRequest {
     public void setWinMode(String winMode) {
         this.winMode = winMode;
     }
+
+    public int getSimulationHz() {
+        return simulationHz;
+    }
+
+    public void setSimulationHz(int simulationHz) {
+        this.simulationHz = simulationHz;
+    }
+
+    public int getSnapshotHz() {
+        return snapshotHz;
+    }
+
+    public void setSnapshotHz(int snapshotHz) {
+        this.snapshotHz = snapshotHz;
+    }
 }
 
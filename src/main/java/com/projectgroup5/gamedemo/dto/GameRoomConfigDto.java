@@ -8,6 +8,8 @@ public class GameRoomConfigDto {
     private String mapName;
     private String winMode;
     private int maxPlayers;
+    private int simulationHz;
+    private int snapshotHz;
 
     // getters & setters
     public long getRoomId() { return roomId; }
@@ -24,4 +26,10 @@ public class GameRoomConfigDto {
 
     public int getMaxPlayers() { return maxPlayers; }
     public void setMaxPlayers(int maxPlayers) { this.maxPlayers = maxPlayers; }
+
+    public int getSimulationHz() { return simulationHz; }
+    public void setSimulationHz(int simulationHz) { this.simulationHz = simulationHz; }
+
+    public int getSnapshotHz() { return snapshotHz; }
+    public void setSnapshotHz(int snapshotHz) { this.snapshotHz = snapshotHz; }
 }
@@ -14,6 +14,8 @@ public class RoomDto {
     private boolean started;                // 游戏是否已经开始
     private String architecture;            // 架构模式：A 或 B
     private int gameSessionId;              // 🔥 游戏局数ID，每开始一局游戏+1
+    private int simulationHz;               // Arch A 物理模拟频率
+    private int snapshotHz;                 // Arch A 快照广播频率
     private List<PlayerInfoDto> players;           // 按顺序：第一个是房主
     private List<String> readyUsernames;    // 已准备的玩家
 
@@ -112,4 +114,20 @@ public class RoomDto {
     public void setGameSessionId(int gameSessionId) {
         this.gameSessionId = gameSessionId;
     }
+
+    public int getSimulationHz() {
+        return simulationHz;
+    }
+
+    public void setSimulationHz(int simulationHz) {
+        this.simulationHz = simulationHz;
+    }
+
+    public int getSnapshotHz() {
+        return snapshotHz;
+    }
+
+    public void setSnapshotHz(int snapshotHz) {
+        this.snapshotHz = snapshotHz;
+    }
 }
@@ -0,0 +1,67 @@
+package com.projectgroup5.gamedemo.dto;
+
+public class SimulationRequest {
+    private int matches = 100;          // 对局数
+    private int players = 2;            // 每局机器人数 1-4
+    private String winMode = "TIME_1M"; // 同 CreateRoomRequest
+    private int simulationHz;           // 0 = 默认 25Hz
+    private String bots = "AIM";        // 机器人策略 AIM / RANDOM / IDLE，逗号分隔按座位轮流分配
+    private Long seed;                  // 为空时随机，同一个 seed 的批次结果可以重现
+    private int maxSeconds = 600;       // 单局最长模拟时间（秒），防止 SCORE_ 模式永远打不完
+
+    public int getMatches() {
+        return matches;
+    }
+
+    public void setMatches(int matches) {
+        this.matches = matches;
+    }
+
+    public int getPlayers() {
+        return players;
+    }
+
+    public void setPlayers(int players) {
+        this.players = players;
+    }
+
+    public String getWinMode() {
+        return winMode;
+    }
+
+    public void setWinMode(String winMode) {
+        this.winMode = winMode;
+    }
+
+    public int getSimulationHz() {
+        return simulationHz;
+    }
+
+    public void setSimulationHz(int simulationHz) {
+        this.simulationHz = simulationHz;
+    }
+
+    public String getBots() {
+        return bots;
+    }
+
+    public void setBots(String bots) {
+        this.bots = bots;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    public int getMaxSeconds() {
+        return maxSeconds;
+    }
+
+    public void setMaxSeconds(int maxSeconds) {
+        this.maxSeconds = maxSeconds;
+    }
+}
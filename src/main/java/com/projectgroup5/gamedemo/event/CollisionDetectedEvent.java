@@ -2,47 +2,49 @@ package com.projectgroup5.gamedemo.event;
 
 /**
  * 碰撞检测事件
+ * 热路径（碰撞检测）里用 newPool() 的池复用实例，见 PooledEvent
  */
-public class CollisionDetectedEvent implements GameEvent {
-    private final long roomId;
-    private final String entity1;
-    private final String entity2;
-    private final CollisionType type;
-    private final long timestamp;
-    
+public class CollisionDetectedEvent extends PooledEvent {
+    private String entity1;
+    private String entity2;
+    private CollisionType type;
+
     public enum CollisionType {
         BULLET_HIT_PLAYER,
         PLAYER_COLLISION
     }
-    
+
     public CollisionDetectedEvent(long roomId, String entity1, String entity2, CollisionType type) {
+        set(roomId, entity1, entity2, type, System.currentTimeMillis());
+    }
+
+    private CollisionDetectedEvent() {
+    }
+
+    public static EventPool<CollisionDetectedEvent> newPool(int capacity) {
+        return new EventPool<>(CollisionDetectedEvent::new, capacity);
+    }
+
+    /** 填充字段（池里取出的实例每次发布前都要调用） */
+    public CollisionDetectedEvent set(long roomId, String entity1, String entity2,
+                                      CollisionType type, long timestamp) {
         this.roomId = roomId;
         this.entity1 = entity1;
         this.entity2 = entity2;
         this.type = type;
-        this.timestamp = System.currentTimeMillis();
-    }
-    
-    @Override
-    public long getRoomId() {
-        return roomId;
+        this.timestamp = timestamp;
+        return this;
     }
-    
-    @Override
-    public long getTimestamp() {
-        return timestamp;
-    }
-    
+
     public String getEntity1() {
         return entity1;
     }
-    
+
     public String getEntity2() {
         return entity2;
     }
-    
+
     public CollisionType getType() {
         return type;
     }
 }
-
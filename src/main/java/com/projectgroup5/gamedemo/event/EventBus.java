@@ -1,62 +1,396 @@
 package com.projectgroup5.gamedemo.event;
 
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
 /**
  * 事件总线 - 实现模块间解耦通信
  * Architecture A 的核心组件：所有模块通过事件总线通信
+ *
+ * 两种发布方式：
+ * - publish：在调用者线程上同步执行普通订阅者
+ * - publishAsync：放进该房间的分发通道（lane），由分发线程按发布顺序执行，tick 线程只入队
+ *
+ * 每个房间一个 lane：定长环形队列 + 同一时刻最多一个消费者，所以同一房间的事件严格按发布顺序处理，
+ * 不同房间在分发线程池上并行。队列满时丢弃并计数（绝不阻塞 tick 线程）。
+ *
+ * subscribeBlocking 注册的订阅者（写库、调外部服务…）无论哪种发布方式都不在调用者线程上执行，
+ * 而是走每个房间单独的 blocking lane 和单独的线程池，慢订阅者不会拖住普通的异步订阅者。
+ *
+ * 分发表：每个事件类型一份预先算好的处理器数组（包括订阅了父类 / 接口的处理器，例如订阅 GameEvent 收到全部事件），
+ * 用 ClassValue 缓存，发布时不查 Map；订阅时版本号 +1，旧表在下次用到时重建。
+ * 没有订阅者时 publish 直接返回，热路径可以先用 hasSubscribers 判断，连事件对象都不用创建。
+ * PooledEvent 在所有通道处理完后自动归还到自己的池。
  */
 @Component
 public class EventBus {
     private static final Logger logger = LoggerFactory.getLogger(EventBus.class);
-    
-    // 事件类型 -> 处理器列表
-    private final Map<Class<? extends GameEvent>, List<Consumer<? extends GameEvent>>> handlers = 
-        new ConcurrentHashMap<>();
-    
+
+    // 一个 lane 每次最多连续处理多少条，处理完重新排队，避免一个热闹的房间霸占分发线程
+    private static final int DRAIN_BATCH = 256;
+
+    // 所有订阅（按订阅顺序），分发表从这里算出来
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // 订阅变化时 +1（在锁里改，保证每次订阅都对应一个新版本），分发表版本不一致就重建
+    private volatile int version;
+    // 事件类型 -> 分发表
+    private final ClassValue<DispatchTable> tables = new ClassValue<>() {
+        @Override
+        protected DispatchTable computeValue(Class<?> type) {
+            return buildTable(type);
+        }
+    };
+
+    // roomId -> 分发通道
+    private final Map<Long, Lane> asyncLanes = new ConcurrentHashMap<>();
+    private final Map<Long, Lane> blockingLanes = new ConcurrentHashMap<>();
+    // 已销毁的房间：之后发布到这些房间的事件直接丢弃，不再新建 lane（openRoom 重新启用）
+    private final Set<Long> releasedRooms = ConcurrentHashMap.newKeySet();
+    private final int laneCapacity;
+    private final ExecutorService dispatchExecutor;
+    private final ExecutorService blockingExecutor;
+
+    // 统计
+    private final LongAdder asyncPublished = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder releasedRoomEvents = new LongAdder();
+    private final LongAdder handlerErrors = new LongAdder();
+
+    public EventBus(@Value("${event-bus.lane-capacity:1024}") int laneCapacity,
+                    @Value("${event-bus.dispatch-threads:2}") int dispatchThreads,
+                    @Value("${event-bus.blocking-threads:2}") int blockingThreads) {
+        this.laneCapacity = Math.max(16, laneCapacity);
+        this.dispatchExecutor = Executors.newFixedThreadPool(Math.max(1, dispatchThreads), daemonThreads("event-dispatch-"));
+        this.blockingExecutor = Executors.newFixedThreadPool(Math.max(1, blockingThreads), daemonThreads("event-blocking-"));
+        logger.info("EventBus laneCapacity={}, dispatchThreads={}, blockingThreads={}",
+                this.laneCapacity, dispatchThreads, blockingThreads);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
     /**
      * 订阅事件
      * @param eventType 事件类型
      * @param handler 处理器
      */
     public <T extends GameEvent> void subscribe(Class<T> eventType, Consumer<T> handler) {
-        handlers.computeIfAbsent(eventType, k -> new CopyOnWriteArrayList<>())
-               .add(handler);
+        addSubscription(eventType, handler, false);
         logger.debug("Subscribed to event: {}", eventType.getSimpleName());
     }
-    
+
+    /**
+     * 订阅事件（处理器会阻塞：I/O、写库等）
+     * 永远在该房间的 blocking lane 上按发布顺序执行，不会跑在发布者（tick）线程上
+     */
+    public <T extends GameEvent> void subscribeBlocking(Class<T> eventType, Consumer<T> handler) {
+        addSubscription(eventType, handler, true);
+        logger.debug("Subscribed (blocking) to event: {}", eventType.getSimpleName());
+    }
+
     /**
-     * 发布事件（同步）
+     * 发布事件（同步）：普通订阅者在当前线程执行，阻塞型订阅者转到 blocking lane
      * @param event 事件对象
      */
-    @SuppressWarnings("unchecked")
     public <T extends GameEvent> void publish(T event) {
-        List<Consumer<? extends GameEvent>> eventHandlers = handlers.get(event.getClass());
-        if (eventHandlers != null) {
-            for (Consumer<? extends GameEvent> handler : eventHandlers) {
-                try {
-                    ((Consumer<T>) handler).accept(event);
-                } catch (Exception e) {
-                    logger.error("Error handling event {}: {}", 
-                        event.getClass().getSimpleName(), e.getMessage(), e);
-                }
+        DispatchTable table = table(event.getClass());
+        if (table.isEmpty()) {
+            recycle(event);
+            return;
+        }
+        boolean blocking = table.blocking.length > 0;
+        // 同步这一遍也算一个通道：blocking lane 还没处理完时不能在这里归还
+        retain(event, 1 + (blocking ? 1 : 0));
+        if (blocking) {
+            enqueue(blockingLanes, blockingExecutor, true, event);
+        }
+        dispatch(event, table.handlers);
+        recycle(event);
+    }
+
+    /**
+     * 发布事件（异步）：只入队，立即返回；同一房间的事件按发布顺序在分发线程上处理
+     * 队列满时丢弃并计数
+     */
+    public <T extends GameEvent> void publishAsync(T event) {
+        asyncPublished.increment();
+        DispatchTable table = table(event.getClass());
+        boolean async = table.handlers.length > 0;
+        boolean blocking = table.blocking.length > 0;
+        if (!async && !blocking) {
+            recycle(event);
+            return;
+        }
+        // 先把要交给几个通道记下来，避免第一个通道处理完时就被归还
+        retain(event, (async ? 1 : 0) + (blocking ? 1 : 0));
+        if (async) {
+            enqueue(asyncLanes, dispatchExecutor, false, event);
+        }
+        if (blocking) {
+            enqueue(blockingLanes, blockingExecutor, true, event);
+        }
+    }
+
+    /**
+     * 有没有订阅者会收到这种事件（含订阅父类 / 接口的）
+     * 热路径在创建事件对象之前先判断，没人订阅就什么都不做
+     */
+    public boolean hasSubscribers(Class<? extends GameEvent> eventType) {
+        return !table(eventType).isEmpty();
+    }
+
+    /**
+     * 房间创建时调用：同一个 roomId 之前被 releaseRoom 过的话重新接收事件
+     * 旧 lane 还没处理完就接着用它，保证新旧两局的事件不会被两个 lane 同时处理
+     */
+    public void openRoom(long roomId) {
+        releasedRooms.remove(roomId);
+        asyncLanes.computeIfPresent(roomId, (id, lane) -> lane.reopen());
+        blockingLanes.computeIfPresent(roomId, (id, lane) -> lane.reopen());
+    }
+
+    /**
+     * 房间销毁时调用：已经入队的事件仍会处理完，处理完 lane 自己从表里移除；
+     * 之后再发布到这个房间的事件直接丢弃（计入 releasedRoomEvents），不会重新建 lane
+     */
+    public void releaseRoom(long roomId) {
+        releasedRooms.add(roomId);
+        Lane lane = asyncLanes.get(roomId);
+        if (lane != null) lane.release();
+        lane = blockingLanes.get(roomId);
+        if (lane != null) lane.release();
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("asyncPublished", asyncPublished.sum());
+        stats.put("droppedEvents", droppedEvents.sum());
+        stats.put("releasedRoomEvents", releasedRoomEvents.sum());
+        stats.put("handlerErrors", handlerErrors.sum());
+        stats.put("asyncLanes", (long) asyncLanes.size());
+        stats.put("blockingLanes", (long) blockingLanes.size());
+        return stats;
+    }
+
+    private void enqueue(Map<Long, Lane> lanes, ExecutorService executor, boolean blocking, GameEvent event) {
+        Lane lane = releasedRooms.contains(event.getRoomId()) ? null
+                : lanes.computeIfAbsent(event.getRoomId(),
+                        id -> releasedRooms.contains(id) ? null : new Lane(id, lanes, laneCapacity, executor, blocking));
+        if (lane == null) {
+            // 房间已经销毁（例如 tick 线程停下之前最后几个事件）
+            releasedRoomEvents.increment();
+            recycle(event);
+            return;
+        }
+        if (!lane.offer(event)) {
+            droppedEvents.increment();
+            recycle(event);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Event lane for room {} is full, dropped {}",
+                        event.getRoomId(), event.getClass().getSimpleName());
+            }
+        }
+    }
+
+    private void dispatch(GameEvent event, Consumer<GameEvent>[] eventHandlers) {
+        for (Consumer<GameEvent> handler : eventHandlers) {
+            try {
+                handler.accept(event);
+            } catch (Exception e) {
+                handlerErrors.increment();
+                logger.error("Error handling event {}: {}",
+                    event.getClass().getSimpleName(), e.getMessage(), e);
             }
         }
     }
-    
+
+    private static void retain(GameEvent event, int channels) {
+        if (event instanceof PooledEvent pooled) {
+            pooled.retain(channels);
+        }
+    }
+
+    /** 一个通道用完了这个事件（池化事件在最后一个通道用完时归还） */
+    private static void recycle(GameEvent event) {
+        if (event instanceof PooledEvent pooled) {
+            pooled.release();
+        }
+    }
+
     /**
      * 取消订阅所有事件
      */
-    public void clear() {
-        handlers.clear();
+    public synchronized void clear() {
+        subscriptions.clear();
+        version++;
+    }
+
+    // ==================== 分发表 ====================
+
+    @SuppressWarnings("unchecked")
+    private synchronized void addSubscription(Class<? extends GameEvent> eventType, Consumer<? extends GameEvent> handler,
+                                 boolean blocking) {
+        subscriptions.add(new Subscription(eventType, (Consumer<GameEvent>) handler, blocking));
+        version++;
+    }
+
+    /** 取某个事件类型的分发表；订阅变过就重建（并发订阅时可能重建多次，但不会用到旧表） */
+    private DispatchTable table(Class<?> type) {
+        DispatchTable table = tables.get(type);
+        while (table.version != version) {
+            tables.remove(type);
+            table = tables.get(type);
+        }
+        return table;
+    }
+
+    /** 按订阅顺序收集所有能接收 type 的处理器（订阅类型是 type 本身或它的父类 / 接口） */
+    @SuppressWarnings("unchecked")
+    private DispatchTable buildTable(Class<?> type) {
+        int tableVersion = version; // 先读版本：构建期间有新订阅的话这张表会被判定过期
+        List<Consumer<GameEvent>> normal = new ArrayList<>();
+        List<Consumer<GameEvent>> blocking = new ArrayList<>();
+        for (Subscription s : subscriptions) {
+            if (s.eventType.isAssignableFrom(type)) {
+                (s.blocking ? blocking : normal).add(s.handler);
+            }
+        }
+        return new DispatchTable(tableVersion,
+                normal.toArray(new Consumer[0]), blocking.toArray(new Consumer[0]));
     }
-}
 
+    private static final class Subscription {
+        final Class<? extends GameEvent> eventType;
+        final Consumer<GameEvent> handler;
+        final boolean blocking;
+
+        Subscription(Class<? extends GameEvent> eventType, Consumer<GameEvent> handler, boolean blocking) {
+            this.eventType = eventType;
+            this.handler = handler;
+            this.blocking = blocking;
+        }
+    }
+
+    /** 一个事件类型的处理器数组（不可变，订阅变化时整张替换） */
+    private static final class DispatchTable {
+        final int version;
+        final Consumer<GameEvent>[] handlers;
+        final Consumer<GameEvent>[] blocking;
+
+        DispatchTable(int version, Consumer<GameEvent>[] handlers, Consumer<GameEvent>[] blocking) {
+            this.version = version;
+            this.handlers = handlers;
+            this.blocking = blocking;
+        }
+
+        boolean isEmpty() {
+            return handlers.length == 0 && blocking.length == 0;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatchExecutor.shutdownNow();
+        blockingExecutor.shutdownNow();
+    }
+
+    /**
+     * 单个房间的分发通道：定长队列（ArrayBlockingQueue 本身就是环形数组）+ 单消费者
+     * scheduled 保证同一时刻最多一个线程在处理这个 lane，所以处理顺序 = 入队顺序
+     * 房间销毁后（released）处理完剩下的事件就把自己从 lanes 里移除
+     */
+    private final class Lane implements Runnable {
+        private final long roomId;
+        private final Map<Long, Lane> lanes;
+        private final BlockingQueue<GameEvent> queue;
+        private final ExecutorService executor;
+        private final boolean blocking;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean released;
+
+        Lane(long roomId, Map<Long, Lane> lanes, int capacity, ExecutorService executor, boolean blocking) {
+            this.roomId = roomId;
+            this.lanes = lanes;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.executor = executor;
+            this.blocking = blocking;
+        }
+
+        void release() {
+            released = true;
+            // 排一次处理：队列已经空了就在那里移除
+            schedule();
+        }
+
+        /** openRoom 时在 lanes 的锁里调用，和 run 里的移除互斥 */
+        Lane reopen() {
+            released = false;
+            return this;
+        }
+
+        boolean offer(GameEvent event) {
+            if (!queue.offer(event)) return false;
+            schedule();
+            return true;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // 应用正在停止
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            GameEvent event;
+            int processed = 0;
+            while (processed < DRAIN_BATCH && (event = queue.poll()) != null) {
+                DispatchTable table = table(event.getClass());
+                dispatch(event, blocking ? table.blocking : table.handlers);
+                recycle(event);
+                processed++;
+            }
+            scheduled.set(false);
+            if (released && queue.isEmpty()) {
+                // 在 lanes 的锁里再确认一次，不会移除刚被 openRoom 重新启用的 lane
+                lanes.computeIfPresent(roomId, (id, lane) -> lane == this && released && queue.isEmpty() ? null : lane);
+            }
+            // 处理期间又有新事件（或者这一批没处理完）：重新排队
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
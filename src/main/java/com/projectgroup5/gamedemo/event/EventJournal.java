@@ -0,0 +1,551 @@
+package com.projectgroup5.gamedemo.event;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 按房间的事件日志（只追加，内存映射文件）
+ * - 订阅全部 GameEvent，在分发线程上编码成紧凑的二进制记录，交给单独的写线程
+ * - 写线程把记录顺序写进房间的段文件（mmap），段写满换下一个；GameEndedEvent 之后 force 并关闭
+ * - read 按顺序读回一个房间的全部事件（同一个房间多局比赛依次排列，以 GAME_ENDED 分隔）
+ *
+ * 文件：{dir}/room-{roomId}/{segment:06d}.journal，每个段固定 segmentBytes 大小
+ * 记录（大端序）：u16 bodyLength | u8 type | i64 timestamp | body
+ *   PLAYER_JOINED  str username
+ *   INPUT          str username, u8 inputBits（PlayerInput.BIT_*）, i64 sequence
+ *   COLLISION      str entity1, str entity2, u8 collisionType
+ *   SCORE          str username, i32 delta, i32 newTotal
+ *   GAME_ENDED     str winner, u8 playerCount, playerCount × (str username, i32 score)
+ * str = u8 长度 + UTF-8（超过 255 字节截断）。bodyLength = 0 表示这个段到此结束。
+ *
+ * 保留策略：换段时删掉这个房间超过 max-segments-per-room 个的最旧段和超过 max-age-hours 的段；
+ * 写线程每隔 SWEEP_INTERVAL_MILLIS 按时间清理一遍没在写的房间，段删光了连目录一起删（0 表示不限制）。
+ *
+ * event-journal.dir 为空时不记录。
+ */
+@Component
+public class EventJournal {
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    public static final byte PLAYER_JOINED = 1;
+    public static final byte INPUT = 2;
+    public static final byte COLLISION = 3;
+    public static final byte SCORE = 4;
+    public static final byte GAME_ENDED = 5;
+
+    private static final int HEADER_BYTES = 2 + 1 + 8;
+    private static final int MAX_BODY_BYTES = 0xFFFF;
+    private static final int WRITE_QUEUE_CAPACITY = 65_536;
+    private static final int MAX_OPEN_ROOMS = 64;
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String ROOM_DIR_PREFIX = "room-";
+    private static final long SWEEP_INTERVAL_MILLIS = 10 * 60 * 1000L;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegmentsPerRoom;
+    private final long maxAgeMillis;
+    private long lastSweep;
+
+    private final BlockingQueue<Pending> writeQueue = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // roomId -> 正在写的段（只在写线程上修改；读者只读 committed 位置）
+    private final Map<Long, RoomWriter> openRooms = new ConcurrentHashMap<>();
+
+    // 分发线程上编码用的缓冲区
+    private static final ThreadLocal<ByteBuffer> SCRATCH =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(HEADER_BYTES + MAX_BODY_BYTES));
+
+    // 统计
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+
+    public EventJournal(EventBus eventBus,
+                        @Value("${event-journal.dir:logs/event-journal}") String dir,
+                        @Value("${event-journal.segment-kb:1024}") int segmentKb,
+                        @Value("${event-journal.max-segments-per-room:16}") int maxSegmentsPerRoom,
+                        @Value("${event-journal.max-age-hours:24}") int maxAgeHours) {
+        this.dir = dir == null || dir.isBlank() ? null : Paths.get(dir);
+        this.segmentBytes = Math.max(64, segmentKb) * 1024;
+        this.maxSegmentsPerRoom = Math.max(0, maxSegmentsPerRoom);
+        this.maxAgeMillis = Math.max(0, maxAgeHours) * 3_600_000L;
+
+        if (this.dir != null) {
+            writerThread = new Thread(this::writeLoop, "event-journal-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+            // 普通订阅：在发布它的线程上编码（publishAsync 时就是该房间的分发线程，按房间保序），真正的 I/O 在写线程上
+            // 所以发布方都要用 publishAsync，不然编码会跑在调用者线程上
+            eventBus.subscribe(GameEvent.class, this::append);
+        } else {
+            writerThread = null;
+        }
+        logger.info("EventJournal dir={}, segmentBytes={}, maxSegmentsPerRoom={}, maxAgeHours={}",
+                this.dir, segmentBytes, this.maxSegmentsPerRoom, maxAgeHours);
+    }
+
+    // ==================== 写入 ====================
+
+    /** 编码一条事件并交给写线程（分发线程上调用，池化事件在这里就拷贝完了） */
+    void append(GameEvent event) {
+        ByteBuffer buf = SCRATCH.get();
+        buf.clear();
+        buf.position(2);
+        try {
+            if (!encode(buf, event)) return;
+        } catch (BufferOverflowException e) {
+            logger.warn("Journal record too large, skipped {}", event.getClass().getSimpleName());
+            return;
+        }
+        buf.putShort(0, (short) (buf.position() - HEADER_BYTES));
+
+        byte[] record = Arrays.copyOf(buf.array(), buf.position());
+        boolean end = event instanceof GameEndedEvent;
+        if (writeQueue.offer(new Pending(event.getRoomId(), record, end))) {
+            appended.incrementAndGet();
+        } else {
+            droppedRecords.incrementAndGet();
+        }
+    }
+
+    private static boolean encode(ByteBuffer buf, GameEvent event) {
+        if (event instanceof PlayerJoinedEvent e) {
+            header(buf, PLAYER_JOINED, e);
+            putString(buf, e.getUsername());
+        } else if (event instanceof InputReceivedEvent e) {
+            header(buf, INPUT, e);
+            putString(buf, e.getUsername());
+            buf.put((byte) e.getInput().toBits());
+            buf.putLong(e.getInput().getSequence());
+        } else if (event instanceof CollisionDetectedEvent e) {
+            header(buf, COLLISION, e);
+            putString(buf, e.getEntity1());
+            putString(buf, e.getEntity2());
+            buf.put((byte) e.getType().ordinal());
+        } else if (event instanceof ScoreUpdatedEvent e) {
+            header(buf, SCORE, e);
+            putString(buf, e.getUsername());
+            buf.putInt(e.getDelta());
+            buf.putInt(e.getNewTotal());
+        } else if (event instanceof GameEndedEvent e) {
+            header(buf, GAME_ENDED, e);
+            putString(buf, e.getWinner());
+            Map<String, Integer> scores = e.getFinalScores();
+            int n = Math.min(scores.size(), 255);
+            buf.put((byte) n);
+            for (Map.Entry<String, Integer> s : scores.entrySet()) {
+                if (n-- == 0) break;
+                putString(buf, s.getKey());
+                buf.putInt(s.getValue() == null ? 0 : s.getValue());
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static void header(ByteBuffer buf, byte type, GameEvent event) {
+        buf.put(type);
+        buf.putLong(event.getTimestamp());
+    }
+
+    private static void putString(ByteBuffer buf, String s) {
+        byte[] utf8 = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(utf8.length, 255);
+        buf.put((byte) len);
+        buf.put(utf8, 0, len);
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(256);
+        while (running || !writeQueue.isEmpty()) {
+            Pending first;
+            try {
+                first = writeQueue.poll(500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                if (running) continue;
+                first = writeQueue.poll();
+            }
+            maybeSweep();
+            if (first == null) continue;
+
+            batch.add(first);
+            writeQueue.drainTo(batch, 255);
+            for (Pending p : batch) {
+                try {
+                    write(p);
+                } catch (IOException e) {
+                    logger.error("Event journal write failed for room {}", p.roomId, e);
+                    closeRoom(p.roomId);
+                }
+            }
+            batch.clear();
+        }
+        new ArrayList<>(openRooms.keySet()).forEach(this::closeRoom);
+    }
+
+    private void write(Pending p) throws IOException {
+        RoomWriter room = openRooms.get(p.roomId);
+        if (room == null) {
+            if (openRooms.size() >= MAX_OPEN_ROOMS) {
+                // 太多房间同时打开：先关掉一个（下次写它时会开新段）
+                closeRoom(openRooms.keySet().iterator().next());
+            }
+            room = new RoomWriter(roomDir(p.roomId), maxSegmentsPerRoom, maxAgeMillis);
+            openRooms.put(p.roomId, room);
+        }
+        room.append(p.record, segmentBytes);
+        writtenBytes.addAndGet(p.record.length);
+        if (p.endOfMatch) {
+            closeRoom(p.roomId);
+        }
+    }
+
+    private void closeRoom(long roomId) {
+        RoomWriter room = openRooms.remove(roomId);
+        if (room != null) {
+            room.close();
+        }
+    }
+
+    /** 按时间清理没在写的房间（写线程上调用，最多每 SWEEP_INTERVAL_MILLIS 一次） */
+    private void maybeSweep() {
+        long now = System.currentTimeMillis();
+        if (maxAgeMillis <= 0 || now - lastSweep < SWEEP_INTERVAL_MILLIS) return;
+        lastSweep = now;
+        if (!Files.isDirectory(dir)) return;
+
+        List<Path> roomDirs;
+        try (Stream<Path> files = Files.list(dir)) {
+            roomDirs = files.filter(f -> f.getFileName().toString().startsWith(ROOM_DIR_PREFIX)).toList();
+        } catch (IOException e) {
+            logger.warn("Event journal sweep failed: {}", e.getMessage());
+            return;
+        }
+        for (Path roomDir : roomDirs) {
+            Long roomId = parseRoomId(roomDir.getFileName().toString());
+            if (roomId == null || openRooms.containsKey(roomId)) continue;
+            try {
+                if (pruneSegments(roomDir, maxSegmentsPerRoom, maxAgeMillis, null) == 0) {
+                    Files.deleteIfExists(roomDir);
+                }
+            } catch (IOException e) {
+                // 段还被映射着（Windows）或者目录里有别的文件：下次再试
+                logger.debug("Event journal sweep skipped {}: {}", roomDir, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 删掉 roomDir 里超出数量上限的最旧段和过期的段（keep 是正在写的段，不删）
+     * @return 剩下的段数
+     */
+    private static int pruneSegments(Path roomDir, int maxSegments, long maxAgeMillis, Path keep) throws IOException {
+        List<Path> segments = listSegments(roomDir);
+        long cutoff = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        int remaining = segments.size();
+        for (Path segment : segments) {
+            if (segment.equals(keep)) continue;
+            boolean overCap = maxSegments > 0 && remaining > maxSegments;
+            if (!overCap && Files.getLastModifiedTime(segment).toMillis() >= cutoff) continue;
+            try {
+                Files.deleteIfExists(segment);
+                remaining--;
+            } catch (IOException e) {
+                logger.debug("Event journal could not delete {}: {}", segment, e.getMessage());
+            }
+        }
+        return remaining;
+    }
+
+    /** 房间目录里的全部段，按段号从旧到新 */
+    private static List<Path> listSegments(Path roomDir) throws IOException {
+        try (Stream<Path> files = Files.list(roomDir)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static Long parseRoomId(String dirName) {
+        try {
+            return Long.parseLong(dirName.substring(ROOM_DIR_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (writerThread != null) {
+            writerThread.interrupt();
+            try {
+                writerThread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("appended", appended.get());
+        stats.put("droppedRecords", droppedRecords.get());
+        stats.put("writtenBytes", writtenBytes.get());
+        stats.put("pendingWrites", (long) writeQueue.size());
+        stats.put("openRooms", (long) openRooms.size());
+        return stats;
+    }
+
+    private Path roomDir(long roomId) {
+        return dir.resolve(ROOM_DIR_PREFIX + roomId);
+    }
+
+    // ==================== 读取 ====================
+
+    /**
+     * 按写入顺序读回一个房间的全部记录（包括还在写的段里已经提交的部分）
+     * 写入队列里还没落到段文件的记录读不到
+     */
+    public void read(long roomId, Consumer<Entry> consumer) throws IOException {
+        if (dir == null) return;
+        Path roomDir = roomDir(roomId);
+        if (!Files.isDirectory(roomDir)) return;
+
+        List<Path> segments = listSegments(roomDir);
+        RoomWriter writing = openRooms.get(roomId);
+        for (Path segment : segments) {
+            // 正在写的段只读到已提交的位置，其他段读到结束标记为止
+            int limit = writing != null ? writing.committedLimit(segment) : -1;
+            try {
+                readSegment(roomId, segment, limit, consumer);
+            } catch (NoSuchFileException e) {
+                // 列出之后被保留策略删掉了
+            }
+        }
+    }
+
+    /** 最多读最近的 limit 条（按时间从旧到新） */
+    public List<Entry> readLast(long roomId, int limit) throws IOException {
+        ArrayDeque<Entry> last = new ArrayDeque<>();
+        read(roomId, e -> {
+            last.addLast(e);
+            if (last.size() > limit) last.removeFirst();
+        });
+        return new ArrayList<>(last);
+    }
+
+    private static void readSegment(long roomId, Path segment, int limit, Consumer<Entry> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int end = (int) (limit >= 0 ? Math.min(limit, size) : size);
+            if (end <= 0) return;
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+            while (buf.remaining() >= HEADER_BYTES) {
+                int bodyLength = buf.getShort() & 0xFFFF;
+                if (bodyLength == 0) break; // 段结束
+                byte type = buf.get();
+                long timestamp = buf.getLong();
+                if (buf.remaining() < bodyLength) break;
+                int bodyEnd = buf.position() + bodyLength;
+                consumer.accept(decode(roomId, type, timestamp, buf));
+                buf.position(bodyEnd);
+            }
+        }
+    }
+
+    private static Entry decode(long roomId, byte type, long timestamp, ByteBuffer buf) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        String name;
+        switch (type) {
+            case PLAYER_JOINED:
+                name = "PLAYER_JOINED";
+                data.put("username", getString(buf));
+                break;
+            case INPUT:
+                name = "INPUT";
+                data.put("username", getString(buf));
+                data.put("bits", buf.get() & 0xFF);
+                data.put("sequence", buf.getLong());
+                break;
+            case COLLISION:
+                name = "COLLISION";
+                data.put("entity1", getString(buf));
+                data.put("entity2", getString(buf));
+                int ordinal = buf.get() & 0xFF;
+                CollisionDetectedEvent.CollisionType[] types = CollisionDetectedEvent.CollisionType.values();
+                data.put("collisionType", ordinal < types.length ? types[ordinal].name() : String.valueOf(ordinal));
+                break;
+            case SCORE:
+                name = "SCORE";
+                data.put("username", getString(buf));
+                data.put("delta", buf.getInt());
+                data.put("newTotal", buf.getInt());
+                break;
+            case GAME_ENDED:
+                name = "GAME_ENDED";
+                data.put("winner", getString(buf));
+                Map<String, Integer> scores = new LinkedHashMap<>();
+                int n = buf.get() & 0xFF;
+                for (int i = 0; i < n; i++) {
+                    String player = getString(buf);
+                    scores.put(player, buf.getInt());
+                }
+                data.put("finalScores", scores);
+                break;
+            default:
+                name = "UNKNOWN_" + type;
+        }
+        return new Entry(roomId, name, timestamp, data);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int len = buf.get() & 0xFF;
+        byte[] utf8 = new byte[len];
+        buf.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    // ==================== 段文件 ====================
+
+    /** 一个房间正在写的段（只在写线程上写） */
+    private static class RoomWriter {
+        private final Path roomDir;
+        private final int maxSegments;
+        private final long maxAgeMillis;
+        private int segmentNo = -1;
+        private Path segmentPath;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        // 读者可见的已提交位置：高 32 位段号、低 32 位偏移，写完整条记录后才前移（-1 = 没有）
+        private volatile long committed = -1;
+
+        RoomWriter(Path roomDir, int maxSegments, long maxAgeMillis) {
+            this.roomDir = roomDir;
+            this.maxSegments = maxSegments;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        void append(byte[] record, int segmentBytes) throws IOException {
+            if (buffer == null || buffer.remaining() < record.length + 2) {
+                roll(Math.max(segmentBytes, record.length + 2));
+            }
+            buffer.put(record);
+            committed = ((long) segmentNo << 32) | buffer.position();
+        }
+
+        int committedLimit(Path segment) {
+            long c = committed;
+            if (c < 0 || parseSegmentNo(segment.getFileName().toString()) != (int) (c >>> 32)) return -1;
+            return (int) c;
+        }
+
+        /**
+         * 当前段写结束标记（剩余空间本来就是 0），换新段；新段号 = 目录里已有的最大段号 + 1
+         * 新段建好后按保留策略删掉这个房间的旧段
+         */
+        private void roll(int size) throws IOException {
+            close();
+            if (segmentNo < 0) {
+                Files.createDirectories(roomDir);
+                segmentNo = 0;
+                try (Stream<Path> files = Files.list(roomDir)) {
+                    segmentNo = files.map(f -> f.getFileName().toString())
+                            .filter(n -> n.endsWith(SEGMENT_SUFFIX))
+                            .mapToInt(n -> parseSegmentNo(n) + 1)
+                            .max().orElse(0);
+                }
+            } else {
+                segmentNo++;
+            }
+            segmentPath = roomDir.resolve(String.format("%06d", segmentNo) + SEGMENT_SUFFIX);
+            channel = FileChannel.open(segmentPath,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            pruneSegments(roomDir, maxSegments, maxAgeMillis, segmentPath);
+        }
+
+        private static int parseSegmentNo(String fileName) {
+            try {
+                return Integer.parseInt(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        void close() {
+            if (buffer != null) {
+                buffer.force();
+                buffer = null;
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.warn("Event journal close failed: {}", segmentPath, e);
+                }
+                channel = null;
+            }
+            committed = -1;
+        }
+    }
+
+    private static class Pending {
+        final long roomId;
+        final byte[] record;
+        final boolean endOfMatch;
+
+        Pending(long roomId, byte[] record, boolean endOfMatch) {
+            this.roomId = roomId;
+            this.record = record;
+            this.endOfMatch = endOfMatch;
+        }
+    }
+
+    /** 读回的一条记录 */
+    public static class Entry {
+        private final long roomId;
+        private final String type;
+        private final long timestamp;
+        private final Map<String, Object> data;
+
+        Entry(long roomId, String type, long timestamp, Map<String, Object> data) {
+            this.roomId = roomId;
+            this.type = type;
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+
+        public long getRoomId() { return roomId; }
+        public String getType() { return type; }
+        public long getTimestamp() { return timestamp; }
+        public Map<String, Object> getData() { return data; }
+    }
+}
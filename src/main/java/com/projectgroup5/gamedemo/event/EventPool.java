@@ -0,0 +1,34 @@
+package com.projectgroup5.gamedemo.event;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * PooledEvent 的对象池
+ * - 发布者（tick 线程）取，分发线程还，所以要线程安全；ArrayBlockingQueue 入队出队不分配节点
+ * - 池空了就新建，池满了归还的对象直接丢给 GC，稳定运行时不分配
+ */
+public class EventPool<T extends PooledEvent> {
+    private final ArrayBlockingQueue<T> free;
+    private final Supplier<T> factory;
+
+    public EventPool(Supplier<T> factory, int capacity) {
+        this.factory = factory;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /** 取一个事件对象（字段是上一次用剩的，调用方必须重新填一遍） */
+    public T acquire() {
+        T event = free.poll();
+        if (event == null) {
+            event = factory.get();
+            event.attach(this);
+        }
+        return event;
+    }
+
+    @SuppressWarnings("unchecked")
+    void recycle(PooledEvent event) {
+        free.offer((T) event);
+    }
+}
@@ -0,0 +1,47 @@
+package com.projectgroup5.gamedemo.event;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 可复用的事件（热路径用，例如每次碰撞都会发的事件）
+ * - 从 EventPool 取出、填好字段后发布；所有订阅者处理完之后由 EventBus 自动归还到池里
+ * - 订阅者不能在处理方法返回之后继续持有这个对象（需要的话自己拷贝字段）
+ * - 直接 new 出来的实例没有池，归还时什么也不做，和普通事件一样用
+ */
+public abstract class PooledEvent implements GameEvent {
+    private EventPool<?> pool;
+    // 还有几个分发通道没处理完
+    private final AtomicInteger pending = new AtomicInteger();
+
+    protected long roomId;
+    protected long timestamp;
+
+    void attach(EventPool<?> pool) {
+        this.pool = pool;
+    }
+
+    /** EventBus 把事件交给 n 个分发通道之前调用 */
+    void retain(int n) {
+        pending.addAndGet(n);
+    }
+
+    /** 一个分发通道处理完（或丢弃）了这个事件；最后一个处理完的归还到池里 */
+    void release() {
+        if (pending.decrementAndGet() <= 0) {
+            pending.set(0);
+            if (pool != null) {
+                pool.recycle(this);
+            }
+        }
+    }
+
+    @Override
+    public long getRoomId() {
+        return roomId;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
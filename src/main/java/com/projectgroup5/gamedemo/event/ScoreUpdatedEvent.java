@@ -2,42 +2,43 @@ package com.projectgroup5.gamedemo.event;
 
 /**
  * 分数更新事件
+ * 热路径（碰撞检测）里用 newPool() 的池复用实例，见 PooledEvent
  */
-public class ScoreUpdatedEvent implements GameEvent {
-    private final long roomId;
-    private final String username;
-    private final int delta;
-    private final int newTotal;
-    private final long timestamp;
-    
+public class ScoreUpdatedEvent extends PooledEvent {
+    private String username;
+    private int delta;
+    private int newTotal;
+
     public ScoreUpdatedEvent(long roomId, String username, int delta, int newTotal) {
+        set(roomId, username, delta, newTotal, System.currentTimeMillis());
+    }
+
+    private ScoreUpdatedEvent() {
+    }
+
+    public static EventPool<ScoreUpdatedEvent> newPool(int capacity) {
+        return new EventPool<>(ScoreUpdatedEvent::new, capacity);
+    }
+
+    /** 填充字段（池里取出的实例每次发布前都要调用） */
+    public ScoreUpdatedEvent set(long roomId, String username, int delta, int newTotal, long timestamp) {
         this.roomId = roomId;
         this.username = username;
         this.delta = delta;
         this.newTotal = newTotal;
-        this.timestamp = System.currentTimeMillis();
+        this.timestamp = timestamp;
+        return this;
     }
-    
-    @Override
-    public long getRoomId() {
-        return roomId;
-    }
-    
-    @Override
-    public long getTimestamp() {
-        return timestamp;
-    }
-    
+
     public String getUsername() {
         return username;
     }
-    
+
     public int getDelta() {
         return delta;
     }
-    
+
     public int getNewTotal() {
         return newTotal;
     }
 }
-
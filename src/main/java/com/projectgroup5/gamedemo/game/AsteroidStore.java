@@ -0,0 +1,61 @@
+package com.projectgroup5.gamedemo.game;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * 石头存储（障碍物），在 EntityStore 的基础上加 big 列
+ * 从上往下掉落，玩家需要躲避或射击摧毁
+ */
+public class AsteroidStore extends EntityStore {
+    public static final double BIG_RADIUS = 26;
+    public static final double SMALL_RADIUS = 16;
+    public static final double MAX_RADIUS = BIG_RADIUS;
+
+    boolean[] big;
+
+    AsteroidStore(int initialCapacity) {
+        super(initialCapacity);
+        big = new boolean[id.length];
+    }
+
+    public boolean isBigAt(int i) {
+        return big[i];
+    }
+
+    /**
+     * 生成一个石头，返回下标
+     * 大石头：半径 26，2 发子弹，80-120 px/s；小石头：半径 16，1 发子弹，100-160 px/s
+     * 速度取自 random（GameWorld 按 seed 初始化的随机数，回放时可重现）
+     */
+    int spawn(int asteroidId, double ax, double ay, boolean isBig, SplittableRandom random) {
+        int i = allocate();
+        id[i] = asteroidId;
+        big[i] = isBig;
+        x[i] = ax;
+        y[i] = ay;
+        vx[i] = 0;
+        if (isBig) {
+            radius[i] = BIG_RADIUS;
+            hp[i] = 2;
+            vy[i] = 80 + random.nextDouble() * 40;
+        } else {
+            radius[i] = SMALL_RADIUS;
+            hp[i] = 1;
+            vy[i] = 100 + random.nextDouble() * 60;
+        }
+        return i;
+    }
+
+    @Override
+    void move(int from, int to) {
+        super.move(from, to);
+        big[to] = big[from];
+    }
+
+    @Override
+    void resize(int capacity) {
+        super.resize(capacity);
+        big = Arrays.copyOf(big, capacity);
+    }
+}
@@ -0,0 +1,412 @@
+package com.projectgroup5.gamedemo.game;
+
+import com.projectgroup5.gamedemo.dto.SimulationRequest;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * 离线批量模拟（容量规划 / 平衡性 / 物理回归负载）
+ * - 每局新建一个 GameWorld，座位上放 SimulationBot，用无头 PhysicsEngine 逐步推进，不看墙上时钟、不广播、不发事件
+ * - 各局之间互不共享状态，分给专用的 fork-join 池并行（不占用 tick 分片线程）；
+ *   默认只用一半的核，和实时房间在同一个 JVM 里时不会把 tick 分片挤满
+ * - 报告吞吐（ticks/s、实体更新/s、相当于多少个实时房间）和结果分布（结束原因、时长、分数、各座位胜率）
+ *
+ * 同一时间只跑一个批次；同一个 seed 的批次结果完全相同（并行顺序不影响单局结果）。
+ */
+@Component
+public class BatchSimulator {
+    private static final Logger logger = LoggerFactory.getLogger(BatchSimulator.class);
+
+    private static final int MAX_MATCHES = 100_000;
+    private static final int MAX_SECONDS = 3600;
+
+    // 画面延迟恒为 0（机器人没有网络延迟），补偿窗口用不到
+    private final PhysicsEngine physics = PhysicsEngine.headless(0);
+    private final ForkJoinPool pool;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public BatchSimulator(@Value("${game.simulation.parallelism:0}") int parallelism) {
+        int threads = parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.pool = new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("batch-sim-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 跑一个批次（阻塞到全部对局结束）
+     * @throws IllegalArgumentException 参数不合法
+     * @throws IllegalStateException    已有批次在运行
+     */
+    public Report run(SimulationRequest request) {
+        int matches = request.getMatches();
+        int players = request.getPlayers();
+        int maxSeconds = request.getMaxSeconds();
+        if (matches < 1 || matches > MAX_MATCHES) {
+            throw new IllegalArgumentException("matches 必须在 1-" + MAX_MATCHES + " 之间");
+        }
+        if (players < 1 || players > PositionHistory.MAX_PLAYERS) {
+            throw new IllegalArgumentException("players 必须在 1-" + PositionHistory.MAX_PLAYERS + " 之间");
+        }
+        if (maxSeconds < 1 || maxSeconds > MAX_SECONDS) {
+            throw new IllegalArgumentException("maxSeconds 必须在 1-" + MAX_SECONDS + " 之间");
+        }
+        SimulationBot.Strategy[] strategies = parseStrategies(request.getBots());
+        String winMode = request.getWinMode() == null ? "TIME_1M" : request.getWinMode();
+        int simulationHz = GameWorld.normalizeSimulationHz(request.getSimulationHz());
+        long seed = request.getSeed() != null ? request.getSeed() : ThreadLocalRandom.current().nextLong();
+
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("已有批量模拟在运行");
+        }
+        try {
+            long startNanos = System.nanoTime();
+            List<MatchResult> results = pool.submit(() -> IntStream.range(0, matches).parallel()
+                    .mapToObj(i -> runMatch(i, seed, winMode, simulationHz, players, strategies, maxSeconds))
+                    .toList()).join();
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            Report report = new Report(results, seed, winMode, simulationHz, strategies,
+                    pool.getParallelism(), elapsedNanos);
+            logger.info("Batch simulation: matches={}, ticks={}, {} ticks/s, {} entities/s, {} ms",
+                    matches, report.totalTicks, Math.round(report.ticksPerSecond),
+                    Math.round(report.entitiesPerSecond), Math.round(report.wallMillis));
+            return report;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private static SimulationBot.Strategy[] parseStrategies(String bots) {
+        if (bots == null || bots.isBlank()) {
+            return new SimulationBot.Strategy[]{SimulationBot.Strategy.AIM};
+        }
+        String[] names = bots.split(",");
+        SimulationBot.Strategy[] strategies = new SimulationBot.Strategy[names.length];
+        for (int i = 0; i < names.length; i++) {
+            try {
+                strategies[i] = SimulationBot.Strategy.valueOf(names[i].trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("未知的机器人策略: " + names[i].trim());
+            }
+        }
+        return strategies;
+    }
+
+    /** 跑一局（在 fork-join 工作线程上，world 只属于这一个线程） */
+    private MatchResult runMatch(int index, long batchSeed, String winMode, int simulationHz,
+                                 int players, SimulationBot.Strategy[] strategies, int maxSeconds) {
+        long matchSeed = batchSeed + index * 0x9E3779B97F4A7C15L;
+        GameWorld world = new GameWorld(-(index + 1L), "simulation", winMode, players,
+                simulationHz, simulationHz, matchSeed);
+        SplittableRandom botRandom = new SplittableRandom(~matchSeed);
+        SimulationBot[] bots = new SimulationBot[players];
+        for (int slot = 0; slot < players; slot++) {
+            bots[slot] = new SimulationBot("bot-" + slot, strategies[slot % strategies.length], botRandom.split());
+            world.addPlayer(bots[slot].getUsername());
+        }
+        world.setPhase(GameWorld.GamePhase.IN_PROGRESS);
+
+        long maxFrames = (long) maxSeconds * world.getSimulationHz();
+        long entityUpdates = 0;
+        GameWorld.EndReason reason = null;
+        while (reason == null && world.getCurrentFrameNumber() < maxFrames) {
+            for (SimulationBot bot : bots) {
+                bot.act(world, physics);
+            }
+            physics.step(world);
+            entityUpdates += world.getPlayers().size() + world.getBullets().size() + world.getAsteroids().size();
+            reason = world.checkEndCondition();
+        }
+        world.setPhase(GameWorld.GamePhase.FINISHED);
+        return new MatchResult(world, bots, reason, entityUpdates);
+    }
+
+    /** 一局的结果（按座位顺序） */
+    private static class MatchResult {
+        final long frames;
+        final long entityUpdates;
+        final double seconds;
+        final String endReason;
+        final int[] scores;
+        final boolean[] alive;
+        final int winnerSlot;
+
+        MatchResult(GameWorld world, SimulationBot[] bots, GameWorld.EndReason reason, long entityUpdates) {
+            this.frames = world.getCurrentFrameNumber();
+            this.entityUpdates = entityUpdates;
+            this.seconds = world.getSimulatedMillis() / 1000.0;
+            this.endReason = reason == null ? "MAX_TIME" : reason.name();
+            this.scores = new int[bots.length];
+            this.alive = new boolean[bots.length];
+            int winner = 0;
+            for (int slot = 0; slot < bots.length; slot++) {
+                PlayerEntity p = world.getPlayers().get(bots[slot].getUsername());
+                scores[slot] = p.score;
+                alive[slot] = p.alive;
+                // 和 GameTickScheduler.finishGame 一样：分数最高者获胜，平分取先入座的
+                if (p.score > scores[winner]) {
+                    winner = slot;
+                }
+            }
+            this.winnerSlot = winner;
+        }
+    }
+
+    /** 一批模拟的报告 */
+    public static class Report {
+        private final int matches;
+        private final int players;
+        private final String winMode;
+        private final int simulationHz;
+        private final long seed;
+        private final int parallelism;
+
+        // 吞吐
+        private final double wallMillis;
+        private final long totalTicks;
+        private final long totalEntityUpdates;
+        private final double ticksPerSecond;
+        private final double entitiesPerSecond;
+        private final double matchesPerSecond;
+        private final double realtimeRoomEquivalent;
+
+        // 结果分布
+        private final Map<String, Integer> endReasons = new TreeMap<>();
+        private final Distribution matchSeconds;
+        private final Distribution scores;
+        private final Distribution winnerScores;
+        private final List<SlotStats> slots = new ArrayList<>();
+
+        Report(List<MatchResult> results, long seed, String winMode, int simulationHz,
+               SimulationBot.Strategy[] strategies, int parallelism, long elapsedNanos) {
+            this.matches = results.size();
+            this.players = results.get(0).scores.length;
+            this.winMode = winMode;
+            this.simulationHz = simulationHz;
+            this.seed = seed;
+            this.parallelism = parallelism;
+
+            double[] lengths = new double[matches];
+            double[] allScores = new double[matches * players];
+            double[] winners = new double[matches];
+            int[] wins = new int[players];
+            long[] scoreSums = new long[players];
+            int[] survivors = new int[players];
+            long ticks = 0, entities = 0;
+            for (int m = 0; m < matches; m++) {
+                MatchResult r = results.get(m);
+                ticks += r.frames;
+                entities += r.entityUpdates;
+                endReasons.merge(r.endReason, 1, Integer::sum);
+                lengths[m] = r.seconds;
+                winners[m] = r.scores[r.winnerSlot];
+                wins[r.winnerSlot]++;
+                for (int slot = 0; slot < players; slot++) {
+                    allScores[m * players + slot] = r.scores[slot];
+                    scoreSums[slot] += r.scores[slot];
+                    if (r.alive[slot]) survivors[slot]++;
+                }
+            }
+
+            double seconds = Math.max(1, elapsedNanos) / 1e9;
+            this.wallMillis = seconds * 1000;
+            this.totalTicks = ticks;
+            this.totalEntityUpdates = entities;
+            this.ticksPerSecond = ticks / seconds;
+            this.entitiesPerSecond = entities / seconds;
+            this.matchesPerSecond = matches / seconds;
+            this.realtimeRoomEquivalent = ticksPerSecond / simulationHz;
+
+            this.matchSeconds = new Distribution(lengths);
+            this.scores = new Distribution(allScores);
+            this.winnerScores = new Distribution(winners);
+            for (int slot = 0; slot < players; slot++) {
+                slots.add(new SlotStats(slot, strategies[slot % strategies.length].name(),
+                        (double) wins[slot] / matches, (double) scoreSums[slot] / matches,
+                        (double) survivors[slot] / matches));
+            }
+        }
+
+        public int getMatches() {
+            return matches;
+        }
+
+        public int getPlayers() {
+            return players;
+        }
+
+        public String getWinMode() {
+            return winMode;
+        }
+
+        public int getSimulationHz() {
+            return simulationHz;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public double getWallMillis() {
+            return wallMillis;
+        }
+
+        public long getTotalTicks() {
+            return totalTicks;
+        }
+
+        public long getTotalEntityUpdates() {
+            return totalEntityUpdates;
+        }
+
+        public double getTicksPerSecond() {
+            return ticksPerSecond;
+        }
+
+        public double getEntitiesPerSecond() {
+            return entitiesPerSecond;
+        }
+
+        public double getMatchesPerSecond() {
+            return matchesPerSecond;
+        }
+
+        /** 这个吞吐相当于同时跑多少个实时房间（ticks/s ÷ simulationHz） */
+        public double getRealtimeRoomEquivalent() {
+            return realtimeRoomEquivalent;
+        }
+
+        public Map<String, Integer> getEndReasons() {
+            return endReasons;
+        }
+
+        public Distribution getMatchSeconds() {
+            return matchSeconds;
+        }
+
+        public Distribution getScores() {
+            return scores;
+        }
+
+        public Distribution getWinnerScores() {
+            return winnerScores;
+        }
+
+        public List<SlotStats> getSlots() {
+            return slots;
+        }
+    }
+
+    /** 某个座位（出生位置 + 策略）的汇总 */
+    public static class SlotStats {
+        private final int slot;
+        private final String strategy;
+        private final double winRate;
+        private final double meanScore;
+        private final double survivalRate;
+
+        SlotStats(int slot, String strategy, double winRate, double meanScore, double survivalRate) {
+            this.slot = slot;
+            this.strategy = strategy;
+            this.winRate = winRate;
+            this.meanScore = meanScore;
+            this.survivalRate = survivalRate;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public String getStrategy() {
+            return strategy;
+        }
+
+        public double getWinRate() {
+            return winRate;
+        }
+
+        public double getMeanScore() {
+            return meanScore;
+        }
+
+        public double getSurvivalRate() {
+            return survivalRate;
+        }
+    }
+
+    /** 一组数值的分布（最小 / 均值 / 分位数 / 最大） */
+    public static class Distribution {
+        private final double min;
+        private final double mean;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double max;
+
+        Distribution(double[] values) {
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            double sum = 0;
+            for (double v : sorted) sum += v;
+            int n = sorted.length;
+            this.min = n == 0 ? 0 : sorted[0];
+            this.max = n == 0 ? 0 : sorted[n - 1];
+            this.mean = n == 0 ? 0 : sum / n;
+            this.p50 = percentile(sorted, 0.50);
+            this.p90 = percentile(sorted, 0.90);
+            this.p99 = percentile(sorted, 0.99);
+        }
+
+        private static double percentile(double[] sorted, double q) {
+            if (sorted.length == 0) return 0;
+            int i = (int) Math.ceil(q * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.projectgroup5.gamedemo.game;
+
+import java.util.Arrays;
+
+/**
+ * 子弹存储（服务器权威），在 EntityStore 的基础上加 owner 列
+ * 子弹 hp 固定为 1，命中后置 0，碰撞检测结束时统一删除
+ */
+public class BulletStore extends EntityStore {
+    public static final double RADIUS = 4;
+    public static final double SPEED = 400; // pixels/second
+    public static final int DAMAGE = 10;
+
+    String[] owner;
+    // 延迟补偿：和玩家做命中判定时，玩家位置回退多少帧（发射者开火时看到的画面落后的帧数）
+    int[] rewindFrames;
+
+    BulletStore(int initialCapacity) {
+        super(initialCapacity);
+        owner = new String[id.length];
+        rewindFrames = new int[id.length];
+    }
+
+    public String ownerAt(int i) {
+        return owner[i];
+    }
+
+    /**
+     * 新增一颗向上飞的子弹，返回下标
+     */
+    int add(int bulletId, String ownerName, double bx, double by) {
+        int i = allocate();
+        id[i] = bulletId;
+        owner[i] = ownerName;
+        x[i] = bx;
+        y[i] = by;
+        vx[i] = 0;
+        vy[i] = -SPEED; // 向上发射
+        radius[i] = RADIUS;
+        hp[i] = 1;
+        rewindFrames[i] = 0;
+        return i;
+    }
+
+    /** 删除某个玩家的所有子弹 */
+    void removeOwnedBy(String ownerName) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (owner[i].equals(ownerName)) {
+                removeAt(i);
+            }
+        }
+    }
+
+    @Override
+    void move(int from, int to) {
+        super.move(from, to);
+        owner[to] = owner[from];
+        rewindFrames[to] = rewindFrames[from];
+    }
+
+    @Override
+    void resize(int capacity) {
+        super.resize(capacity);
+        owner = Arrays.copyOf(owner, capacity);
+        rewindFrames = Arrays.copyOf(rewindFrames, capacity);
+    }
+
+    @Override
+    void clearSlot(int i) {
+        super.clearSlot(i);
+        owner[i] = null;
+    }
+}
@@ -0,0 +1,126 @@
+package com.projectgroup5.gamedemo.game;
+
+import java.util.Arrays;
+
+/**
+ * 实体 SoA 存储（Structure of Arrays）
+ * - 每个字段一个并行的基本类型数组：x / y / vx / vy / radius / hp
+ * - 存活实体始终紧凑地排在 [0, size) 里，删除用 swap-remove（最后一个挪到空位）
+ * - 物理更新、碰撞检测都是对这些数组的线性扫描，缓存友好，JIT 可以向量化
+ *
+ * - 槽位就是对象池：删除后留在数组里被后续实体复用，数组只增不减，稳定运行时不分配内存
+ *
+ * 下标在一次 compact / removeAt 之后会变化，不要跨帧保存下标，跨帧请用 id。
+ * id 是 GameWorld 分配的单调递增 int，同一个房间内不会重复。
+ * 子类追加自己的列，并覆盖 move / resize / clearSlot。
+ */
+public class EntityStore {
+    int size;
+
+    int[] id;
+    double[] x;
+    double[] y;
+    double[] vx;
+    double[] vy;
+    double[] radius;
+    int[] hp;
+
+    EntityStore(int initialCapacity) {
+        int cap = Math.max(1, initialCapacity);
+        id = new int[cap];
+        x = new double[cap];
+        y = new double[cap];
+        vx = new double[cap];
+        vy = new double[cap];
+        radius = new double[cap];
+        hp = new int[cap];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int idAt(int i) {
+        return id[i];
+    }
+
+    public double xAt(int i) {
+        return x[i];
+    }
+
+    public double yAt(int i) {
+        return y[i];
+    }
+
+    public int hpAt(int i) {
+        return hp[i];
+    }
+
+    public double radiusAt(int i) {
+        return radius[i];
+    }
+
+    /** 按 id 查找下标，找不到返回 -1 */
+    public int indexOf(int entityId) {
+        for (int i = 0; i < size; i++) {
+            if (id[i] == entityId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** 在末尾分配一个槽位并返回下标（容量不够时翻倍扩容） */
+    int allocate() {
+        if (size == x.length) {
+            resize(x.length * 2);
+        }
+        return size++;
+    }
+
+    /** swap-remove：把最后一个实体挪到 i */
+    void removeAt(int i) {
+        int last = --size;
+        if (i != last) {
+            move(last, i);
+        }
+        clearSlot(last);
+    }
+
+    /** 删除所有 hp <= 0 的实体（碰撞检测里先标记、最后统一压缩） */
+    void removeDead() {
+        for (int i = size - 1; i >= 0; i--) {
+            if (hp[i] <= 0) {
+                removeAt(i);
+            }
+        }
+    }
+
+    void move(int from, int to) {
+        id[to] = id[from];
+        x[to] = x[from];
+        y[to] = y[from];
+        vx[to] = vx[from];
+        vy[to] = vy[from];
+        radius[to] = radius[from];
+        hp[to] = hp[from];
+    }
+
+    void resize(int capacity) {
+        id = Arrays.copyOf(id, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        hp = Arrays.copyOf(hp, capacity);
+    }
+
+    /** 释放槽位上的对象引用（基本类型列不用清） */
+    void clearSlot(int i) {
+    }
+}
@@ -0,0 +1,107 @@
+package com.projectgroup5.gamedemo.game;
+
+/**
+ * 房间游戏时钟（固定步长 + 累加器）
+ * - 每次 tick 把真实经过的时间累加进来，按固定步长切出若干模拟步，余数留到下一次（漂移补偿）
+ * - 单次 tick 最多追赶 maxCatchUpSteps 步，超出的部分直接丢弃并记为跳帧
+ * - 记录 tick 处理耗时超过一个步长的次数（overrun）
+ *
+ * 只在房间所在的 tick 分片线程上使用，不需要同步。
+ */
+public class GameClock {
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final long stepNanos;
+    private final double stepSeconds;
+    private final int maxCatchUpSteps;
+
+    private long lastAdvanceNanos = -1;
+    private long accumulatorNanos;
+
+    // 统计
+    private long simulatedSteps;
+    private long skippedSteps;
+    private long overrunTicks;
+    private long maxTickWorkNanos;
+
+    public GameClock(double stepSeconds, int maxCatchUpSteps) {
+        this.stepSeconds = stepSeconds;
+        this.stepNanos = Math.round(stepSeconds * 1_000_000_000L);
+        this.maxCatchUpSteps = Math.max(1, maxCatchUpSteps);
+    }
+
+    /**
+     * 从现在开始计时（进入 IN_PROGRESS 时调用），清空累加器
+     */
+    public void reset(long nowNanos) {
+        lastAdvanceNanos = nowNanos;
+        accumulatorNanos = 0;
+    }
+
+    /**
+     * 推进真实时间，返回本次 tick 需要执行的模拟步数
+     */
+    public int advance(long nowNanos) {
+        if (lastAdvanceNanos < 0) {
+            reset(nowNanos);
+            return 0;
+        }
+
+        long elapsed = Math.max(0, nowNanos - lastAdvanceNanos);
+        lastAdvanceNanos = nowNanos;
+        accumulatorNanos += elapsed;
+
+        long due = accumulatorNanos / stepNanos;
+        accumulatorNanos -= due * stepNanos;
+
+        if (due > maxCatchUpSteps) {
+            // 落后太多：只追 maxCatchUpSteps 步，其余丢弃，避免越追越慢
+            skippedSteps += due - maxCatchUpSteps;
+            due = maxCatchUpSteps;
+        }
+
+        simulatedSteps += due;
+        return (int) due;
+    }
+
+    /**
+     * 记录一次 tick 的处理耗时，超过一个步长记为 overrun
+     */
+    public void recordTickWork(long workNanos) {
+        if (workNanos > stepNanos) {
+            overrunTicks++;
+        }
+        if (workNanos > maxTickWorkNanos) {
+            maxTickWorkNanos = workNanos;
+        }
+    }
+
+    public double getStepSeconds() {
+        return stepSeconds;
+    }
+
+    public long getStepNanos() {
+        return stepNanos;
+    }
+
+    /** 已模拟的游戏时间（毫秒），TIME_ 胜利条件以它为准 */
+    public long getSimulatedMillis() {
+        return simulatedSteps * stepNanos / NANOS_PER_MILLI;
+    }
+
+    public long getSimulatedSteps() {
+        return simulatedSteps;
+    }
+
+    public long getSkippedSteps() {
+        return skippedSteps;
+    }
+
+    public long getOverrunTicks() {
+        return overrunTicks;
+    }
+
+    public long getMaxTickWorkMillis() {
+        return maxTickWorkNanos / NANOS_PER_MILLI;
+    }
+}
@@ -5,6 +5,7 @@ import com.projectgroup5.gamedemo.event.EventBus;
 import com.projectgroup5.gamedemo.event.PlayerJoinedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.util.Collection;
@@ -24,9 +25,13 @@ public class GameRoomManager {
     private final Map<Long, GameWorld> activeGames = new ConcurrentHashMap<>();
     
     private final EventBus eventBus;
+    private final GameTickScheduler tickScheduler;
+    private final ReplayEngine replayEngine;
     
-    public GameRoomManager(EventBus eventBus) {
+    public GameRoomManager(EventBus eventBus, @Lazy GameTickScheduler tickScheduler, ReplayEngine replayEngine) {
         this.eventBus = eventBus;
+        this.tickScheduler = tickScheduler;
+        this.replayEngine = replayEngine;
     }
     
     /**
@@ -40,17 +45,27 @@ public class GameRoomManager {
             return activeGames.get(roomId);
         }
         
+        // 同一个房间号可能开过上一局（已 releaseRoom），重新接收事件
+        eventBus.openRoom(roomId);
+
         GameWorld world = new GameWorld(
             roomId,
             roomDto.getMapName(),
             roomDto.getWinMode(),
-            roomDto.getMaxPlayers()
+            roomDto.getMaxPlayers(),
+            roomDto.getSimulationHz(),
+            roomDto.getSnapshotHz()
         );
         
+        // 录制回放要在加入玩家之前开始
+        if (replayEngine.isRecordEnabled()) {
+            world.startRecording(replayEngine.getHashIntervalFrames());
+        }
+        
         // 初始化所有玩家
         roomDto.getPlayers().forEach(player -> {
             world.addPlayer(player.getUsername());
-            eventBus.publish(new PlayerJoinedEvent(roomId, player.getUsername()));
+            eventBus.publishAsync(new PlayerJoinedEvent(roomId, player.getUsername()));
             logger.info("Added player {} to game room {}", player.getUsername(), roomId);
         });
         
@@ -58,9 +73,12 @@ public class GameRoomManager {
         world.setPhase(GameWorld.GamePhase.COUNTDOWN);
         world.setGameStartTime(System.currentTimeMillis() + 3000); // 3秒倒计时
         
+        int playerCount = world.getPlayers().size();
         activeGames.put(roomId, world);
+        // 从这里开始 world 只由 tick 线程修改
+        tickScheduler.startRoom(world);
         logger.info("Created GameWorld (Architecture A) for roomId={}, players={}", 
-            roomId, world.getPlayers().size());
+            roomId, playerCount);
         
         return world;
     }
@@ -77,7 +95,7 @@ public class GameRoomManager {
      */
     public boolean isPlayerInRoom(long roomId, String username) {
         return getGameRoom(roomId)
-            .map(world -> world.getPlayers().containsKey(username))
+            .map(world -> world.hasPlayer(username))
             .orElse(false);
     }
     
@@ -86,6 +104,8 @@ public class GameRoomManager {
      */
     public void removeGameRoom(long roomId) {
         GameWorld world = activeGames.remove(roomId);
+        tickScheduler.stopRoom(roomId);
+        eventBus.releaseRoom(roomId);
         if (world != null) {
             logger.info("Removed GameWorld for roomId={}", roomId);
         }
@@ -1,43 +1,47 @@
 package com.projectgroup5.gamedemo.game;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.projectgroup5.gamedemo.dao.GameLogRepository;
 import com.projectgroup5.gamedemo.entity.GameLog;
 import com.projectgroup5.gamedemo.event.EventBus;
 import com.projectgroup5.gamedemo.event.GameEndedEvent;
+import com.projectgroup5.gamedemo.event.InputReceivedEvent;
 import com.projectgroup5.gamedemo.service.LobbyService;
 import com.projectgroup5.gamedemo.websocket.GameWebSocketHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Scheduled;
+import jakarta.annotation.PreDestroy;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
 import java.util.stream.Collectors;
 
 /**
  * 游戏主循环调度器 - Architecture A 核心
- * 25Hz (每40ms一帧) 的固定时间步长
+ * - 每个房间按自己的 simulationHz 推进（默认 25 FPS，40ms 一帧）
+ * - 快照按 snapshotHz 广播，可低于模拟频率（例如 60Hz 模拟 + 20Hz 快照）
+ * - 每个 GameWorld 有自己的 tick 循环，固定分配（pin）到一个 tick 分片线程
+ * - 分片数 = CPU 核数，不同分片上的房间并行推进，一个慢房间不会拖住其他分片
  *
  * 数据流:
  * Client Input → WebSocket → Event:InputReceived → Physics Tick →
  * Collision Detection → Event:Collision/Score → State Snapshot →
- * WebSocket → Clients (Render)
- */
-/**
- * Architecture A 的主游戏循环：
- * - 固定 25 FPS（40ms 一帧）
- * - 从 GameRoomManager 拿到所有活跃的 GameWorld
- * - 更新物理、碰撞
- * - 通过 GameWebSocketHandler 广播 GAME_STATE
+ * WebSocket (GameWebSocketHandler 广播 GAME_STATE) → Clients (Render)
  */
 @Component
 public class GameTickScheduler {
 
     private static final Logger logger = LoggerFactory.getLogger(GameTickScheduler.class);
 
-    private static final double TICK_RATE = 25.0;        // 25 FPS
-    private static final double DELTA_TIME = 1.0 / TICK_RATE; // 0.04s
+    private static final long REMOVE_FINISHED_DELAY_MS = 5000;
 
     private final GameRoomManager roomManager;
     private final PhysicsEngine physicsEngine;
@@ -46,6 +50,14 @@ public class GameTickScheduler {
     private final ObjectMapper objectMapper;
     private final GameLogRepository gameLogRepository;
     private final LobbyService lobbyService;
+    private final SnapshotEncoder snapshotEncoder;
+    private final ReplayEngine replayEngine;
+
+    // tick 分片：每个分片一个单线程调度器，房间按 roomId 固定落到某个分片
+    private final ScheduledExecutorService[] shards;
+
+    // roomId -> 该房间的 tick 循环
+    private final Map<Long, ScheduledFuture<?>> roomLoops = new ConcurrentHashMap<>();
 
     public GameTickScheduler(GameRoomManager roomManager,
                              PhysicsEngine physicsEngine,
@@ -53,7 +65,9 @@ public class GameTickScheduler {
                              EventBus eventBus,
                              ObjectMapper objectMapper,
                              GameLogRepository gameLogRepository,
-                             LobbyService lobbyService) {
+                             LobbyService lobbyService,
+                             SnapshotEncoder snapshotEncoder,
+                             ReplayEngine replayEngine) {
         this.roomManager = roomManager;
         this.physicsEngine = physicsEngine;
         this.webSocketHandler = webSocketHandler;
@@ -61,114 +75,164 @@ public class GameTickScheduler {
         this.objectMapper = objectMapper;
         this.gameLogRepository = gameLogRepository;
         this.lobbyService = lobbyService;
+        this.snapshotEncoder = snapshotEncoder;
+        this.replayEngine = replayEngine;
+
+        int shardCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.shards = new ScheduledExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String name = "game-tick-" + i;
+            shards[i] = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        logger.info("GameTickScheduler started with {} tick shards", shardCount);
     }
 
-    /** 唯一的游戏主循环 */
-    @Scheduled(fixedRate = 40) // 约等于 25 FPS
-    public void tick() {
-        roomManager.getAllActiveGames().forEach((roomId, world) -> {
-            try {
-                processGameWorld(world);
-            } catch (Exception e) {
-                logger.error("Error processing game world {}", roomId, e);
-            }
+    /** 房间创建时由 GameRoomManager 调用：在所属分片上启动该房间的 tick 循环 */
+    public void startRoom(GameWorld world) {
+        long roomId = world.getRoomId();
+        roomLoops.computeIfAbsent(roomId, id -> {
+            logger.info("Room {} pinned to tick shard {}, simulation={}Hz, snapshot={}Hz",
+                    id, shardIndex(id), world.getSimulationHz(), world.getSnapshotHz());
+            return shardFor(id).scheduleAtFixedRate(
+                    () -> tick(world), 0, world.getClock().getStepNanos(), TimeUnit.NANOSECONDS);
         });
     }
 
+    /** 房间移除时由 GameRoomManager 调用：停止该房间的 tick 循环 */
+    public void stopRoom(long roomId) {
+        ScheduledFuture<?> loop = roomLoops.remove(roomId);
+        if (loop != null) {
+            loop.cancel(false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ScheduledExecutorService shard : shards) {
+            shard.shutdownNow();
+        }
+    }
+
+    /** 单个房间的一帧；异常必须吞掉，否则 scheduleAtFixedRate 会停止后续执行 */
+    private void tick(GameWorld world) {
+        try {
+            processGameWorld(world);
+        } catch (Exception e) {
+            logger.error("Error processing game world {}", world.getRoomId(), e);
+        }
+    }
+
+    private int shardIndex(long roomId) {
+        return (int) Math.floorMod(roomId, (long) shards.length);
+    }
+
+    private ScheduledExecutorService shardFor(long roomId) {
+        return shards[shardIndex(roomId)];
+    }
+
     private void processGameWorld(GameWorld world) {
+        long tickStartNanos = System.nanoTime();
         long now = System.currentTimeMillis();
 
+        // 先执行其他线程排队的修改（加入玩家、开始倒计时…），之后本帧只有 tick 线程在写 world
+        runPendingCommands(world);
+
         switch (world.getPhase()) {
             case WAITING:
                 // 等待玩家，不动；纯靠 WebSocket JOIN 把玩家加进来
-                broadcastGameState(world);
+                broadcastIfDue(world, tickStartNanos);
                 break;
 
             case COUNTDOWN:
                 if (now >= world.getGameStartTime()) {
+                    world.getClock().reset(tickStartNanos);
                     world.setPhase(GameWorld.GamePhase.IN_PROGRESS);
                     logger.info("Game {} started", world.getRoomId());
                 }
-                broadcastGameState(world);
+                broadcastIfDue(world, tickStartNanos);
                 break;
 
-            case IN_PROGRESS:
-                // 1) 物理更新：玩家位置（根据 velocity）、子弹、石头
-                physicsEngine.updatePositions(world, DELTA_TIME);
+            case IN_PROGRESS: {
+                // 按真实经过时间切出固定步长的模拟步（落后时追赶，最多 MAX_CATCH_UP_STEPS 步）
+                GameClock clock = world.getClock();
+                int steps = clock.advance(tickStartNanos);
 
-                // 2) 碰撞检测：子弹 vs 石头、石头 vs 玩家、子弹 vs 玩家
-                physicsEngine.detectCollisions(world);
+                // 0) 一次性应用本帧之前到达的所有输入（移动 / 射击）
+                applyPendingInputs(world);
 
-                // 3) 检查是否满足胜利条件
-                if (checkWinCondition(world)) {
-                    finishGame(world);
+                for (int i = 0; i < steps && world.getPhase() == GameWorld.GamePhase.IN_PROGRESS; i++) {
+                    // 1-3) 开火、物理更新、碰撞检测、帧号 +1（和回放共用同一个模拟步）
+                    physicsEngine.step(world);
+
+                    // 4) 检查是否满足胜利条件
+                    if (checkWinCondition(world)) {
+                        finishGame(world);
+                    }
                 }
 
-                // 4) 广播状态
-                broadcastGameState(world);
+                // 5) 广播状态（按 snapshotHz 节流）
+                broadcastIfDue(world, tickStartNanos);
 
-                // 5) 帧号 +1
-                world.incrementFrame();
+                clock.recordTickWork(System.nanoTime() - tickStartNanos);
 
                 // 打一点简单日志看玩家是否存在
-                if (!world.getPlayers().isEmpty()) {
+                if (logger.isDebugEnabled() && !world.getPlayers().isEmpty()) {
                     world.getPlayers().values().forEach(p ->
                             logger.debug("Room {} Player {} at ({},{}), hp={}, score={}",
                                     world.getRoomId(), p.username, p.x, p.y, p.hp, p.score));
                 }
                 break;
+            }
 
             case FINISHED:
                 // 已结束：广播一次最终状态即可，后面会被清理
-                broadcastGameState(world);
+                broadcastIfDue(world, tickStartNanos);
                 break;
         }
-    }
 
-    /** 胜利条件：检查分数/时间目标以及玩家存活状态 */
-    private boolean checkWinCondition(GameWorld world) {
-        // 🔥 首先检查：所有玩家是否都死了
-        long aliveCount = world.getPlayers().values().stream()
-                .filter(p -> p.alive).count();
-        
-        if (aliveCount == 0) {
-            // 所有玩家都死了，游戏结束
-            logger.info("Game {} ends: all players dead", world.getRoomId());
-            return true;
-        }
-        
-        String winMode = world.getWinMode();
-
-        // 检查分数目标
-        if (winMode.startsWith("SCORE_")) {
-            int targetScore = Integer.parseInt(winMode.substring(6));
-            boolean hasWinner = world.getPlayers().values().stream()
-                    .anyMatch(p -> p.score >= targetScore && p.alive);
-            if (hasWinner) {
-                logger.info("Game {} ends: score target reached", world.getRoomId());
-                return true;
+        // 不在游戏中时到达的输入直接丢弃
+        if (world.getPhase() != GameWorld.GamePhase.IN_PROGRESS) {
+            while (world.pollInput() != null) {
+                // drop
             }
         }
+    }
 
-        // 检查时间目标
-        if (winMode.startsWith("TIME_")) {
-            String timeStr = winMode.substring(5);
-            int minutes = Integer.parseInt(timeStr.substring(0, timeStr.length() - 1));
-            long elapsed = System.currentTimeMillis() - world.getGameStartTime();
-            if (elapsed >= minutes * 60 * 1000L) {
-                logger.info("Game {} ends: time limit reached", world.getRoomId());
-                return true;
+    private void runPendingCommands(GameWorld world) {
+        Consumer<GameWorld> command;
+        while ((command = world.pollCommand()) != null) {
+            try {
+                command.accept(world);
+            } catch (Exception e) {
+                logger.error("Room {} command failed", world.getRoomId(), e);
             }
         }
+    }
 
-        // 🔥 注释掉"只剩1人"逻辑：用户要求所有人HP=0才结束
-        // 多人模式：只剩1人存活时结束（该玩家获胜）
-        // if (world.getMaxPlayers() > 1 && aliveCount == 1) {
-        //     logger.info("Game {} ends: only 1 player alive", world.getRoomId());
-        //     return true;
-        // }
+    /** 按到达顺序应用排队的输入；有人订阅时才创建 InputReceivedEvent */
+    private void applyPendingInputs(GameWorld world) {
+        boolean publishInputs = eventBus.hasSubscribers(InputReceivedEvent.class);
+        PlayerInput input;
+        while ((input = world.pollInput()) != null) {
+            if (publishInputs) {
+                eventBus.publishAsync(new InputReceivedEvent(world.getRoomId(), input.getUsername(), input));
+            }
+            physicsEngine.processInput(world, input);
+        }
+    }
 
-        return false;
+    /** 胜利条件：检查分数/时间目标以及玩家存活状态（判定逻辑在 GameWorld，离线模拟共用） */
+    private boolean checkWinCondition(GameWorld world) {
+        GameWorld.EndReason reason = world.checkEndCondition();
+        if (reason == null) {
+            return false;
+        }
+        logger.info("Game {} ends: {}", world.getRoomId(), reason.description);
+        return true;
     }
 
     /** 结束游戏 + 写 GameLog + 通知 Lobby + 延迟清理 GameWorld */
@@ -177,7 +241,14 @@ public class GameTickScheduler {
 
         world.setPhase(GameWorld.GamePhase.FINISHED);
         long now = System.currentTimeMillis();
-        long elapsedMs = now - world.getGameStartTime();
+        GameClock clock = world.getClock();
+        long elapsedMs = world.getSimulatedMillis();
+
+        // 录像交给 ReplayEngine 保存（房间 5 秒后就会被移除）
+        InputRecording recording = world.finishRecording(now);
+        if (recording != null) {
+            replayEngine.save(recording);
+        }
 
         Map<String, Integer> finalScores = world.getPlayers().values().stream()
                 .collect(Collectors.toMap(p -> p.username, p -> p.score));
@@ -187,9 +258,12 @@ public class GameTickScheduler {
                 .map(p -> p.username)
                 .orElse("N/A");
 
-        eventBus.publish(new GameEndedEvent(world.getRoomId(), finalScores, winner));
+        eventBus.publishAsync(new GameEndedEvent(world.getRoomId(), finalScores, winner));
         logger.info("Game {} finished, winner={}, scores={}",
                 world.getRoomId(), winner, finalScores);
+        logger.info("Game {} clock: simulatedSteps={}, skippedSteps={}, overrunTicks={}, maxTickWorkMs={}",
+                world.getRoomId(), clock.getSimulatedSteps(), clock.getSkippedSteps(),
+                clock.getOverrunTicks(), clock.getMaxTickWorkMillis());
 
         // 保存到 GameLog
         try {
@@ -211,6 +285,8 @@ public class GameTickScheduler {
             meta.put("maxPlayers", world.getMaxPlayers());
             meta.put("architecture", "A");
             meta.put("totalFrames", world.getCurrentFrameNumber());
+            meta.put("skippedFrames", clock.getSkippedSteps());
+            meta.put("tickOverruns", clock.getOverrunTicks());
 
             Map<String, Object> root = new LinkedHashMap<>();
             root.put("players", players);
@@ -233,80 +309,110 @@ public class GameTickScheduler {
         // 通知 Lobby 把房间状态重置
         lobbyService.resetRoomAfterGame(world.getRoomId());
 
-        // 5 秒后清理 GameWorld
-        new Thread(() -> {
-            try {
-                Thread.sleep(5000);
-                roomManager.removeGameRoom(world.getRoomId());
-                logger.info("GameWorld removed for room {}", world.getRoomId());
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }).start();
+        // 5 秒后清理 GameWorld（在本房间所在分片上延迟执行，不再单独起线程）
+        shardFor(world.getRoomId()).schedule(() -> {
+            roomManager.removeGameRoom(world.getRoomId());
+            logger.info("GameWorld removed for room {}", world.getRoomId());
+        }, REMOVE_FINISHED_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void broadcastIfDue(GameWorld world, long nowNanos) {
+        if (world.pollSnapshotDue(nowNanos)) {
+            broadcastGameState(world);
+        }
     }
 
-    /** 构造 GAME_STATE JSON，并通过 GameWebSocketHandler 广播 */
+    /**
+     * 广播 GAME_STATE：二进制客户端收 SnapshotEncoder 编码的帧，旧客户端收 JSON
+     * - 每种格式只在房间里有对应客户端时才编码
+     * - 二进制帧相对各客户端 ACK 的基线做增量；ACK 相同的客户端共用一次编码结果，
+     *   没 ACK 或基线已经滚出 SnapshotHistory 的客户端共用一个关键帧
+     */
     private void broadcastGameState(GameWorld world) {
+        long roomId = world.getRoomId();
         try {
-            Map<String, Object> state = new HashMap<>();
-            state.put("type", "GAME_STATE");
-            state.put("roomId", world.getRoomId());
-            state.put("frame", world.getCurrentFrameNumber());
-            state.put("phase", world.getPhase().name());
-
-            if (world.getPhase() == GameWorld.GamePhase.COUNTDOWN) {
-                long remain = world.getGameStartTime() - System.currentTimeMillis();
-                state.put("countdownMs", Math.max(0, remain));
+            long now = System.currentTimeMillis();
+            LongFunction<byte[]> binaryForAck = null;
+            if (webSocketHandler.hasSnapshotSubscribers(roomId, true)) {
+                SnapshotHistory history = world.getSnapshotHistory();
+                SnapshotFrame current = history.capture(world, now);
+                Map<Long, byte[]> encoded = new HashMap<>(4);
+                binaryForAck = ackSeq -> {
+                    SnapshotFrame base = history.find(ackSeq);
+                    return encoded.computeIfAbsent(base == null ? 0L : base.seq,
+                            k -> snapshotEncoder.encode(history, current, base));
+                };
             }
-
-            if (world.getPhase() == GameWorld.GamePhase.IN_PROGRESS) {
-                long elapsed = System.currentTimeMillis() - world.getGameStartTime();
-                state.put("elapsedMs", elapsed);
+            String json = webSocketHandler.hasSnapshotSubscribers(roomId, false)
+                    ? buildGameStateJson(world, now) : null;
+            if (binaryForAck != null || json != null) {
+                webSocketHandler.broadcastSnapshotToRoom(roomId, json, binaryForAck);
             }
+        } catch (Exception e) {
+            logger.error("Failed to broadcast game state", e);
+        }
+    }
 
-            List<Map<String, Object>> players = new ArrayList<>();
-            world.getPlayers().forEach((u, p) -> {
-                Map<String, Object> m = new HashMap<>();
-                m.put("username", u);
-                m.put("x", p.x);
-                m.put("y", p.y);
-                m.put("hp", p.hp);
-                m.put("score", p.score);
-                m.put("alive", p.alive);
-                players.add(m);
-            });
-            state.put("players", players);
-
-            List<Map<String, Object>> bullets = new ArrayList<>();
-            world.getBullets().forEach((id, b) -> {
-                Map<String, Object> m = new HashMap<>();
-                m.put("id", id);
-                m.put("owner", b.owner);
-                m.put("x", b.x);
-                m.put("y", b.y);
-                bullets.add(m);
-            });
-            state.put("bullets", bullets);
-
-            List<Map<String, Object>> asteroids = new ArrayList<>();
-            world.getAsteroids().forEach((id, a) -> {
-                Map<String, Object> m = new HashMap<>();
-                m.put("id", id);
-                m.put("x", a.x);
-                m.put("y", a.y);
-                m.put("radius", a.radius);
-                m.put("hp", a.hp);
-                m.put("isBig", a.isBig);
-                asteroids.add(m);
-            });
-            state.put("asteroids", asteroids);
+    /** 构造 GAME_STATE JSON（兼容未协商二进制格式的客户端） */
+    private String buildGameStateJson(GameWorld world, long now) throws JsonProcessingException {
+        Map<String, Object> state = new HashMap<>();
+        state.put("type", "GAME_STATE");
+        state.put("roomId", world.getRoomId());
+        state.put("frame", world.getCurrentFrameNumber());
+        state.put("phase", world.getPhase().name());
+        state.put("simulationHz", world.getSimulationHz());
+
+        if (world.getPhase() == GameWorld.GamePhase.COUNTDOWN) {
+            long remain = world.getGameStartTime() - now;
+            state.put("countdownMs", Math.max(0, remain));
+        }
 
-            String json = objectMapper.writeValueAsString(state);
-            webSocketHandler.broadcastToRoom(world.getRoomId(), json);
+        if (world.getPhase() == GameWorld.GamePhase.IN_PROGRESS) {
+            state.put("elapsedMs", world.getClock().getSimulatedMillis());
+        }
 
-        } catch (Exception e) {
-            logger.error("Failed to broadcast game state", e);
+        List<Map<String, Object>> players = new ArrayList<>();
+        world.getPlayers().forEach((u, p) -> {
+            Map<String, Object> m = new HashMap<>();
+            m.put("username", u);
+            m.put("x", p.x);
+            m.put("y", p.y);
+            m.put("hp", p.hp);
+            m.put("score", p.score);
+            m.put("alive", p.alive);
+            m.put("lastInputSeq", p.lastInputSeq);
+            m.put("lastInputFrame", p.lastInputFrame);
+            players.add(m);
+        });
+        state.put("players", players);
+
+        BulletStore bulletStore = world.getBullets();
+        List<Map<String, Object>> bullets = new ArrayList<>(bulletStore.size());
+        for (int i = 0; i < bulletStore.size(); i++) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("id", bulletStore.idAt(i));
+            m.put("owner", bulletStore.ownerAt(i));
+            m.put("x", bulletStore.xAt(i));
+            m.put("y", bulletStore.yAt(i));
+            bullets.add(m);
         }
+        state.put("bullets", bullets);
+
+        AsteroidStore asteroidStore = world.getAsteroids();
+        List<Map<String, Object>> asteroids = new ArrayList<>(asteroidStore.size());
+        for (int i = 0; i < asteroidStore.size(); i++) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("id", asteroidStore.idAt(i));
+            m.put("x", asteroidStore.xAt(i));
+            m.put("y", asteroidStore.yAt(i));
+            m.put("radius", asteroidStore.radiusAt(i));
+            m.put("hp", asteroidStore.hpAt(i));
+            m.put("isBig", asteroidStore.isBigAt(i));
+            asteroids.add(m);
+        }
+        state.put("asteroids", asteroids);
+
+        return objectMapper.writeValueAsString(state);
     }
 }
 
@@ -1,28 +1,88 @@
 package com.projectgroup5.gamedemo.game;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 /**
  * 游戏世界状态（服务器权威）
  * 单个房间的完整游戏状态
+ *
+ * 线程模型：单写者。除了构造阶段（startRoom 之前），所有状态只在房间的 tick 线程上读写。
+ * 其他线程（WebSocket）只能：
+ * - submitInput / submitCommand 入队，tick 开始时统一处理
+ * - 读 volatile 的 phase 和 hasPlayer（玩家名单快照）
+ *
+ * 确定性：模拟里的随机数只来自按 seed 初始化的 random，模拟时间只看帧号，
+ * 同样的 seed + 同样帧号上的输入一定得到同样的状态（回放见 ReplayEngine）。
  */
 public class GameWorld {
+    public static final int DEFAULT_SIMULATION_HZ = 25;
+    public static final int DEFAULT_SNAPSHOT_HZ = 25;
+    public static final int MIN_SIMULATION_HZ = 10;
+    public static final int MAX_SIMULATION_HZ = 120;
+    private static final int MAX_CATCH_UP_STEPS = 5;
+    // PvP 延迟补偿最多回退多久（位置历史按这个窗口分配）
+    public static final int LAG_COMPENSATION_WINDOW_MS = 200;
+
+    // 世界尺寸（与前端 canvas 一致）
+    public static final int WORLD_WIDTH = 480;
+    public static final int WORLD_HEIGHT = 640;
+    private static final double GRID_CELL_SIZE = 64;
+    private static final double GRID_MARGIN = 64;
+
     private final long roomId;
     private final String mapName;
     private final String winMode;
     private final int maxPlayers;
+    // winMode 预先解析好，tick 里不再每步做字符串处理（<=0 表示没有该目标）
+    private final int targetScore;
+    private final long timeLimitMillis;
+
+    // 本局随机数（石头位置 / 大小 / 速度），只在 tick 线程上使用
+    private final long seed;
+    private final SplittableRandom random;
+    // 回放录像（没开启录制时为 null）
+    private InputRecording recording;
+
+    // 模拟频率（物理/碰撞）与快照广播频率分开配置
+    private final int simulationHz;
+    private final int snapshotHz;
+    private final long snapshotIntervalNanos;
+    private long nextSnapshotNanos = -1;
     
     // 游戏时间
     private long gameStartTime;
     private long currentFrameNumber = 0;
+    private final GameClock clock;
+    
+    // 玩家状态（只在 tick 线程上访问；LinkedHashMap 保证遍历顺序稳定）
+    private final Map<String, PlayerEntity> players = new LinkedHashMap<>();
+    // 玩家名单的不可变快照，给其他线程查询用（copy-on-write，加入 / 离开时替换）
+    private volatile Set<String> roster = Set.of();
+    
+    // 其他线程提交、tick 开始时取出（多生产者单消费者）
+    private final Queue<PlayerInput> pendingInputs = new ConcurrentLinkedQueue<>();
+    private final Queue<Consumer<GameWorld>> pendingCommands = new ConcurrentLinkedQueue<>();
+    
+    // 游戏实体（SoA 存储）
+    private final BulletStore bullets = new BulletStore(64);
+    private final AsteroidStore asteroids = new AsteroidStore(32);
+    
+    // 碰撞检测 broadphase：石头网格的下标就是 AsteroidStore 的下标，玩家网格的下标对应 playerSlots
+    private final SpatialGrid asteroidGrid = newGrid();
+    private final SpatialGrid playerGrid = newGrid();
+    private PlayerEntity[] playerSlots = new PlayerEntity[4];
     
-    // 玩家状态
-    private final Map<String, PlayerEntity> players = new ConcurrentHashMap<>();
+    // 最近的快照（增量快照基线 + 编码缓冲区，只在 tick 线程上使用）
+    private final SnapshotHistory snapshotHistory = new SnapshotHistory();
     
-    // 游戏实体
-    private final Map<String, BulletEntity> bullets = new ConcurrentHashMap<>();
-    private final Map<String, AsteroidEntity> asteroids = new ConcurrentHashMap<>();
+    // 最近 LAG_COMPENSATION_WINDOW_MS 内每帧的玩家位置（PvP 延迟补偿，只在 tick 线程上使用）
+    private final PositionHistory positionHistory;
+    
+    // 子弹 / 石头共用的实体 id 分配器（单调递增，房间内唯一）
+    private int nextEntityId = 1;
     
     // 石头生成计时器（毫秒）
     private double asteroidSpawnTimer = 0;
@@ -37,11 +97,87 @@ public class GameWorld {
         FINISHED      // 已结束
     }
 
+    /** 游戏结束的原因 */
+    public enum EndReason {
+        ALL_DEAD("all players dead"),
+        SCORE_TARGET("score target reached"),
+        TIME_LIMIT("time limit reached");
+
+        public final String description;
+
+        EndReason(String description) {
+            this.description = description;
+        }
+    }
+
     public GameWorld(long roomId, String mapName, String winMode, int maxPlayers) {
+        this(roomId, mapName, winMode, maxPlayers, DEFAULT_SIMULATION_HZ, DEFAULT_SNAPSHOT_HZ);
+    }
+
+    public GameWorld(long roomId, String mapName, String winMode, int maxPlayers,
+                     int simulationHz, int snapshotHz) {
+        this(roomId, mapName, winMode, maxPlayers, simulationHz, snapshotHz,
+                ThreadLocalRandom.current().nextLong());
+    }
+
+    public GameWorld(long roomId, String mapName, String winMode, int maxPlayers,
+                     int simulationHz, int snapshotHz, long seed) {
         this.roomId = roomId;
         this.mapName = mapName;
         this.winMode = winMode;
         this.maxPlayers = Math.min(maxPlayers, 4);
+        this.targetScore = parseWinTarget(winMode, "SCORE_");
+        this.timeLimitMillis = parseWinTarget(winMode, "TIME_") * 60_000L;
+        this.simulationHz = normalizeSimulationHz(simulationHz);
+        this.snapshotHz = normalizeSnapshotHz(snapshotHz, this.simulationHz);
+        this.snapshotIntervalNanos = 1_000_000_000L / this.snapshotHz;
+        this.clock = new GameClock(1.0 / this.simulationHz, MAX_CATCH_UP_STEPS);
+        this.positionHistory = new PositionHistory(getMaxRewindFrames() + 2);
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /** 解析 SCORE_100 / TIME_5M 这类胜利条件里的数字，不匹配或格式错误返回 0 */
+    private static int parseWinTarget(String winMode, String prefix) {
+        if (winMode == null || !winMode.startsWith(prefix)) return 0;
+        String digits = winMode.substring(prefix.length()).replaceAll("\\D", "");
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static SpatialGrid newGrid() {
+        return new SpatialGrid(-GRID_MARGIN, -GRID_MARGIN,
+                WORLD_WIDTH + GRID_MARGIN, WORLD_HEIGHT + GRID_MARGIN, GRID_CELL_SIZE);
+    }
+
+    /** 模拟频率：未配置(<=0)用默认值，否则限制在 [MIN, MAX] */
+    public static int normalizeSimulationHz(int simulationHz) {
+        if (simulationHz <= 0) return DEFAULT_SIMULATION_HZ;
+        return Math.max(MIN_SIMULATION_HZ, Math.min(MAX_SIMULATION_HZ, simulationHz));
+    }
+
+    /** 快照频率：未配置(<=0)用默认值，且不能超过模拟频率 */
+    public static int normalizeSnapshotHz(int snapshotHz, int simulationHz) {
+        int hz = snapshotHz <= 0 ? DEFAULT_SNAPSHOT_HZ : snapshotHz;
+        return Math.max(1, Math.min(simulationHz, hz));
+    }
+
+    /**
+     * 本次 tick 是否该广播快照（按 snapshotHz 节流）
+     * 允许半个 tick 的误差，避免调度抖动导致同频率时丢快照
+     */
+    public boolean pollSnapshotDue(long nowNanos) {
+        long halfTick = clock.getStepNanos() / 2;
+        if (nextSnapshotNanos >= 0 && nowNanos + halfTick < nextSnapshotNanos) {
+            return false;
+        }
+        nextSnapshotNanos = nextSnapshotNanos < 0 || nowNanos - nextSnapshotNanos > snapshotIntervalNanos
+                ? nowNanos + snapshotIntervalNanos
+                : nextSnapshotNanos + snapshotIntervalNanos;
+        return true;
     }
 
     /**
@@ -62,14 +198,95 @@ public class GameWorld {
             baseX + offsetX,
             500 // Y位置固定在底部
         );
+        player.historySlot = freeHistorySlot();
         
         players.put(username, player);
+        roster = Set.copyOf(players.keySet());
+        if (recording != null) {
+            recording.recordJoin(currentFrameNumber, username);
+        }
+    }
+    
+    /** 位置历史里没人用的最小槽位（玩家离开后槽位可以复用） */
+    private int freeHistorySlot() {
+        for (int slot = 0; slot < PositionHistory.MAX_PLAYERS; slot++) {
+            boolean used = false;
+            for (PlayerEntity p : players.values()) {
+                if (p.historySlot == slot) {
+                    used = true;
+                    break;
+                }
+            }
+            if (!used) return slot;
+        }
+        return -1;
     }
     
     public void removePlayer(String username) {
         players.remove(username);
+        roster = Set.copyOf(players.keySet());
         // 移除该玩家的所有子弹
-        bullets.entrySet().removeIf(e -> e.getValue().owner.equals(username));
+        bullets.removeOwnedBy(username);
+    }
+    
+    /** 玩家是否在本局中（任意线程可调用，读的是名单快照） */
+    public boolean hasPlayer(String username) {
+        return roster.contains(username);
+    }
+    
+    /** 提交一条玩家输入（任意线程），下一次 tick 开始时按到达顺序应用 */
+    public void submitInput(PlayerInput input) {
+        pendingInputs.offer(input);
+    }
+    
+    /** 提交一个要在 tick 线程上执行的修改（任意线程），例如加入玩家、开始倒计时 */
+    public void submitCommand(Consumer<GameWorld> command) {
+        pendingCommands.offer(command);
+    }
+    
+    PlayerInput pollInput() {
+        return pendingInputs.poll();
+    }
+    
+    Consumer<GameWorld> pollCommand() {
+        return pendingCommands.poll();
+    }
+    
+    /**
+     * 胜利条件：检查分数/时间目标以及玩家存活状态，满足时返回结束原因，否则返回 null
+     * 每个模拟步都会调用，用普通循环而不是 stream，稳定运行时不分配对象
+     */
+    public EndReason checkEndCondition() {
+        // 🔥 首先检查：所有玩家是否都死了
+        int aliveCount = 0;
+        for (PlayerEntity p : players.values()) {
+            if (p.alive) aliveCount++;
+        }
+        if (aliveCount == 0) {
+            return EndReason.ALL_DEAD;
+        }
+
+        // 检查分数目标
+        if (targetScore > 0) {
+            for (PlayerEntity p : players.values()) {
+                if (p.score >= targetScore && p.alive) {
+                    return EndReason.SCORE_TARGET;
+                }
+            }
+        }
+
+        // 检查时间目标：以模拟时间为准，和玩家看到的画面一致（GC / 负载导致的跳帧不计入），回放时也能重现
+        if (timeLimitMillis > 0 && getSimulatedMillis() >= timeLimitMillis) {
+            return EndReason.TIME_LIMIT;
+        }
+
+        // 🔥 注释掉"只剩1人"逻辑：用户要求所有人HP=0才结束
+        // 多人模式：只剩1人存活时结束（该玩家获胜）
+        // if (maxPlayers > 1 && aliveCount == 1) {
+        //     return EndReason.LAST_ALIVE;
+        // }
+
+        return null;
     }
     
     // Getters
@@ -97,14 +314,134 @@ public class GameWorld {
         return players; 
     }
     
-    public Map<String, BulletEntity> getBullets() { 
+    public BulletStore getBullets() { 
         return bullets; 
     }
     
-    public Map<String, AsteroidEntity> getAsteroids() {
+    public AsteroidStore getAsteroids() {
         return asteroids;
     }
     
+    SpatialGrid getAsteroidGrid() {
+        return asteroidGrid;
+    }
+
+    SpatialGrid getPlayerGrid() {
+        return playerGrid;
+    }
+
+    /** 碰撞检测用的玩家下标数组（容量至少为 capacity） */
+    PlayerEntity[] playerSlots(int capacity) {
+        if (playerSlots.length < capacity) {
+            playerSlots = new PlayerEntity[Math.max(capacity, playerSlots.length * 2)];
+        }
+        return playerSlots;
+    }
+    
+    SnapshotHistory getSnapshotHistory() {
+        return snapshotHistory;
+    }
+    
+    PositionHistory getPositionHistory() {
+        return positionHistory;
+    }
+    
+    /** 每个模拟步结束（帧号 +1 之后）调用：记录这一帧的玩家位置，录制中每 hashInterval 帧记下一次状态哈希 */
+    void recordFrame() {
+        positionHistory.record(currentFrameNumber, players.values());
+        if (recording != null && recording.wantsHash(currentFrameNumber)) {
+            recording.recordFrameHash(currentFrameNumber, stateHash());
+        }
+    }
+
+    /** 开始录制回放，每帧都录状态哈希 */
+    public void startRecording() {
+        startRecording(1);
+    }
+
+    /**
+     * 开始录制回放（在加入玩家之前调用，之后的加入和输入都会录下来）
+     * @param hashInterval 每隔多少帧录一次状态哈希（回放按同样的间隔比对）
+     */
+    public void startRecording(int hashInterval) {
+        if (recording == null) {
+            recording = new InputRecording(this, hashInterval);
+        }
+    }
+
+    /** 在 tick 线程上应用完一条输入后调用，lagFrames 是应用之后玩家的画面延迟估计 */
+    void recordInput(PlayerInput input, int lagFrames) {
+        if (recording != null) {
+            recording.recordInput(currentFrameNumber, input.getUsername(), input.toBits(),
+                    input.getSequence(), lagFrames);
+        }
+    }
+
+    /** 结束录制并返回录像（没开启录制返回 null） */
+    public InputRecording finishRecording(long nowMillis) {
+        if (recording != null) {
+            recording.finish(currentFrameNumber, nowMillis);
+        }
+        return recording;
+    }
+
+    /**
+     * 当前模拟状态的哈希（玩家 / 子弹 / 石头 / 计时器 / id 分配器），回放逐帧比对用
+     * 覆盖快照里的所有字段，哈希一致就说明两边产生的快照一致
+     */
+    public long stateHash() {
+        long h = mix(seed, currentFrameNumber);
+        h = mix(h, nextEntityId);
+        h = mix(h, Double.doubleToLongBits(asteroidSpawnTimer));
+        for (PlayerEntity p : players.values()) {
+            h = mix(h, p.username.hashCode());
+            h = mix(h, Double.doubleToLongBits(p.x));
+            h = mix(h, Double.doubleToLongBits(p.y));
+            h = mix(h, p.hp);
+            h = mix(h, p.score);
+            h = mix(h, p.alive ? 1 : 0);
+            h = mix(h, p.lastInputSeq);
+            h = mix(h, p.lastInputFrame);
+            h = mix(h, p.lastFireTime);
+        }
+        h = mixStore(h, bullets);
+        h = mixStore(h, asteroids);
+        return h;
+    }
+
+    private static long mixStore(long h, EntityStore store) {
+        h = mix(h, store.size);
+        for (int i = 0; i < store.size; i++) {
+            h = mix(h, store.id[i]);
+            h = mix(h, store.hp[i]);
+            h = mix(h, Double.doubleToLongBits(store.x[i]));
+            h = mix(h, Double.doubleToLongBits(store.y[i]));
+        }
+        return h;
+    }
+
+    private static long mix(long h, long v) {
+        return Long.rotateLeft(h ^ v, 27) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+    }
+    
+    /** 延迟补偿窗口对应的帧数 */
+    public int getMaxRewindFrames() {
+        return LAG_COMPENSATION_WINDOW_MS * simulationHz / 1000;
+    }
+    
+    /** 分配一个新的实体 id（子弹 / 石头共用，只在 tick 线程上调用） */
+    public int allocateEntityId() {
+        return nextEntityId++;
+    }
+    
+    public int getTargetScore() {
+        return targetScore;
+    }
+    
+    public long getTimeLimitMillis() {
+        return timeLimitMillis;
+    }
+    
     public double getAsteroidSpawnTimer() {
         return asteroidSpawnTimer;
     }
@@ -117,10 +454,19 @@ public class GameWorld {
         return currentFrameNumber; 
     }
     
+    /** 模拟时间（毫秒）= 帧号 × 步长，射速 / TIME_ 胜利条件都以它为准 */
+    public long getSimulatedMillis() {
+        return currentFrameNumber * 1000L / simulationHz;
+    }
+    
     public void incrementFrame() { 
         this.currentFrameNumber++; 
     }
     
+    public GameClock getClock() {
+        return clock;
+    }
+    
     public long getGameStartTime() { 
         return gameStartTime; 
     }
@@ -129,8 +475,25 @@ public class GameWorld {
         this.gameStartTime = time; 
     }
     
+    public long getSeed() {
+        return seed;
+    }
+
+    /** 本局的随机数源（只在 tick 线程上使用） */
+    SplittableRandom random() {
+        return random;
+    }
+
     public int getMaxPlayers() {
         return maxPlayers;
     }
+
+    public int getSimulationHz() {
+        return simulationHz;
+    }
+
+    public int getSnapshotHz() {
+        return snapshotHz;
+    }
 }
 
@@ -0,0 +1,210 @@
+package com.projectgroup5.gamedemo.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一局游戏的回放录像：初始条件 + 按帧号排好的玩家加入 / 输入 + 每 hashInterval 帧一次的状态哈希
+ * - 世界的随机数来自 seed，模拟时间就是帧号，所以同样的初始条件 + 同样帧号上的输入 → 同样的状态
+ * - 输入事件存成并列的基本类型数组（和 EntityStore 一样），录制时不按条分配对象
+ * - 延迟补偿要用的画面延迟取决于网络，不可重现，所以录下应用输入之后的 viewLagFrames
+ *
+ * 录制期间只在房间的 tick 线程上写；finish() 之后只读，可以交给其他线程回放。
+ */
+public class InputRecording {
+    static final byte JOIN = 1;
+    static final byte INPUT = 2;
+
+    // 最多录多少个状态哈希（每帧都录时相当于 120Hz 下 1 小时），再长的对局只录输入不再校验
+    private static final int MAX_HASHES = 120 * 3600;
+
+    private final long roomId;
+    private final long seed;
+    private final String mapName;
+    private final String winMode;
+    private final int maxPlayers;
+    private final int simulationHz;
+    private final int hashInterval;
+
+    // 玩家名表，事件里存下标
+    private final List<String> usernames = new ArrayList<>(4);
+
+    // 事件（并列数组，按发生顺序）
+    private int eventCount;
+    private long[] eventFrame = new long[256];
+    private byte[] kind = new byte[256];
+    private int[] player = new int[256];
+    private int[] bits = new int[256];
+    private int[] viewLagFrames = new int[256];
+    private long[] sequence = new long[256];
+
+    // frameHashes[k - 1] = 第 k * hashInterval 帧结束时的 GameWorld.stateHash()
+    private long[] frameHashes = new long[256];
+    private int hashCount;
+
+    private long endFrame = -1;
+    private long finishedAt;
+
+    InputRecording(GameWorld world, int hashInterval) {
+        this.roomId = world.getRoomId();
+        this.seed = world.getSeed();
+        this.mapName = world.getMapName();
+        this.winMode = world.getWinMode();
+        this.maxPlayers = world.getMaxPlayers();
+        this.simulationHz = world.getSimulationHz();
+        this.hashInterval = Math.max(1, hashInterval);
+    }
+
+    void recordJoin(long frame, String username) {
+        int index = usernames.indexOf(username);
+        if (index < 0) {
+            index = usernames.size();
+            usernames.add(username);
+        }
+        append(frame, JOIN, index, 0, 0, 0);
+    }
+
+    void recordInput(long frame, String username, int inputBits, long seq, int lagFrames) {
+        int index = usernames.indexOf(username);
+        if (index < 0) return; // 不是录制期间加入的玩家（不应该发生）
+        append(frame, INPUT, index, inputBits, lagFrames, seq);
+    }
+
+    private void append(long frame, byte k, int p, int b, int lag, long seq) {
+        if (eventCount == kind.length) {
+            int capacity = eventCount * 2;
+            eventFrame = Arrays.copyOf(eventFrame, capacity);
+            kind = Arrays.copyOf(kind, capacity);
+            player = Arrays.copyOf(player, capacity);
+            bits = Arrays.copyOf(bits, capacity);
+            viewLagFrames = Arrays.copyOf(viewLagFrames, capacity);
+            sequence = Arrays.copyOf(sequence, capacity);
+        }
+        int i = eventCount++;
+        eventFrame[i] = frame;
+        kind[i] = k;
+        player[i] = p;
+        bits[i] = b;
+        viewLagFrames[i] = lag;
+        sequence[i] = seq;
+    }
+
+    /** 第 frame 帧结束时要不要录状态哈希（不要的话调用方连哈希都不用算） */
+    boolean wantsHash(long frame) {
+        return frame == (long) (hashCount + 1) * hashInterval && hashCount < MAX_HASHES;
+    }
+
+    /** 第 frame 帧结束时的状态哈希（只在 wantsHash(frame) 为 true 时调用） */
+    void recordFrameHash(long frame, long hash) {
+        if (!wantsHash(frame)) return;
+        if (hashCount == frameHashes.length) {
+            frameHashes = Arrays.copyOf(frameHashes, Math.min(MAX_HASHES, hashCount * 2));
+        }
+        frameHashes[hashCount++] = hash;
+    }
+
+    /** 对局结束：记下总帧数，之后不再修改 */
+    void finish(long frame, long nowMillis) {
+        if (endFrame < 0) {
+            endFrame = frame;
+            finishedAt = nowMillis;
+        }
+    }
+
+    public boolean isFinished() {
+        return endFrame >= 0;
+    }
+
+    // ---- 回放读取（包内） ----
+
+    int eventCount() {
+        return eventCount;
+    }
+
+    long eventFrameAt(int i) {
+        return eventFrame[i];
+    }
+
+    byte kindAt(int i) {
+        return kind[i];
+    }
+
+    String usernameAt(int i) {
+        return usernames.get(player[i]);
+    }
+
+    int bitsAt(int i) {
+        return bits[i];
+    }
+
+    int viewLagFramesAt(int i) {
+        return viewLagFrames[i];
+    }
+
+    long sequenceAt(int i) {
+        return sequence[i];
+    }
+
+    /** 第 frame 帧的录制哈希，这一帧没录返回 null */
+    Long frameHash(long frame) {
+        if (frame < 1 || frame % hashInterval != 0) return null;
+        long k = frame / hashInterval;
+        return k <= hashCount ? frameHashes[(int) k - 1] : null;
+    }
+
+    /** 录到的最后一个哈希所在的帧号（回放能校验到这一帧为止） */
+    long getLastHashedFrame() {
+        return (long) hashCount * hashInterval;
+    }
+
+    public int getHashInterval() {
+        return hashInterval;
+    }
+
+    // Getters
+
+    public long getRoomId() {
+        return roomId;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public String getMapName() {
+        return mapName;
+    }
+
+    public String getWinMode() {
+        return winMode;
+    }
+
+    public int getMaxPlayers() {
+        return maxPlayers;
+    }
+
+    public int getSimulationHz() {
+        return simulationHz;
+    }
+
+    public List<String> getUsernames() {
+        return List.copyOf(usernames);
+    }
+
+    public int getInputCount() {
+        int n = 0;
+        for (int i = 0; i < eventCount; i++) {
+            if (kind[i] == INPUT) n++;
+        }
+        return n;
+    }
+
+    public long getEndFrame() {
+        return endFrame;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+}
@@ -2,11 +2,17 @@ package com.projectgroup5.gamedemo.game;
 
 import com.projectgroup5.gamedemo.event.CollisionDetectedEvent;
 import com.projectgroup5.gamedemo.event.EventBus;
+import com.projectgroup5.gamedemo.event.EventPool;
 import com.projectgroup5.gamedemo.event.ScoreUpdatedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
 /**
  * 物理引擎 - 处理移动和碰撞（服务器权威）
  * Architecture A: 所有物理计算在服务器端
@@ -16,16 +22,57 @@ public class PhysicsEngine {
     private static final Logger logger = LoggerFactory.getLogger(PhysicsEngine.class);
     
     private static final double PLAYER_SPEED = 200.0; // pixels/second
-    private static final int WORLD_WIDTH = 480;
-    private static final int WORLD_HEIGHT = 640;
+    private static final int WORLD_WIDTH = GameWorld.WORLD_WIDTH;
+    private static final int WORLD_HEIGHT = GameWorld.WORLD_HEIGHT;
     private static final double ASTEROID_SPAWN_INTERVAL_MS = 800.0; // 每800ms生成一个石头
     private static final double ASTEROID_SPAWN_X_MARGIN = 30.0; // 离边界30px
     private static final int MAX_ASTEROIDS = 20;
+    private static final int EVENT_POOL_SIZE = 256;
 
+    // headless() 创建的引擎没有事件总线，不发布任何事件
     private final EventBus eventBus;
+    // 是否打逐个玩家的击杀 / 死亡 INFO 日志；headless() 关掉（批量模拟一次几千局）
+    private final boolean verbose;
+    // 碰撞 / 得分事件池（所有 tick 分片共用，EventPool 线程安全）
+    private final EventPool<ScoreUpdatedEvent> scoreEvents = ScoreUpdatedEvent.newPool(EVENT_POOL_SIZE);
+    private final EventPool<CollisionDetectedEvent> collisionEvents = CollisionDetectedEvent.newPool(EVENT_POOL_SIZE);
+    // PvP 延迟补偿最多回退多少毫秒（不超过 GameWorld.LAG_COMPENSATION_WINDOW_MS，0 表示关闭）
+    private final int maxRewindMillis;
     
-    public PhysicsEngine(EventBus eventBus) {
+    @Autowired
+    public PhysicsEngine(EventBus eventBus,
+                         @Value("${game.lag-compensation.max-rewind-ms:200}") int maxRewindMillis) {
+        this(eventBus, maxRewindMillis, true);
+    }
+
+    private PhysicsEngine(EventBus eventBus, int maxRewindMillis, boolean verbose) {
         this.eventBus = eventBus;
+        this.verbose = verbose;
+        this.maxRewindMillis = Math.max(0, Math.min(GameWorld.LAG_COMPENSATION_WINDOW_MS, maxRewindMillis));
+    }
+
+    /** 不发布事件、不打逐个玩家日志的物理引擎（回放 / 离线模拟用，不能往线上的事件总线里灌事件） */
+    public static PhysicsEngine headless(int maxRewindMillis) {
+        return new PhysicsEngine(null, maxRewindMillis, false);
+    }
+
+    /**
+     * 一个固定步长的模拟步：开火 → 移动 → 碰撞 → 帧号 +1 → 记录这一帧
+     * 实时 tick 和回放走同一个方法，模拟时间只取决于帧号，保证可重现
+     */
+    public void step(GameWorld world) {
+        // 按住开火的玩家按射速发射（模拟时间 = 帧号 × 步长）
+        updateFiring(world, world.getSimulatedMillis());
+
+        // 物理更新：玩家位置（根据 velocity）、子弹、石头
+        updatePositions(world, world.getClock().getStepSeconds());
+
+        // 碰撞检测：子弹 vs 石头、石头 vs 玩家、子弹 vs 玩家
+        detectCollisions(world);
+
+        // 帧号 +1（一个模拟步 = 一帧），记下这一帧的玩家位置供延迟补偿回退
+        world.incrementFrame();
+        world.recordFrame();
     }
     
     /**
@@ -57,12 +104,79 @@ public class PhysicsEngine {
         player.velocityY = vy;
     }
     
+    /**
+     * 在 tick 线程上应用一条排队的输入：移动 + 射击（服务器权威）
+     */
+    public void processInput(GameWorld world, PlayerInput input) {
+        PlayerEntity player = world.getPlayers().get(input.getUsername());
+        if (player == null) return;
+
+        if (player.alive) {
+            updateViewLag(world, player, input.getViewSnapshotSeq());
+        }
+        applyInput(world, player, input);
+        world.recordInput(input, player.viewLagFrames);
+    }
+
+    /**
+     * 输入对玩家状态的确定性部分（画面延迟已经估计好）；回放时用录下来的 viewLagFrames 直接调用
+     */
+    void applyInput(GameWorld world, PlayerEntity player, PlayerInput input) {
+        // 死了也要确认序号，客户端才能丢掉已处理的预测记录
+        if (input.getSequence() > player.lastInputSeq) {
+            player.lastInputSeq = input.getSequence();
+            player.lastInputFrame = world.getCurrentFrameNumber();
+        }
+        if (!player.alive) return;
+
+        // 服务器权威移动
+        applyPlayerInput(player, input);
+
+        // 开火只记录按键状态，真正发射在模拟步里（客户端只在按键变化时才发输入）
+        player.fireHeld = input.isFire();
+        if (input.isFire()) {
+            player.fireLatched = true;
+        }
+    }
+
+    /**
+     * 估计玩家看到的画面落后服务器几帧：输入和快照 ACK 走同一条 TCP 连接，
+     * 输入到达时最新的 ACK 就是客户端发这条输入时正在看的那一帧快照（客户端不做插值，直接画最新快照）
+     * 快照已经滚出历史（或从没 ACK 过）时保留上一次的估计
+     */
+    private void updateViewLag(GameWorld world, PlayerEntity player, long viewSnapshotSeq) {
+        SnapshotFrame view = world.getSnapshotHistory().find(viewSnapshotSeq);
+        if (view == null) return;
+        int maxFrames = Math.min(world.getMaxRewindFrames(), maxRewindMillis * world.getSimulationHz() / 1000);
+        long lag = world.getCurrentFrameNumber() - view.frame;
+        player.viewLagFrames = (int) Math.max(0, Math.min(maxFrames, lag));
+    }
+
+    /**
+     * 每个模拟步开头调用：按住开火键（或两次 tick 之间点按过）的玩家按射速发射子弹
+     * @param nowMillis 模拟时间（毫秒）
+     */
+    public void updateFiring(GameWorld world, long nowMillis) {
+        for (PlayerEntity player : world.getPlayers().values()) {
+            if (!player.alive) {
+                player.fireLatched = false;
+                continue;
+            }
+            if ((player.fireHeld || player.fireLatched) && canFire(player, nowMillis)) {
+                createBullet(world, player.username, player.x, player.y - PlayerEntity.HEIGHT / 2);
+                player.lastFireTime = nowMillis;
+                player.fireLatched = false;
+            }
+        }
+    }
+    
     /**
      * 更新所有实体位置（固定时间步长）
+     * 子弹、石头是对 SoA 数组的线性扫描，越界的用 swap-remove 删除
      */
     public void updatePositions(GameWorld world, double deltaSeconds) {
         // 更新玩家位置
-        world.getPlayers().values().forEach(player -> {
+        for (PlayerEntity player : world.getPlayers().values()) {
             if (player.alive) {
                 player.x += player.velocityX * deltaSeconds;
                 player.y += player.velocityY * deltaSeconds;
@@ -73,38 +187,54 @@ public class PhysicsEngine {
                 player.y = Math.max(PlayerEntity.HEIGHT / 2, 
                     Math.min(WORLD_HEIGHT - PlayerEntity.HEIGHT / 2, player.y));
             }
-        });
+        }
         
         // 更新子弹位置
-        world.getBullets().values().removeIf(bullet -> {
-            bullet.x += bullet.velocityX * deltaSeconds;
-            bullet.y += bullet.velocityY * deltaSeconds;
-            
+        BulletStore bullets = world.getBullets();
+        integrate(bullets, deltaSeconds);
+        double[] bx = bullets.x, by = bullets.y;
+        for (int i = bullets.size - 1; i >= 0; i--) {
             // 移除超出边界的子弹
-            return bullet.x < -10 || bullet.x > WORLD_WIDTH + 10 ||
-                   bullet.y < -10 || bullet.y > WORLD_HEIGHT + 10;
-        });
+            if (bx[i] < -10 || bx[i] > WORLD_WIDTH + 10 ||
+                by[i] < -10 || by[i] > WORLD_HEIGHT + 10) {
+                bullets.removeAt(i);
+            }
+        }
         
         // 更新石头位置（向下掉落）
-        world.getAsteroids().values().removeIf(asteroid -> {
-            asteroid.y += asteroid.velocityY * deltaSeconds;
-            
+        AsteroidStore asteroids = world.getAsteroids();
+        integrate(asteroids, deltaSeconds);
+        double[] ay = asteroids.y, ar = asteroids.radius;
+        for (int i = asteroids.size - 1; i >= 0; i--) {
             // 移除飞出屏幕底部的石头
-            return asteroid.isOffScreen(WORLD_HEIGHT);
-        });
+            if (ay[i] - ar[i] > WORLD_HEIGHT + 50) {
+                asteroids.removeAt(i);
+            }
+        }
         
         // 生成新石头
         spawnAsteroids(world, deltaSeconds);
     }
+
+    /** x += vx * dt, y += vy * dt（纯数组循环，便于 JIT 向量化） */
+    private static void integrate(EntityStore store, double deltaSeconds) {
+        int n = store.size;
+        double[] x = store.x, y = store.y, vx = store.vx, vy = store.vy;
+        for (int i = 0; i < n; i++) {
+            x[i] += vx[i] * deltaSeconds;
+            y[i] += vy[i] * deltaSeconds;
+        }
+    }
     
     /**
      * 生成石头（按固定间隔）
      */
     private void spawnAsteroids(GameWorld world, double deltaSeconds) {
         double timer = world.getAsteroidSpawnTimer() + deltaSeconds * 1000;
+        AsteroidStore asteroids = world.getAsteroids();
 
         // 控制场景中石头最大数量
-        if (world.getAsteroids().size() >= MAX_ASTEROIDS) {
+        if (asteroids.size() >= MAX_ASTEROIDS) {
             world.setAsteroidSpawnTimer(timer);
             return;
         }
@@ -112,16 +242,18 @@ public class PhysicsEngine {
         if (timer >= ASTEROID_SPAWN_INTERVAL_MS) {
             timer = 0;
 
+            SplittableRandom random = world.random();
             double x = ASTEROID_SPAWN_X_MARGIN +
-                    Math.random() * (WORLD_WIDTH - 2 * ASTEROID_SPAWN_X_MARGIN);
+                    random.nextDouble() * (WORLD_WIDTH - 2 * ASTEROID_SPAWN_X_MARGIN);
 
-            boolean isBig = Math.random() < 0.4;
+            boolean isBig = random.nextDouble() < 0.4;
 
-            AsteroidEntity asteroid = new AsteroidEntity(x, -30, isBig);
-            world.getAsteroids().put(asteroid.id, asteroid);
+            asteroids.spawn(world.allocateEntityId(), x, -30, isBig, random);
 
-            logger.debug("Spawned asteroid at x={}, isBig={}, total={}",
-                    x, isBig, world.getAsteroids().size());
+            if (logger.isDebugEnabled()) {
+                logger.debug("Spawned asteroid at x={}, isBig={}, total={}",
+                        x, isBig, asteroids.size());
+            }
         }
 
         world.setAsteroidSpawnTimer(timer);
@@ -129,50 +261,82 @@ public class PhysicsEngine {
     
     /**
      * 检测碰撞并发布事件
+     * broadphase：石头、玩家先按位置放进各自的均匀网格，每个子弹/石头只和附近格子里的实体做精确检测
+     * 被命中的子弹 / 石头先把 hp 置 0 标记，全部检测完再统一压缩删除
      */
     public void detectCollisions(GameWorld world) {
         long roomId = world.getRoomId();
+        BulletStore bullets = world.getBullets();
+        AsteroidStore asteroids = world.getAsteroids();
+        double[] bx = bullets.x, by = bullets.y;
+        int[] bhp = bullets.hp;
+        double[] ax = asteroids.x, ay = asteroids.y, ar = asteroids.radius;
+        int[] ahp = asteroids.hp;
+
+        // ---- broadphase：重建网格 ----
+        SpatialGrid asteroidGrid = world.getAsteroidGrid();
+        asteroidGrid.clear();
+        for (int a = 0; a < asteroids.size; a++) {
+            asteroidGrid.insert(a, ax[a], ay[a]);
+        }
+
+        SpatialGrid playerGrid = world.getPlayerGrid();
+        PlayerEntity[] players = world.playerSlots(world.getPlayers().size());
+        playerGrid.clear();
+        int playerCount = 0;
+        for (PlayerEntity player : world.getPlayers().values()) {
+            if (playerCount == players.length) break;
+            if (!player.alive) continue;
+            players[playerCount] = player;
+            playerGrid.insert(playerCount, player.x, player.y);
+            playerCount++;
+        }
         
         // 子弹 vs 石头
-        world.getBullets().values().removeIf(bullet -> {
-            for (AsteroidEntity asteroid : world.getAsteroids().values()) {
+        for (int b = 0; b < bullets.size; b++) {
+            int hits = asteroidGrid.query(bx[b], by[b], BulletStore.RADIUS + AsteroidStore.MAX_RADIUS);
+            for (int h = 0; h < hits; h++) {
+                int a = asteroidGrid.hit(h);
+                if (ahp[a] <= 0) continue; // 本帧已经被打爆
+
                 if (checkCircleCollision(
-                    bullet.x, bullet.y, BulletEntity.RADIUS,
-                    asteroid.x, asteroid.y, asteroid.radius)) {
+                    bx[b], by[b], BulletStore.RADIUS,
+                    ax[a], ay[a], ar[a])) {
                     
                     // 石头受伤
-                    asteroid.hp -= bullet.damage;
+                    ahp[a] -= BulletStore.DAMAGE;
                     
-                    if (asteroid.hp <= 0) {
-                        // 石头被摧毁，击毁者加分
-                        PlayerEntity shooter = world.getPlayers().get(bullet.owner);
+                    if (ahp[a] <= 0) {
+                        // 石头被摧毁（hp<=0 即标记删除），击毁者加分
+                        PlayerEntity shooter = world.getPlayers().get(bullets.owner[b]);
                         if (shooter != null) {
-                            int points = asteroid.isBig ? 10 : 5;
+                            int points = asteroids.big[a] ? 10 : 5;
                             shooter.score += points;
-                            eventBus.publish(new ScoreUpdatedEvent(
-                                roomId, shooter.username, points, shooter.score));
-                            logger.debug("Player {} destroyed asteroid, +{} points", 
-                                shooter.username, points);
+                            publishScore(roomId, shooter.username, points, shooter.score);
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("Player {} destroyed asteroid, +{} points",
+                                    shooter.username, points);
+                            }
                         }
-                        
-                        // 标记石头待删除
-                        world.getAsteroids().remove(asteroid.id);
                     }
                     
-                    return true; // 移除子弹
+                    bhp[b] = 0; // 移除子弹
+                    break;
                 }
             }
-            return false;
-        });
+        }
         
         // 石头 vs 玩家
-        world.getAsteroids().values().removeIf(asteroid -> {
-            for (PlayerEntity player : world.getPlayers().values()) {
+        for (int a = 0; a < asteroids.size; a++) {
+            if (ahp[a] <= 0) continue;
+            int hits = playerGrid.query(ax[a], ay[a], ar[a] + PlayerEntity.COLLISION_RADIUS);
+            for (int h = 0; h < hits; h++) {
+                PlayerEntity player = players[playerGrid.hit(h)];
                 if (!player.alive) continue;
                 
                 // 矩形与圆形碰撞检测（简化为圆形）
                 if (checkCircleCollision(
-                    asteroid.x, asteroid.y, asteroid.radius,
+                    ax[a], ay[a], ar[a],
                     player.x, player.y, PlayerEntity.COLLISION_RADIUS)) {
                     
                     // 玩家受伤
@@ -180,71 +344,136 @@ public class PhysicsEngine {
                     if (player.hp <= 0) {
                         player.hp = 0;
                         player.alive = false;
-                        logger.info("Player {} destroyed by asteroid", player.username);
+                        if (verbose) {
+                            logger.info("Player {} destroyed by asteroid", player.username);
+                        }
                     }
                     
-                    eventBus.publish(new CollisionDetectedEvent(
-                        roomId, 
-                        "asteroid", 
-                        player.username,
-                        CollisionDetectedEvent.CollisionType.BULLET_HIT_PLAYER
-                    ));
+                    publishCollision(roomId, "asteroid", player.username);
                     
-                    return true; // 移除石头
+                    ahp[a] = 0; // 移除石头
+                    break;
                 }
             }
-            return false;
-        });
+        }
         
-        // 子弹 vs 玩家（PvP碰撞，如果需要）
-        world.getBullets().values().removeIf(bullet -> {
-            for (PlayerEntity player : world.getPlayers().values()) {
-                if (!player.alive) continue;
-                if (player.username.equals(bullet.owner)) continue; // 不能打到自己
+        // 子弹 vs 玩家（PvP碰撞）
+        // 延迟补偿：目标位置回退到发射者开火时看到的那一帧（本步结束后是 currentFrame + 1）
+        PositionHistory history = world.getPositionHistory();
+        long stepFrame = world.getCurrentFrameNumber() + 1;
+        for (int b = 0; b < bullets.size; b++) {
+            if (bhp[b] <= 0) continue;
+            String owner = bullets.owner[b];
+            int rewind = bullets.rewindFrames[b];
+            PlayerEntity player = rewind > 0
+                    ? findRewoundTarget(history, stepFrame - rewind, players, playerCount, bx[b], by[b], owner)
+                    : findTarget(playerGrid, players, bx[b], by[b], owner);
+            if (player != null) {
+                // 发布碰撞事件
+                publishCollision(roomId, owner, player.username);
                 
-                if (checkCircleCollision(
-                    bullet.x, bullet.y, BulletEntity.RADIUS,
-                    player.x, player.y, PlayerEntity.COLLISION_RADIUS)) {
-                    
-                    // 发布碰撞事件
-                    eventBus.publish(new CollisionDetectedEvent(
-                        roomId, 
-                        bullet.owner, 
-                        player.username,
-                        CollisionDetectedEvent.CollisionType.BULLET_HIT_PLAYER
-                    ));
+                // 应用伤害
+                player.hp -= BulletStore.DAMAGE;
+                if (player.hp <= 0) {
+                    player.hp = 0;
+                    player.alive = false;
+                    if (verbose) {
+                        logger.info("Player {} eliminated by {}", player.username, owner);
+                    }
                     
-                    // 应用伤害
-                    player.hp -= bullet.damage;
-                    if (player.hp <= 0) {
-                        player.hp = 0;
-                        player.alive = false;
-                        logger.info("Player {} eliminated by {}", player.username, bullet.owner);
-                        
-                        // 击杀者加分
-                        PlayerEntity killer = world.getPlayers().get(bullet.owner);
-                        if (killer != null) {
-                            int oldScore = killer.score;
-                            killer.score += 50;
-                            eventBus.publish(new ScoreUpdatedEvent(
-                                roomId, killer.username, 50, killer.score));
-                            logger.info("Player {} scored kill: {} -> {}", 
+                    // 击杀者加分
+                    PlayerEntity killer = world.getPlayers().get(owner);
+                    if (killer != null) {
+                        int oldScore = killer.score;
+                        killer.score += 50;
+                        publishScore(roomId, killer.username, 50, killer.score);
+                        if (verbose) {
+                            logger.info("Player {} scored kill: {} -> {}",
                                 killer.username, oldScore, killer.score);
                         }
                     }
-                    
-                    return true; // 移除子弹
                 }
+                
+                bhp[b] = 0; // 移除子弹
             }
-            return false;
-        });
+        }
+
+        // 统一压缩：删掉本帧被命中的子弹和石头
+        bullets.removeDead();
+        asteroids.removeDead();
+
+        // 清掉引用，避免已离开的玩家被 slots 数组留住
+        Arrays.fill(players, 0, playerCount, null);
+    }
+
+    /** 没人订阅时不取对象、不读时钟 */
+    private void publishScore(long roomId, String username, int delta, int newTotal) {
+        if (eventBus == null || !eventBus.hasSubscribers(ScoreUpdatedEvent.class)) return;
+        eventBus.publishAsync(scoreEvents.acquire()
+                .set(roomId, username, delta, newTotal, System.currentTimeMillis()));
+    }
+
+    private void publishCollision(long roomId, String entity1, String entity2) {
+        if (eventBus == null || !eventBus.hasSubscribers(CollisionDetectedEvent.class)) return;
+        eventBus.publishAsync(collisionEvents.acquire().set(roomId, entity1, entity2,
+                CollisionDetectedEvent.CollisionType.BULLET_HIT_PLAYER, System.currentTimeMillis()));
+    }
+
+    /** 按当前位置找子弹命中的玩家（走网格 broadphase），没有返回 null */
+    private PlayerEntity findTarget(SpatialGrid playerGrid, PlayerEntity[] players,
+                                    double bx, double by, String owner) {
+        int hits = playerGrid.query(bx, by, BulletStore.RADIUS + PlayerEntity.COLLISION_RADIUS);
+        for (int h = 0; h < hits; h++) {
+            PlayerEntity player = players[playerGrid.hit(h)];
+            if (!player.alive) continue;
+            if (player.username.equals(owner)) continue; // 不能打到自己
+
+            if (checkCircleCollision(
+                bx, by, BulletStore.RADIUS,
+                player.x, player.y, PlayerEntity.COLLISION_RADIUS)) {
+                return player;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按第 frame 帧的历史位置找子弹命中的玩家（玩家最多 4 个，直接遍历）
+     * 那一帧没有记录（刚加入 / 已滚出窗口）的玩家用当前位置
+     */
+    private PlayerEntity findRewoundTarget(PositionHistory history, long frame,
+                                           PlayerEntity[] players, int playerCount,
+                                           double bx, double by, String owner) {
+        for (int i = 0; i < playerCount; i++) {
+            PlayerEntity player = players[i];
+            if (!player.alive) continue;
+            if (player.username.equals(owner)) continue;
+
+            int h = history.find(frame, player.historySlot);
+            double px = h >= 0 ? history.xAt(h) : player.x;
+            double py = h >= 0 ? history.yAt(h) : player.y;
+            if (checkCircleCollision(
+                bx, by, BulletStore.RADIUS,
+                px, py, PlayerEntity.COLLISION_RADIUS)) {
+                return player;
+            }
+        }
+        return null;
     }
     
     /**
-     * 创建子弹
+     * 创建子弹（直接写入 world 的子弹存储），返回子弹 id
+     * 子弹记下发射者当时的画面延迟，之后和玩家的命中判定按这个帧数回退（关闭补偿时延迟估计恒为 0）
      */
-    public BulletEntity createBullet(String owner, double x, double y) {
-        return new BulletEntity(owner, x, y);
+    public int createBullet(GameWorld world, String owner, double x, double y) {
+        int id = world.allocateEntityId();
+        BulletStore bullets = world.getBullets();
+        int i = bullets.add(id, owner, x, y);
+        PlayerEntity shooter = world.getPlayers().get(owner);
+        if (shooter != null) {
+            bullets.rewindFrames[i] = shooter.viewLagFrames;
+        }
+        return id;
     }
     
     /**
@@ -256,14 +485,14 @@ public class PhysicsEngine {
     }
     
     /**
-     * 圆形碰撞检测
+     * 圆形碰撞检测（比较距离平方，不开根号）
      */
     private boolean checkCircleCollision(double x1, double y1, double r1,
                                          double x2, double y2, double r2) {
         double dx = x1 - x2;
         double dy = y1 - y2;
-        double distance = Math.sqrt(dx * dx + dy * dy);
-        return distance < (r1 + r2);
+        double r = r1 + r2;
+        return dx * dx + dy * dy < r * r;
     }
 }
 
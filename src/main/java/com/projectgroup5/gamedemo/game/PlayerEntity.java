@@ -1,5 +1,7 @@
 package com.projectgroup5.gamedemo.game;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * 玩家实体（服务器权威）
  */
@@ -10,7 +12,22 @@ public class PlayerEntity {
     public int hp;
     public int score;
     public boolean alive;
-    public long lastFireTime = 0;
+    public long lastFireTime = Long.MIN_VALUE / 2; // 模拟时间（毫秒），开局就能开火
+
+    // 开火是持续状态：按住就按射速连发；fireLatched 记住两次 tick 之间的“点按”，避免按下又松开被吞掉
+    public boolean fireHeld;
+    public boolean fireLatched;
+
+    // 客户端预测对账用：最后应用的输入序号，以及应用时的帧号（快照里带上“这条输入已经模拟了几帧”）
+    public long lastInputSeq;
+    public long lastInputFrame;
+
+    // 延迟补偿：PositionHistory 里的槽位（GameWorld 分配），以及开火时看到的画面落后服务器几帧
+    public int historySlot = -1;
+    public int viewLagFrames;
+    
+    // 二进制快照里写的用户名（只编码一次）
+    final byte[] usernameUtf8;
     
     // 碰撞体积
     public static final double WIDTH = 32;
@@ -19,6 +36,7 @@ public class PlayerEntity {
     
     public PlayerEntity(String username, double x, double y) {
         this.username = username;
+        this.usernameUtf8 = username.getBytes(StandardCharsets.UTF_8);
         this.x = x;
         this.y = y;
         this.hp = 3;
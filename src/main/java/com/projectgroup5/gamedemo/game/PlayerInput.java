@@ -5,8 +5,17 @@ package com.projectgroup5.gamedemo.game;
  * Architecture A: 客户端只发送输入，不发送位置/状态
  */
 public class PlayerInput {
+    // 二进制输入帧里的按键位（见 GameWebSocketHandler.handleInputFrame）
+    public static final int BIT_UP = 1;
+    public static final int BIT_DOWN = 1 << 1;
+    public static final int BIT_LEFT = 1 << 2;
+    public static final int BIT_RIGHT = 1 << 3;
+    public static final int BIT_FIRE = 1 << 4;
+
     private String username;
+    private long sequence;       // 客户端输入序号（二进制输入帧才有）
     private long clientFrameNumber;
+    private long viewSnapshotSeq; // 发送这条输入时客户端最新 ACK 的快照序号（0 = 未知，延迟补偿用）
     private boolean moveUp;      // W
     private boolean moveDown;    // S
     private boolean moveLeft;    // A
@@ -14,6 +23,31 @@ public class PlayerInput {
     private boolean fire;        // J or Space
     private long timestamp;
     
+    /** 从二进制输入帧的按键位构造，不经过 JSON */
+    public static PlayerInput fromBits(String username, int bits, long sequence, long timestamp) {
+        PlayerInput input = new PlayerInput();
+        input.username = username;
+        input.sequence = sequence;
+        input.moveUp = (bits & BIT_UP) != 0;
+        input.moveDown = (bits & BIT_DOWN) != 0;
+        input.moveLeft = (bits & BIT_LEFT) != 0;
+        input.moveRight = (bits & BIT_RIGHT) != 0;
+        input.fire = (bits & BIT_FIRE) != 0;
+        input.timestamp = timestamp;
+        return input;
+    }
+
+    /** 按键状态压成 BIT_* 位（事件日志 / 回放录制用） */
+    public int toBits() {
+        int bits = 0;
+        if (moveUp) bits |= BIT_UP;
+        if (moveDown) bits |= BIT_DOWN;
+        if (moveLeft) bits |= BIT_LEFT;
+        if (moveRight) bits |= BIT_RIGHT;
+        if (fire) bits |= BIT_FIRE;
+        return bits;
+    }
+
     // Getters and Setters
     public String getUsername() { 
         return username; 
@@ -23,6 +57,22 @@ public class PlayerInput {
         this.username = username; 
     }
     
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public long getViewSnapshotSeq() {
+        return viewSnapshotSeq;
+    }
+
+    public void setViewSnapshotSeq(long viewSnapshotSeq) {
+        this.viewSnapshotSeq = viewSnapshotSeq;
+    }
+
     public long getClientFrameNumber() { 
         return clientFrameNumber; 
     }
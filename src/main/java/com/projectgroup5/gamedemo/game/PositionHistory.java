@@ -0,0 +1,69 @@
+package com.projectgroup5.gamedemo.game;
+
+import java.util.Arrays;
+
+/**
+ * 房间最近若干帧的玩家位置（PvP 延迟补偿用）
+ * - 每个模拟步结束后记录一次：frame -> 各玩家槽位的 (x, y)
+ * - 定长环形缓冲区，构造时分配好，记录和查询都不分配内存
+ * - 玩家用 PlayerEntity.historySlot 定位（GameWorld 分配，房间内最多 MAX_PLAYERS 个）
+ *
+ * 只在房间的 tick 线程上使用，不需要同步。
+ */
+class PositionHistory {
+    static final int MAX_PLAYERS = 4;
+
+    private final int capacity;
+    private final long[] frames;
+    private final double[] x;
+    private final double[] y;
+    private final boolean[] present;
+
+    PositionHistory(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.frames = new long[this.capacity];
+        this.x = new double[this.capacity * MAX_PLAYERS];
+        this.y = new double[this.capacity * MAX_PLAYERS];
+        this.present = new boolean[this.capacity * MAX_PLAYERS];
+        Arrays.fill(frames, -1);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /** 记录第 frame 帧结束时所有存活玩家的位置（覆盖最旧的一帧） */
+    void record(long frame, Iterable<PlayerEntity> players) {
+        int row = (int) (frame % capacity);
+        int base = row * MAX_PLAYERS;
+        frames[row] = frame;
+        Arrays.fill(present, base, base + MAX_PLAYERS, false);
+        for (PlayerEntity p : players) {
+            int slot = p.historySlot;
+            if (slot < 0 || slot >= MAX_PLAYERS || !p.alive) continue;
+            x[base + slot] = p.x;
+            y[base + slot] = p.y;
+            present[base + slot] = true;
+        }
+    }
+
+    /**
+     * 某个玩家在第 frame 帧的位置下标（给 xAt / yAt 用）
+     * 这一帧已经滚出缓冲区、或当时玩家不在 / 已死亡，返回 -1
+     */
+    int find(long frame, int slot) {
+        if (frame < 0 || slot < 0 || slot >= MAX_PLAYERS) return -1;
+        int row = (int) (frame % capacity);
+        if (frames[row] != frame) return -1;
+        int i = row * MAX_PLAYERS + slot;
+        return present[i] ? i : -1;
+    }
+
+    double xAt(int i) {
+        return x[i];
+    }
+
+    double yAt(int i) {
+        return y[i];
+    }
+}
@@ -0,0 +1,211 @@
+package com.projectgroup5.gamedemo.game;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 回放引擎：按录像重新模拟一局 Architecture A 游戏
+ * - 用同样的 seed / 配置新建 GameWorld，按录下来的帧号依次加入玩家、应用输入，再调用和实时 tick 相同的 PhysicsEngine.step
+ * - 不看墙上时钟、不广播、不发事件，能跑多快跑多快
+ * - 录像里每 hashInterval 帧有一个状态哈希，回放到这些帧时比对，第一个不一致的位置附近就是不可重现的地方（争议 / 回归排查用）
+ * - 录制默认关闭（game.replay.record），开启后实时 tick 也只在这些帧上算哈希
+ *
+ * 最近结束的 maxRecordings 局录像保存在内存里（按房间，同一房间新的一局覆盖旧的）。
+ * 按房间回放（HTTP 接口）同一时间只跑一个，一局最长要重新模拟几十万步。
+ */
+@Component
+public class ReplayEngine {
+    private static final Logger logger = LoggerFactory.getLogger(ReplayEngine.class);
+
+    // 画面延迟用录像里的值，引擎自己的补偿窗口用不到
+    private final PhysicsEngine physics = PhysicsEngine.headless(0);
+    private final boolean recordEnabled;
+    private final int hashIntervalFrames;
+    private final int maxRecordings;
+    private final AtomicBoolean replaying = new AtomicBoolean();
+
+    // roomId -> 最近一局的录像（按访问顺序淘汰）
+    private final Map<Long, InputRecording> recordings;
+
+    public ReplayEngine(@Value("${game.replay.record:false}") boolean recordEnabled,
+                        @Value("${game.replay.hash-interval-frames:30}") int hashIntervalFrames,
+                        @Value("${game.replay.max-recordings:32}") int maxRecordings) {
+        this.recordEnabled = recordEnabled;
+        this.hashIntervalFrames = Math.max(1, hashIntervalFrames);
+        this.maxRecordings = Math.max(1, maxRecordings);
+        this.recordings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, InputRecording> eldest) {
+                return size() > ReplayEngine.this.maxRecordings;
+            }
+        };
+    }
+
+    /** 新建的房间是否要录制（GameRoomManager 在加入玩家之前调用 startRecording） */
+    public boolean isRecordEnabled() {
+        return recordEnabled;
+    }
+
+    /** 实时录制时每隔多少帧录一次状态哈希 */
+    public int getHashIntervalFrames() {
+        return hashIntervalFrames;
+    }
+
+    /** 保存一局已结束的录像 */
+    public synchronized void save(InputRecording recording) {
+        if (!recording.isFinished()) {
+            throw new IllegalArgumentException("录像还没结束");
+        }
+        recordings.put(recording.getRoomId(), recording);
+        logger.info("Recording saved for room {}: seed={}, frames={}, inputs={}",
+                recording.getRoomId(), recording.getSeed(), recording.getEndFrame(), recording.getInputCount());
+    }
+
+    public synchronized Optional<InputRecording> getRecording(long roomId) {
+        return Optional.ofNullable(recordings.get(roomId));
+    }
+
+    /**
+     * 回放某个房间最近一局的录像
+     * @throws IllegalStateException 已有按房间的回放在运行
+     */
+    public Optional<Result> replay(long roomId) {
+        Optional<InputRecording> recording = getRecording(roomId);
+        if (recording.isEmpty()) return Optional.empty();
+        if (!replaying.compareAndSet(false, true)) {
+            throw new IllegalStateException("已有回放在运行");
+        }
+        try {
+            return Optional.of(replay(recording.get()));
+        } finally {
+            replaying.set(false);
+        }
+    }
+
+    /** 回放一局录像（任意线程，每次回放用自己的 GameWorld） */
+    public Result replay(InputRecording recording) {
+        long startNanos = System.nanoTime();
+        GameWorld world = new GameWorld(recording.getRoomId(), recording.getMapName(),
+                recording.getWinMode(), recording.getMaxPlayers(),
+                recording.getSimulationHz(), recording.getSimulationHz(), recording.getSeed());
+        world.setPhase(GameWorld.GamePhase.IN_PROGRESS);
+
+        long endFrame = recording.getEndFrame();
+        int eventCount = recording.eventCount();
+        int next = 0;
+        long firstMismatch = -1;
+        for (long frame = 0; frame < endFrame; frame++) {
+            // 实时 tick 在模拟步之前应用排队的加入 / 输入，这里按录下的帧号做同样的事
+            while (next < eventCount && recording.eventFrameAt(next) <= frame) {
+                apply(world, recording, next++);
+            }
+            physics.step(world);
+
+            Long expected = recording.frameHash(world.getCurrentFrameNumber());
+            if (firstMismatch < 0 && expected != null && expected != world.stateHash()) {
+                firstMismatch = world.getCurrentFrameNumber();
+            }
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Result result = new Result(recording, world, firstMismatch, elapsedNanos);
+        if (firstMismatch >= 0) {
+            logger.warn("Replay of room {} diverged at frame {}", recording.getRoomId(), firstMismatch);
+        }
+        return result;
+    }
+
+    private void apply(GameWorld world, InputRecording recording, int i) {
+        String username = recording.usernameAt(i);
+        if (recording.kindAt(i) == InputRecording.JOIN) {
+            if (!world.getPlayers().containsKey(username)) {
+                world.addPlayer(username);
+            }
+            return;
+        }
+        PlayerEntity player = world.getPlayers().get(username);
+        if (player == null) return;
+        PlayerInput input = PlayerInput.fromBits(username, recording.bitsAt(i), recording.sequenceAt(i), 0);
+        player.viewLagFrames = recording.viewLagFramesAt(i);
+        physics.applyInput(world, player, input);
+    }
+
+    /** 一次回放的结果 */
+    public static class Result {
+        private final long roomId;
+        private final long seed;
+        private final long frames;
+        private final int inputs;
+        private final int verifiedFrames;
+        private final long firstMismatchFrame;
+        private final Map<String, Integer> finalScores = new LinkedHashMap<>();
+        private final double elapsedMillis;
+        private final double ticksPerSecond;
+        private final double speedup;
+
+        Result(InputRecording recording, GameWorld world, long firstMismatchFrame, long elapsedNanos) {
+            this.roomId = recording.getRoomId();
+            this.seed = recording.getSeed();
+            this.frames = world.getCurrentFrameNumber();
+            this.inputs = recording.getInputCount();
+            this.verifiedFrames = (int) Math.min(frames, recording.getLastHashedFrame());
+            this.firstMismatchFrame = firstMismatchFrame;
+            world.getPlayers().values().forEach(p -> finalScores.put(p.username, p.score));
+            double seconds = Math.max(1, elapsedNanos) / 1e9;
+            this.elapsedMillis = seconds * 1000;
+            this.ticksPerSecond = frames / seconds;
+            this.speedup = ticksPerSecond / recording.getSimulationHz();
+        }
+
+        /** 每一帧的状态哈希都和录像一致 */
+        public boolean isIdentical() {
+            return firstMismatchFrame < 0;
+        }
+
+        public long getRoomId() {
+            return roomId;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        public int getInputs() {
+            return inputs;
+        }
+
+        public int getVerifiedFrames() {
+            return verifiedFrames;
+        }
+
+        public long getFirstMismatchFrame() {
+            return firstMismatchFrame;
+        }
+
+        public Map<String, Integer> getFinalScores() {
+            return finalScores;
+        }
+
+        public double getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getTicksPerSecond() {
+            return ticksPerSecond;
+        }
+
+        /** 比实时快多少倍 */
+        public double getSpeedup() {
+            return speedup;
+        }
+    }
+}
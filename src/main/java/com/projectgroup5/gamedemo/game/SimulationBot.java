@@ -0,0 +1,113 @@
+package com.projectgroup5.gamedemo.game;
+
+import java.util.SplittableRandom;
+
+/**
+ * 离线模拟用的脚本机器人（代替 WebSocket 客户端产生输入）
+ * - 每个模拟步之前决定按键，和真实客户端一样只在按键变化时才提交一条输入
+ * - 随机数来自对局 seed 派生的 SplittableRandom，同一个 seed 的对局可以重现
+ *
+ * 只在跑这局模拟的线程上使用。
+ */
+class SimulationBot {
+
+    enum Strategy {
+        // 对准最近的石头开火，石头压到头顶时横向躲开
+        AIM,
+        // 随机游走，随机开火（对照组）
+        RANDOM,
+        // 原地不动一直开火（下限参考）
+        IDLE
+    }
+
+    // AIM：石头在头顶这个距离内且横向重叠时躲避
+    private static final double DODGE_DISTANCE_Y = 120;
+    private static final double ALIGN_TOLERANCE_X = 12;
+
+    private final String username;
+    private final Strategy strategy;
+    private final SplittableRandom random;
+
+    private int bits = -1;
+    private long sequence;
+    // RANDOM：当前按键保持到第几帧
+    private long holdUntilFrame;
+
+    SimulationBot(String username, Strategy strategy, SplittableRandom random) {
+        this.username = username;
+        this.strategy = strategy;
+        this.random = random;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    Strategy getStrategy() {
+        return strategy;
+    }
+
+    /** 在模拟步之前调用：按键有变化就应用一条新输入 */
+    void act(GameWorld world, PhysicsEngine physics) {
+        PlayerEntity self = world.getPlayers().get(username);
+        if (self == null || !self.alive) return;
+
+        int next = switch (strategy) {
+            case AIM -> aim(world, self);
+            case RANDOM -> wander(world.getCurrentFrameNumber());
+            case IDLE -> PlayerInput.BIT_FIRE;
+        };
+        if (next != bits) {
+            bits = next;
+            physics.processInput(world, PlayerInput.fromBits(username, next, ++sequence, 0));
+        }
+    }
+
+    private int aim(GameWorld world, PlayerEntity self) {
+        AsteroidStore asteroids = world.getAsteroids();
+        int target = -1;
+        double bestDx = Double.MAX_VALUE;
+        for (int i = 0; i < asteroids.size(); i++) {
+            double dy = self.y - asteroids.yAt(i);
+            if (dy <= 0) continue; // 已经掉到下面了
+            double dx = asteroids.xAt(i) - self.x;
+            double reach = asteroids.radiusAt(i) + PlayerEntity.COLLISION_RADIUS;
+            if (dy < DODGE_DISTANCE_Y && Math.abs(dx) < reach) {
+                // 快砸到了：往远离石头的方向躲，边上没地方就往另一边
+                boolean goLeft = dx > 0 ? self.x > PlayerEntity.WIDTH : self.x > GameWorld.WORLD_WIDTH - PlayerEntity.WIDTH;
+                return goLeft ? PlayerInput.BIT_LEFT : PlayerInput.BIT_RIGHT;
+            }
+            if (Math.abs(dx) < bestDx) {
+                bestDx = Math.abs(dx);
+                target = i;
+            }
+        }
+        if (target < 0) return 0;
+
+        double dx = asteroids.xAt(target) - self.x;
+        if (Math.abs(dx) <= ALIGN_TOLERANCE_X) {
+            return PlayerInput.BIT_FIRE;
+        }
+        return dx < 0 ? PlayerInput.BIT_LEFT : PlayerInput.BIT_RIGHT;
+    }
+
+    private int wander(long frame) {
+        if (frame < holdUntilFrame) {
+            return bits < 0 ? 0 : bits;
+        }
+        holdUntilFrame = frame + 5 + random.nextInt(25);
+        int next = 0;
+        switch (random.nextInt(3)) {
+            case 0 -> next |= PlayerInput.BIT_LEFT;
+            case 1 -> next |= PlayerInput.BIT_RIGHT;
+            default -> { }
+        }
+        if (random.nextInt(4) == 0) {
+            next |= random.nextBoolean() ? PlayerInput.BIT_UP : PlayerInput.BIT_DOWN;
+        }
+        if (random.nextBoolean()) {
+            next |= PlayerInput.BIT_FIRE;
+        }
+        return next;
+    }
+}
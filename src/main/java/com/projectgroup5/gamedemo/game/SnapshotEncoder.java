@@ -0,0 +1,287 @@
+package com.projectgroup5.gamedemo.game;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * GAME_STATE 二进制快照编码（Architecture A，客户端在 JOIN_GAME 里带 snapshotFormat:"binary" 才启用）
+ * - 关键帧（KEYFRAME）：完整状态
+ * - 增量帧（DELTA）：相对客户端已 ACK 的某一帧（baseSeq），只发生成 / 消失 / 和预测不一致的字段
+ *
+ * 全部大端序（和浏览器 DataView 默认一致），坐标、速度量化为 int16（值 * 4）：
+ * <pre>
+ * header（20 字节）
+ *   u8  type（0x01 KEYFRAME / 0x02 DELTA）   u8 version = 3
+ *   u8  phase（GamePhase.ordinal）           u8 simulationHz
+ *   u32 seq      u32 baseSeq（关键帧为 0）
+ *   u32 frame    u32 timeMs（COUNTDOWN 为剩余倒计时，IN_PROGRESS 为已模拟时间）
+ *
+ * KEYFRAME
+ *   u8  playerCount,   player   : u8 nameLen, name(UTF-8), i16 x, i16 y, u8 hp, u8 alive, i32 score,
+ *                                 u32 inputSeq, u32 inputFrame（最后应用的输入序号 / 应用时的帧号，客户端预测对账用）
+ *   u16 bulletCount,   bullet   : u32 id, u8 ownerIndex（玩家表下标，0xFF = 未知）, i16 x, y, vx, vy
+ *   u16 asteroidCount, asteroid : u32 id, i16 x, y, vx, vy, u8 radius, u8 hp, u8 flags（bit0 = isBig）
+ *
+ * DELTA
+ *   u8 playerCount, player : u8 nameLen, name, u8 mask, 按 mask 依次：
+ *                            bit0 i16 x, bit1 i16 y, bit2 u8 hp, bit3 u8 alive, bit4 i32 score,
+ *                            bit5 u32 inputSeq, u32 inputFrame；bit7 = 已离开
+ *   子弹、石头各一段：
+ *     u16 despawnCount, u32 id...
+ *     u16 spawnCount,   子弹：u32 id, u8 ownerLen, owner(UTF-8), i16 x, y, vx, vy；石头：同关键帧记录
+ *     u16 updateCount,  u32 id, u8 mask, 按 mask 依次：
+ *                       bit0 x 残差, bit1 y 残差, bit2 i16 vx, i16 vy（新速度）, bit3 u8 hp
+ *                       bit4 = 残差用 i8（量化取整误差通常只有 ±1），否则 i16
+ * </pre>
+ * 增量里的位置按基线速度预测：pred = base + trunc(v * (frame - baseFrame) / simulationHz)，
+ * 实际值 = pred + 残差；没有更新记录的实体就是恰好落在预测位置上（匀速下落的石头、子弹大多如此）。
+ * 前端解码见 game-architecture-a.js 的 decodeBinarySnapshot。
+ */
+@Component
+public class SnapshotEncoder {
+    public static final byte TYPE_KEYFRAME = 0x01;
+    public static final byte TYPE_DELTA = 0x02;
+    public static final byte VERSION = 3;
+    public static final int POSITION_SCALE = 4;
+
+    private static final int HEADER_BYTES = 20;
+    private static final int NO_OWNER = 0xFF;
+    // 单条记录的最大长度（含 255 字节的名字），用来预估缓冲区大小
+    private static final int MAX_PLAYER_BYTES = 1 + 255 + 1 + 2 + 2 + 1 + 1 + 4 + 8;
+    private static final int MAX_BULLET_BYTES = 4 + 1 + 255 + 8 + 1;
+    private static final int MAX_ASTEROID_BYTES = 4 + 8 + 3 + 1 + 4;
+
+    private static final int P_X = 1, P_Y = 1 << 1, P_HP = 1 << 2, P_ALIVE = 1 << 3, P_SCORE = 1 << 4;
+    private static final int P_INPUT = 1 << 5;
+    private static final int P_REMOVED = 1 << 7;
+    private static final int E_X = 1, E_Y = 1 << 1, E_VEL = 1 << 2, E_HP = 1 << 3, E_SMALL = 1 << 4;
+
+    /**
+     * 编码一帧快照：baseline 为 null 时发关键帧，否则发相对 baseline 的增量
+     * 返回的数组归调用方所有（可以直接交给发送队列）；只在房间的 tick 线程上调用
+     */
+    byte[] encode(SnapshotHistory history, SnapshotFrame current, SnapshotFrame baseline) {
+        SnapshotFrame base = baseline != null && baseline.seq < current.seq ? baseline : null;
+
+        int bound = HEADER_BYTES + 1 + 12
+                + (current.players.count + (base != null ? base.players.count : 0)) * MAX_PLAYER_BYTES
+                + (current.bullets.count + (base != null ? base.bullets.count : 0)) * MAX_BULLET_BYTES
+                + (current.asteroids.count + (base != null ? base.asteroids.count : 0)) * MAX_ASTEROID_BYTES;
+        ByteBuffer buf = history.scratch(bound);
+
+        buf.put(base == null ? TYPE_KEYFRAME : TYPE_DELTA);
+        buf.put(VERSION);
+        buf.put((byte) current.phase);
+        buf.put((byte) current.simulationHz);
+        buf.putInt((int) current.seq);
+        buf.putInt(base == null ? 0 : (int) base.seq);
+        buf.putInt((int) current.frame);
+        buf.putInt((int) Math.min(current.timeMs, 0xFFFFFFFFL));
+
+        if (base == null) {
+            writeKeyframe(buf, current);
+        } else {
+            writeDelta(buf, base, current);
+        }
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    private void writeKeyframe(ByteBuffer buf, SnapshotFrame cur) {
+        SnapshotFrame.Players players = cur.players;
+        int playerCount = Math.min(players.count, NO_OWNER - 1);
+        buf.put((byte) playerCount);
+        for (int i = 0; i < playerCount; i++) {
+            writeName(buf, players.nameUtf8[i]);
+            buf.putShort(players.x[i]);
+            buf.putShort(players.y[i]);
+            buf.put((byte) clampU8(players.hp[i]));
+            buf.put((byte) (players.alive[i] ? 1 : 0));
+            buf.putInt(players.score[i]);
+            buf.putInt(players.inputSeq[i]);
+            buf.putInt(players.inputFrame[i]);
+        }
+
+        SnapshotFrame.Table bullets = cur.bullets;
+        int bulletCount = Math.min(bullets.count, 0xFFFF);
+        buf.putShort((short) bulletCount);
+        for (int i = 0; i < bulletCount; i++) {
+            int owner = players.indexOf(bullets.owner[i]);
+            buf.putInt(bullets.id[i]);
+            buf.put((byte) (owner < 0 || owner >= playerCount ? NO_OWNER : owner));
+            writeMotion(buf, bullets, i);
+        }
+
+        SnapshotFrame.Table asteroids = cur.asteroids;
+        int asteroidCount = Math.min(asteroids.count, 0xFFFF);
+        buf.putShort((short) asteroidCount);
+        for (int i = 0; i < asteroidCount; i++) {
+            writeAsteroid(buf, asteroids, i);
+        }
+    }
+
+    private void writeDelta(ByteBuffer buf, SnapshotFrame base, SnapshotFrame cur) {
+        long frames = cur.frame - base.frame;
+        int hz = Math.max(1, base.simulationHz);
+
+        // ---- 玩家：只发变化的字段，新玩家发全部，离开的玩家打 REMOVED ----
+        int countPos = buf.position();
+        buf.put((byte) 0);
+        int records = 0;
+        SnapshotFrame.Players bp = base.players, cp = cur.players;
+        for (int i = 0; i < cp.count && records < 0xFF; i++) {
+            int b = bp.indexOf(cp.name[i]);
+            int mask = P_X | P_Y | P_HP | P_ALIVE | P_SCORE | P_INPUT;
+            if (b >= 0) {
+                mask = 0;
+                if (cp.x[i] != bp.x[b]) mask |= P_X;
+                if (cp.y[i] != bp.y[b]) mask |= P_Y;
+                if (cp.hp[i] != bp.hp[b]) mask |= P_HP;
+                if (cp.alive[i] != bp.alive[b]) mask |= P_ALIVE;
+                if (cp.score[i] != bp.score[b]) mask |= P_SCORE;
+                if (cp.inputSeq[i] != bp.inputSeq[b] || cp.inputFrame[i] != bp.inputFrame[b]) mask |= P_INPUT;
+                if (mask == 0) continue;
+            }
+            writeName(buf, cp.nameUtf8[i]);
+            buf.put((byte) mask);
+            if ((mask & P_X) != 0) buf.putShort(cp.x[i]);
+            if ((mask & P_Y) != 0) buf.putShort(cp.y[i]);
+            if ((mask & P_HP) != 0) buf.put((byte) clampU8(cp.hp[i]));
+            if ((mask & P_ALIVE) != 0) buf.put((byte) (cp.alive[i] ? 1 : 0));
+            if ((mask & P_SCORE) != 0) buf.putInt(cp.score[i]);
+            if ((mask & P_INPUT) != 0) {
+                buf.putInt(cp.inputSeq[i]);
+                buf.putInt(cp.inputFrame[i]);
+            }
+            records++;
+        }
+        for (int b = 0; b < bp.count && records < 0xFF; b++) {
+            if (cp.indexOf(bp.name[b]) < 0) {
+                writeName(buf, bp.nameUtf8[b]);
+                buf.put((byte) P_REMOVED);
+                records++;
+            }
+        }
+        buf.put(countPos, (byte) records);
+
+        writeTableDelta(buf, base.bullets, cur.bullets, frames, hz, true);
+        writeTableDelta(buf, base.asteroids, cur.asteroids, frames, hz, false);
+    }
+
+    /**
+     * 两张按 id 升序的表做归并：只在 cur 里的是 spawn，只在 base 里的是 despawn，
+     * 两边都有的和预测位置比较，不一致才发 update
+     */
+    private void writeTableDelta(ByteBuffer buf, SnapshotFrame.Table base, SnapshotFrame.Table cur,
+                                 long frames, int hz, boolean bullets) {
+        // despawn
+        int countPos = buf.position();
+        buf.putShort((short) 0);
+        int despawns = 0;
+        for (int b = 0, c = 0; b < base.count; b++) {
+            while (c < cur.count && cur.id[c] < base.id[b]) c++;
+            if ((c == cur.count || cur.id[c] != base.id[b] || residualOverflow(base, b, cur, c, frames, hz))
+                    && despawns < 0xFFFF) {
+                buf.putInt(base.id[b]);
+                despawns++;
+            }
+        }
+        buf.putShort(countPos, (short) despawns);
+
+        // spawn（残差溢出 int16 的实体也当作重新生成）
+        countPos = buf.position();
+        buf.putShort((short) 0);
+        int spawns = 0;
+        for (int c = 0, b = 0; c < cur.count; c++) {
+            while (b < base.count && base.id[b] < cur.id[c]) b++;
+            boolean inBase = b < base.count && base.id[b] == cur.id[c];
+            if ((!inBase || residualOverflow(base, b, cur, c, frames, hz)) && spawns < 0xFFFF) {
+                if (bullets) {
+                    buf.putInt(cur.id[c]);
+                    writeName(buf, cur.ownerUtf8[c]);
+                    writeMotion(buf, cur, c);
+                } else {
+                    writeAsteroid(buf, cur, c);
+                }
+                spawns++;
+            }
+        }
+        buf.putShort(countPos, (short) spawns);
+
+        // update
+        countPos = buf.position();
+        buf.putShort((short) 0);
+        int updates = 0;
+        for (int c = 0, b = 0; c < cur.count; c++) {
+            while (b < base.count && base.id[b] < cur.id[c]) b++;
+            if (b == base.count || base.id[b] != cur.id[c]) continue;
+            if (residualOverflow(base, b, cur, c, frames, hz)) continue;
+
+            int rx = cur.x[c] - predict(base.x[b], base.vx[b], frames, hz);
+            int ry = cur.y[c] - predict(base.y[b], base.vy[b], frames, hz);
+            int mask = 0;
+            if (rx != 0) mask |= E_X;
+            if (ry != 0) mask |= E_Y;
+            if (cur.vx[c] != base.vx[b] || cur.vy[c] != base.vy[b]) mask |= E_VEL;
+            if (!bullets && cur.hp[c] != base.hp[b]) mask |= E_HP;
+            if (mask == 0 || updates == 0xFFFF) continue;
+            boolean small = rx == (byte) rx && ry == (byte) ry;
+            if (small) mask |= E_SMALL;
+
+            buf.putInt(cur.id[c]);
+            buf.put((byte) mask);
+            if ((mask & E_X) != 0) {
+                if (small) buf.put((byte) rx); else buf.putShort((short) rx);
+            }
+            if ((mask & E_Y) != 0) {
+                if (small) buf.put((byte) ry); else buf.putShort((short) ry);
+            }
+            if ((mask & E_VEL) != 0) {
+                buf.putShort(cur.vx[c]);
+                buf.putShort(cur.vy[c]);
+            }
+            if ((mask & E_HP) != 0) buf.put((byte) clampU8(cur.hp[c]));
+            updates++;
+        }
+        buf.putShort(countPos, (short) updates);
+    }
+
+    /** 按基线速度预测 frames 帧之后的量化位置（整数运算，前端用 Math.trunc 得到同样的结果） */
+    static int predict(int position, int velocity, long frames, int hz) {
+        return (int) (position + (velocity * frames) / hz);
+    }
+
+    private static boolean residualOverflow(SnapshotFrame.Table base, int b, SnapshotFrame.Table cur, int c,
+                                            long frames, int hz) {
+        if (c >= cur.count || b >= base.count || cur.id[c] != base.id[b]) return false;
+        int rx = cur.x[c] - predict(base.x[b], base.vx[b], frames, hz);
+        int ry = cur.y[c] - predict(base.y[b], base.vy[b], frames, hz);
+        return rx != (short) rx || ry != (short) ry;
+    }
+
+    private static void writeName(ByteBuffer buf, byte[] utf8) {
+        int len = Math.min(utf8.length, 255);
+        buf.put((byte) len);
+        buf.put(utf8, 0, len);
+    }
+
+    private static void writeMotion(ByteBuffer buf, SnapshotFrame.Table t, int i) {
+        buf.putShort(t.x[i]);
+        buf.putShort(t.y[i]);
+        buf.putShort(t.vx[i]);
+        buf.putShort(t.vy[i]);
+    }
+
+    private static void writeAsteroid(ByteBuffer buf, SnapshotFrame.Table t, int i) {
+        buf.putInt(t.id[i]);
+        writeMotion(buf, t, i);
+        buf.put((byte) clampU8(t.radius[i]));
+        buf.put((byte) clampU8(t.hp[i]));
+        buf.put((byte) (t.big[i] ? 1 : 0));
+    }
+
+    private static int clampU8(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+}
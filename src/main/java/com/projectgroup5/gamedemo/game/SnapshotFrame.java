@@ -0,0 +1,170 @@
+package com.projectgroup5.gamedemo.game;
+
+import java.util.Arrays;
+
+/**
+ * 一次快照广播时的世界状态（已量化，和发给客户端的数值完全一致）
+ * - 坐标 / 速度都量化为 SnapshotEncoder.POSITION_SCALE 倍的整数，客户端重建出来的值和这里逐位相同
+ * - 子弹、石头按 id 升序排列，做增量时两帧可以直接归并比较
+ * - 对象和数组都在 SnapshotHistory 的环形缓冲区里复用，capture 不分配内存（除非容量增长）
+ */
+class SnapshotFrame {
+    private static final byte[] NO_NAME = new byte[0];
+
+    long seq;          // 快照序号（客户端 ACK 用它，WAITING/COUNTDOWN 阶段 frame 不变但 seq 会变）
+    long frame;        // 模拟帧号
+    int phase;         // GamePhase.ordinal
+    int simulationHz;  // 预测位置时把帧数换算成秒
+    long timeMs;
+
+    final Players players = new Players();
+    final Table bullets = new Table();
+    final Table asteroids = new Table();
+
+    void capture(GameWorld world, long seq, long nowMillis) {
+        this.seq = seq;
+        this.frame = world.getCurrentFrameNumber();
+        this.phase = world.getPhase().ordinal();
+        this.simulationHz = world.getSimulationHz();
+        if (world.getPhase() == GameWorld.GamePhase.COUNTDOWN) {
+            this.timeMs = Math.max(0, world.getGameStartTime() - nowMillis);
+        } else if (world.getPhase() == GameWorld.GamePhase.IN_PROGRESS) {
+            this.timeMs = world.getClock().getSimulatedMillis();
+        } else {
+            this.timeMs = 0;
+        }
+
+        players.capture(world);
+        bullets.capture(world.getBullets(), null);
+        asteroids.capture(world.getAsteroids(), world.getAsteroids());
+        BulletStore bulletStore = world.getBullets();
+        for (int i = 0; i < bullets.count; i++) {
+            String owner = bulletStore.owner[bullets.storeIndex[i]];
+            int p = players.indexOf(owner);
+            bullets.owner[i] = owner;
+            bullets.ownerUtf8[i] = p >= 0 ? players.nameUtf8[p] : NO_NAME;
+        }
+    }
+
+    static short quantize(double v) {
+        long q = Math.round(v * SnapshotEncoder.POSITION_SCALE);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    /** 玩家表（最多 4 人，按名字查找即可） */
+    static class Players {
+        int count;
+        String[] name = new String[4];
+        byte[][] nameUtf8 = new byte[4][];
+        short[] x = new short[4];
+        short[] y = new short[4];
+        int[] hp = new int[4];
+        boolean[] alive = new boolean[4];
+        int[] score = new int[4];
+        int[] inputSeq = new int[4];   // 最后应用的输入序号（u32）
+        int[] inputFrame = new int[4]; // 应用这条输入时的帧号（u32，没有新输入就不变，增量里基本不用发）
+
+        void capture(GameWorld world) {
+            count = 0;
+            for (PlayerEntity p : world.getPlayers().values()) {
+                if (count == name.length) grow();
+                name[count] = p.username;
+                nameUtf8[count] = p.usernameUtf8;
+                x[count] = quantize(p.x);
+                y[count] = quantize(p.y);
+                hp[count] = p.hp;
+                alive[count] = p.alive;
+                score[count] = p.score;
+                inputSeq[count] = (int) p.lastInputSeq;
+                inputFrame[count] = (int) p.lastInputFrame;
+                count++;
+            }
+            // 清掉多余的引用，避免已离开的玩家被留住
+            Arrays.fill(name, count, name.length, null);
+            Arrays.fill(nameUtf8, count, nameUtf8.length, null);
+        }
+
+        int indexOf(String username) {
+            for (int i = 0; i < count; i++) {
+                if (name[i].equals(username)) return i;
+            }
+            return -1;
+        }
+
+        private void grow() {
+            int cap = name.length * 2;
+            name = Arrays.copyOf(name, cap);
+            nameUtf8 = Arrays.copyOf(nameUtf8, cap);
+            x = Arrays.copyOf(x, cap);
+            y = Arrays.copyOf(y, cap);
+            hp = Arrays.copyOf(hp, cap);
+            alive = Arrays.copyOf(alive, cap);
+            score = Arrays.copyOf(score, cap);
+            inputSeq = Arrays.copyOf(inputSeq, cap);
+            inputFrame = Arrays.copyOf(inputFrame, cap);
+        }
+    }
+
+    /** 子弹 / 石头表：量化后的列，按 id 升序 */
+    static class Table {
+        int count;
+        int[] id = new int[32];
+        short[] x = new short[32];
+        short[] y = new short[32];
+        short[] vx = new short[32];
+        short[] vy = new short[32];
+        int[] hp = new int[32];
+        int[] radius = new int[32];
+        boolean[] big = new boolean[32];
+        String[] owner = new String[32];
+        byte[][] ownerUtf8 = new byte[32][];
+        int[] storeIndex = new int[32];
+
+        void capture(EntityStore store, AsteroidStore asteroidColumns) {
+            int n = store.size;
+            if (n > id.length) grow(Math.max(n, id.length * 2));
+
+            // store 里的顺序会被 swap-remove 打乱，但大体还是按 id 递增，插入排序几乎是线性的
+            int[] order = storeIndex;
+            int[] storeId = store.id;
+            for (int i = 0; i < n; i++) {
+                int idx = i;
+                int j = i - 1;
+                while (j >= 0 && storeId[order[j]] > storeId[idx]) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = idx;
+            }
+
+            for (int i = 0; i < n; i++) {
+                int s = order[i];
+                id[i] = storeId[s];
+                x[i] = quantize(store.x[s]);
+                y[i] = quantize(store.y[s]);
+                vx[i] = quantize(store.vx[s]);
+                vy[i] = quantize(store.vy[s]);
+                hp[i] = store.hp[s];
+                radius[i] = (int) Math.round(store.radius[s]);
+                big[i] = asteroidColumns != null && asteroidColumns.big[s];
+            }
+            Arrays.fill(owner, n, owner.length, null);
+            Arrays.fill(ownerUtf8, n, ownerUtf8.length, null);
+            count = n;
+        }
+
+        private void grow(int cap) {
+            id = Arrays.copyOf(id, cap);
+            x = Arrays.copyOf(x, cap);
+            y = Arrays.copyOf(y, cap);
+            vx = Arrays.copyOf(vx, cap);
+            vy = Arrays.copyOf(vy, cap);
+            hp = Arrays.copyOf(hp, cap);
+            radius = Arrays.copyOf(radius, cap);
+            big = Arrays.copyOf(big, cap);
+            owner = Arrays.copyOf(owner, cap);
+            ownerUtf8 = Arrays.copyOf(ownerUtf8, cap);
+            storeIndex = Arrays.copyOf(storeIndex, cap);
+        }
+    }
+}
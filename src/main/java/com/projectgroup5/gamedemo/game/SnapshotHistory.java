@@ -0,0 +1,50 @@
+package com.projectgroup5.gamedemo.game;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 房间最近若干次快照的环形缓冲区（增量快照的基线）
+ * - 每次广播 capture 一帧，序号 seq 单调递增
+ * - 客户端 ACK 的 seq 还在环里就按它做增量，否则（太旧 / 从没 ACK 过）发关键帧
+ *
+ * 只在房间的 tick 线程上使用，不需要同步。
+ */
+class SnapshotHistory {
+    static final int CAPACITY = 32; // 25Hz 快照约 1.3 秒
+
+    private final SnapshotFrame[] ring = new SnapshotFrame[CAPACITY];
+    private long nextSeq = 1;
+
+    // 编码用的复用缓冲区
+    private ByteBuffer scratch = ByteBuffer.allocate(2048);
+
+    SnapshotHistory() {
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new SnapshotFrame();
+        }
+    }
+
+    /** 记录当前世界状态，返回新的一帧（会覆盖最旧的一帧） */
+    SnapshotFrame capture(GameWorld world, long nowMillis) {
+        long seq = nextSeq++;
+        SnapshotFrame frame = ring[(int) (seq % CAPACITY)];
+        frame.capture(world, seq, nowMillis);
+        return frame;
+    }
+
+    /** 按 seq 找基线，已经被覆盖或不存在返回 null */
+    SnapshotFrame find(long seq) {
+        if (seq <= 0) return null;
+        SnapshotFrame frame = ring[(int) (seq % CAPACITY)];
+        return frame.seq == seq ? frame : null;
+    }
+
+    /** 编码缓冲区：容量不够时翻倍，返回前已 clear() */
+    ByteBuffer scratch(int capacity) {
+        if (scratch.capacity() < capacity) {
+            scratch = ByteBuffer.allocate(Math.max(capacity, scratch.capacity() * 2));
+        }
+        scratch.clear();
+        return scratch;
+    }
+}
@@ -0,0 +1,103 @@
+package com.projectgroup5.gamedemo.game;
+
+import java.util.Arrays;
+
+/**
+ * 均匀网格空间哈希（碰撞检测 broadphase）
+ * - 每个格子用链表挂实体下标（cellHead + next 两个 int 数组，不分配对象）
+ * - 实体下标由调用方决定（0..n-1，对应调用方自己的实体数组）
+ * - clear() 只重置上一帧真正用过的格子，重建开销和实体数量成正比，而不是和格子数量成正比
+ * - 超出边界的坐标夹到边缘格子，查询结果只会多不会少
+ *
+ * 每个 GameWorld 持有自己的网格，只在房间的 tick 线程上使用。
+ */
+public class SpatialGrid {
+    private final double originX;
+    private final double originY;
+    private final double invCellSize;
+    private final int cols;
+    private final int rows;
+
+    private final int[] cellHead;
+    private final int[] touchedCells;
+    private int touchedCount;
+
+    private int[] next = new int[64];
+    private int[] hits = new int[64];
+
+    public SpatialGrid(double minX, double minY, double maxX, double maxY, double cellSize) {
+        this.originX = minX;
+        this.originY = minY;
+        this.invCellSize = 1.0 / cellSize;
+        this.cols = Math.max(1, (int) Math.ceil((maxX - minX) / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil((maxY - minY) / cellSize));
+        this.cellHead = new int[cols * rows];
+        this.touchedCells = new int[cols * rows];
+        Arrays.fill(cellHead, -1);
+    }
+
+    /**
+     * 清空网格（只清上次用过的格子）
+     */
+    public void clear() {
+        for (int i = 0; i < touchedCount; i++) {
+            cellHead[touchedCells[i]] = -1;
+        }
+        touchedCount = 0;
+    }
+
+    /**
+     * 放入一个实体
+     * @param id 调用方的实体下标（>= 0）
+     */
+    public void insert(int id, double x, double y) {
+        if (id >= next.length) {
+            next = Arrays.copyOf(next, Math.max(id + 1, next.length * 2));
+        }
+        int cell = cellRow(y) * cols + cellCol(x);
+        if (cellHead[cell] < 0) {
+            touchedCells[touchedCount++] = cell;
+        }
+        next[id] = cellHead[cell];
+        cellHead[cell] = id;
+    }
+
+    /**
+     * 查询以 (x, y) 为中心、半径 reach 的方框覆盖到的所有格子里的实体
+     * reach 应该 = 查询方半径 + 网格中实体的最大半径
+     * @return 命中数量，用 hit(i) 取出实体下标
+     */
+    public int query(double x, double y, double reach) {
+        int c0 = cellCol(x - reach), c1 = cellCol(x + reach);
+        int r0 = cellRow(y - reach), r1 = cellRow(y + reach);
+
+        int count = 0;
+        for (int r = r0; r <= r1; r++) {
+            int rowBase = r * cols;
+            for (int c = c0; c <= c1; c++) {
+                for (int id = cellHead[rowBase + c]; id >= 0; id = next[id]) {
+                    if (count == hits.length) {
+                        hits = Arrays.copyOf(hits, count * 2);
+                    }
+                    hits[count++] = id;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** 第 i 个命中的实体下标（配合 query 使用） */
+    public int hit(int i) {
+        return hits[i];
+    }
+
+    private int cellCol(double x) {
+        int c = (int) ((x - originX) * invCellSize);
+        return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+    }
+
+    private int cellRow(double y) {
+        int r = (int) ((y - originY) * invCellSize);
+        return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+    }
+}
@@ -0,0 +1,348 @@
+package com.projectgroup5.gamedemo.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Architecture B gossip 审计日志（替代逐条 INFO 日志）
+ * - 按消息类型采样：gossip.audit.sampling 里配置 TYPE=N 表示每 N 条记 1 条，没配置的类型全部记录
+ * - 每个房间一个内存环形缓冲区，游戏结束后仍可按房间查询（最多保留 MAX_ROOMS 个房间）
+ * - 异步写 NDJSON 文件：relay 线程只入队，满了直接丢弃并计数；单独的写线程按大小（UTF-8 字节数）滚动文件
+ * - 写文件出错时丢掉这一批（计入 failedWrites），关掉当前文件，稍等后换新文件继续写
+ *
+ * gossip.audit.dir 为空时不写文件，只保留内存缓冲区。
+ */
+@Service
+public class GossipAuditLog {
+    private static final Logger logger = LoggerFactory.getLogger(GossipAuditLog.class);
+
+    private static final int MAX_ROOMS = 64;
+    private static final int WRITE_QUEUE_CAPACITY = 65_536;
+    // 写文件失败后等多久再重试（磁盘满之类的错误不要空转刷日志）
+    private static final long WRITE_RETRY_MILLIS = 1000;
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final Map<String, Integer> sampleEvery;
+    private final Map<String, AtomicLong> typeCounters = new ConcurrentHashMap<>();
+    private final int ringSize;
+
+    // roomId -> 环形缓冲区（按访问顺序淘汰最旧的房间）
+    private final Map<Long, RoomRing> rooms = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RoomRing> eldest) {
+            return size() > MAX_ROOMS;
+        }
+    };
+
+    // 异步写文件
+    private final Path dir;
+    private final long maxFileBytes;
+    private final BlockingQueue<Entry> writeQueue = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // 统计
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong sampledOut = new AtomicLong();
+    private final AtomicLong droppedWrites = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    public GossipAuditLog(
+            @Value("${gossip.audit.sampling:PLAYER_POSITION=20,BULLET_POSITION=10}") String sampling,
+            @Value("${gossip.audit.ring-size:4096}") int ringSize,
+            @Value("${gossip.audit.dir:logs/gossip-audit}") String dir,
+            @Value("${gossip.audit.max-file-mb:64}") int maxFileMb) {
+        this.sampleEvery = parseSampling(sampling);
+        this.ringSize = Math.max(16, ringSize);
+        this.dir = dir == null || dir.isBlank() ? null : Paths.get(dir);
+        this.maxFileBytes = Math.max(1, maxFileMb) * 1024L * 1024L;
+
+        if (this.dir != null) {
+            writerThread = new Thread(this::writeLoop, "gossip-audit-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        } else {
+            writerThread = null;
+        }
+        logger.info("GossipAuditLog sampling={}, ringSize={}, dir={}", sampleEvery, this.ringSize, this.dir);
+    }
+
+    /** 解析 "TYPE=N,TYPE=N"，N <= 1 表示全部记录 */
+    static Map<String, Integer> parseSampling(String spec) {
+        Map<String, Integer> map = new HashMap<>();
+        if (spec == null) return map;
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) continue;
+            try {
+                map.put(kv[0].trim(), Math.max(1, Integer.parseInt(kv[1].trim())));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignore bad gossip.audit.sampling entry: {}", part);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * 记录一条 gossip（在 relay 线程上调用，只做采样判断 + 入队，不做任何 I/O）
+     * payload 是客户端发来的原始 JSON
+     */
+    public void record(long roomId, String username, String type, String payload) {
+        int every = sampleEvery.getOrDefault(type, 1);
+        if (every > 1) {
+            long n = typeCounters.computeIfAbsent(type, k -> new AtomicLong()).getAndIncrement();
+            if (n % every != 0) {
+                sampledOut.incrementAndGet();
+                return;
+            }
+        }
+
+        Entry entry = new Entry(System.currentTimeMillis(), roomId, username, type, payload);
+        ringFor(roomId).add(entry);
+        recorded.incrementAndGet();
+
+        if (writerThread != null && !writeQueue.offer(entry)) {
+            droppedWrites.incrementAndGet();
+        }
+    }
+
+    /**
+     * 查询某个房间最近的审计记录（按时间从旧到新）
+     * @param type  只看某种消息，null 表示全部
+     * @param limit 最多返回最近的多少条
+     */
+    public List<Entry> query(long roomId, String type, int limit) {
+        RoomRing ring;
+        synchronized (rooms) {
+            ring = rooms.get(roomId);
+        }
+        if (ring == null) return Collections.emptyList();
+        return ring.snapshot(type, Math.max(0, limit));
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("recorded", recorded.get());
+        stats.put("sampledOut", sampledOut.get());
+        stats.put("droppedWrites", droppedWrites.get());
+        stats.put("failedWrites", failedWrites.get());
+        stats.put("pendingWrites", (long) writeQueue.size());
+        return stats;
+    }
+
+    private RoomRing ringFor(long roomId) {
+        synchronized (rooms) {
+            return rooms.computeIfAbsent(roomId, id -> new RoomRing(ringSize));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (writerThread != null) {
+            writerThread.interrupt();
+            try {
+                writerThread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ==================== 异步写文件 ====================
+
+    private void writeLoop() {
+        JsonFactory jsonFactory = new JsonFactory();
+        RollingFile file = new RollingFile(dir, maxFileBytes);
+        List<Entry> batch = new ArrayList<>(256);
+        try {
+            while (running || !writeQueue.isEmpty()) {
+                Entry first;
+                try {
+                    first = writeQueue.poll(500, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    if (running) continue;
+                    first = writeQueue.poll();
+                }
+                if (first == null) {
+                    file.flush();
+                    continue;
+                }
+
+                batch.add(first);
+                writeQueue.drainTo(batch, 255);
+                int written = 0;
+                try {
+                    for (Entry e : batch) {
+                        file.write(toJsonLine(jsonFactory, e));
+                        written++;
+                    }
+                } catch (Exception e) {
+                    // 一次 I/O 错误不能让写线程退出：丢掉这一批剩下的，下次写时换新文件
+                    failedWrites.addAndGet(batch.size() - written);
+                    logger.warn("Gossip audit write failed, rolling to a new file: {}", e.getMessage());
+                    file.close();
+                    if (running) {
+                        try {
+                            Thread.sleep(WRITE_RETRY_MILLIS);
+                        } catch (InterruptedException ie) {
+                            // shutdown() 会 interrupt，下一轮按 running 判断
+                        }
+                    }
+                }
+                batch.clear();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] toJsonLine(JsonFactory factory, Entry e) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(e.payload.length() + 96);
+        try (JsonGenerator gen = factory.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeNumberField("ts", e.timestamp);
+            gen.writeNumberField("roomId", e.roomId);
+            gen.writeStringField("user", e.username);
+            gen.writeStringField("type", e.type);
+            gen.writeStringField("payload", e.payload);
+            gen.writeEndObject();
+        }
+        out.write('\n');
+        return out.toByteArray();
+    }
+
+    /** gossip-audit-yyyyMMdd-N.ndjson，超过 maxBytes 或跨天就换新文件 */
+    private static class RollingFile {
+        private final Path dir;
+        private final long maxBytes;
+        private OutputStream out;
+        private LocalDate day;
+        private long written;
+        private int index;
+
+        RollingFile(Path dir, long maxBytes) {
+            this.dir = dir;
+            this.maxBytes = maxBytes;
+        }
+
+        /** line 是已经编码好的 UTF-8，按字节数计入文件大小 */
+        void write(byte[] line) throws IOException {
+            LocalDate today = LocalDate.now();
+            if (out == null || written >= maxBytes || !today.equals(day)) {
+                roll(today);
+            }
+            out.write(line);
+            written += line.length;
+        }
+
+        void flush() {
+            try {
+                if (out != null) out.flush();
+            } catch (IOException e) {
+                logger.warn("Gossip audit flush failed, rolling to a new file: {}", e.getMessage());
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {
+                logger.warn("Gossip audit close failed", e);
+            }
+            out = null;
+        }
+
+        private void roll(LocalDate today) throws IOException {
+            close();
+            if (!today.equals(day)) {
+                day = today;
+                index = 0;
+            }
+            Files.createDirectories(dir);
+            Path path;
+            do {
+                path = dir.resolve("gossip-audit-" + FILE_DATE.format(day) + "-" + index++ + ".ndjson");
+            } while (Files.exists(path) && Files.size(path) >= maxBytes);
+            out = new BufferedOutputStream(
+                    Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+            written = Files.size(path);
+        }
+    }
+
+    // ==================== 内存环形缓冲区 ====================
+
+    /** 单个房间的定长环形缓冲区，写满后覆盖最旧的记录 */
+    private static class RoomRing {
+        private final Entry[] entries;
+        private long next;
+
+        RoomRing(int size) {
+            this.entries = new Entry[size];
+        }
+
+        synchronized void add(Entry e) {
+            entries[(int) (next++ % entries.length)] = e;
+        }
+
+        synchronized List<Entry> snapshot(String type, int limit) {
+            List<Entry> result = new ArrayList<>();
+            long start = Math.max(0, next - entries.length);
+            // 从新往旧找，凑够 limit 条
+            for (long i = next - 1; i >= start && result.size() < limit; i--) {
+                Entry e = entries[(int) (i % entries.length)];
+                if (type == null || type.equals(e.type)) {
+                    result.add(e);
+                }
+            }
+            Collections.reverse(result);
+            return result;
+        }
+    }
+
+    /** 一条审计记录 */
+    public static class Entry {
+        private final long timestamp;
+        private final long roomId;
+        private final String username;
+        private final String type;
+        private final String payload;
+
+        Entry(long timestamp, long roomId, String username, String type, String payload) {
+            this.timestamp = timestamp;
+            this.roomId = roomId;
+            this.username = username;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public long getTimestamp() { return timestamp; }
+        public long getRoomId() { return roomId; }
+        public String getUsername() { return username; }
+        public String getType() { return type; }
+        public String getPayload() { return payload; }
+    }
+}
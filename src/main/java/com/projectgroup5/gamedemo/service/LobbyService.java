@@ -5,6 +5,7 @@ import com.projectgroup5.gamedemo.dto.LobbySlotDto;
 import com.projectgroup5.gamedemo.dto.PlayerInfoDto;
 import com.projectgroup5.gamedemo.dto.RoomDto;
 import com.projectgroup5.gamedemo.game.GameRoomManager;
+import com.projectgroup5.gamedemo.game.GameWorld;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +34,8 @@ public class LobbyService {
         public String ownerName;
         public boolean started;                // 是否已经开始游戏
         public String architectureMode;
+        public int simulationHz = GameWorld.DEFAULT_SIMULATION_HZ;  // Arch A 模拟频率
+        public int snapshotHz = GameWorld.DEFAULT_SNAPSHOT_HZ;      // Arch A 快照频率
 
         // 玩家列表（第一个一定是房主）
         public LinkedHashSet<String> players = new LinkedHashSet<>();
@@ -102,6 +105,8 @@ public class LobbyService {
         r.maxPlayers = Math.max(1, Math.min(4, req.getMaxPlayers()));
         r.mapName = req.getMapName();
         r.winMode = req.getWinMode();
+        r.simulationHz = GameWorld.normalizeSimulationHz(req.getSimulationHz());
+        r.snapshotHz = GameWorld.normalizeSnapshotHz(req.getSnapshotHz(), r.simulationHz);
         r.ownerName = ownerName;
         r.started = false;
         r.players.add(ownerName);          // 房主加入
@@ -276,6 +281,8 @@ public class LobbyService {
         dto.setArchitecture(r.mode == GameMode.ARCH_B ? "B" : "A");
         // 🔥 设置游戏局数ID
         dto.setGameSessionId(r.gameSessionId);
+        dto.setSimulationHz(r.simulationHz);
+        dto.setSnapshotHz(r.snapshotHz);
         List<PlayerInfoDto> playerDtos = new ArrayList<>();
         for (String username : r.players) {
             PlayerInfoDto p = new PlayerInfoDto();
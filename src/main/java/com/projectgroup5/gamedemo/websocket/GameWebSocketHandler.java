@@ -1,10 +1,9 @@
 package com.projectgroup5.gamedemo.websocket;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.projectgroup5.gamedemo.event.EventBus;
-import com.projectgroup5.gamedemo.event.InputReceivedEvent;
 import com.projectgroup5.gamedemo.game.*;
 import com.projectgroup5.gamedemo.service.AuthService;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -12,8 +11,13 @@ import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
 
 /**
  * WebSocket 核心处理器
@@ -25,14 +29,26 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(GameWebSocketHandler.class);
 
+    // 客户端 → 服务器的二进制消息类型
+    private static final byte SNAPSHOT_ACK = 0x10;
+
+    // 二进制输入帧（2 字节）：u8 (0x80 | 按键位) | u8 序号；最高位为 1 和其他二进制消息区分
+    private static final int INPUT_FRAME_FLAG = 0x80;
+    private static final int INPUT_BITS_MASK = 0x1F;
+
     private final GameRoomManager roomManager;
-    private final PhysicsEngine physicsEngine;
     private final AuthService authService;
-    private final EventBus eventBus;
     private final ObjectMapper objectMapper;
+    private final MessageRateLimiter rateLimiter;
+
+    // sessionId -> 该连接的上行限流（在解析 JSON 之前判断）
+    private final Map<String, MessageRateLimiter.Connection> limiters = new ConcurrentHashMap<>();
+
+    // sessionId -> 该连接的异步发送队列（所有发送都经过它，不直接调用 session.sendMessage）
+    private final Map<String, SessionOutbox> outboxes = new ConcurrentHashMap<>();
 
-    // sessionId -> WebSocketSession
-    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    // 所有连接共用的发送线程池：tick 线程 / WebSocket 线程只入队，不等网络 I/O
+    private final ExecutorService sendExecutor;
 
     // sessionId -> PlayerConnection
     private final Map<String, PlayerConnection> connections = new ConcurrentHashMap<>();
@@ -46,16 +62,27 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
 
     public GameWebSocketHandler(
             GameRoomManager roomManager,
-            PhysicsEngine physicsEngine,
             AuthService authService,
-            EventBus eventBus,
-            ObjectMapper objectMapper
+            ObjectMapper objectMapper,
+            MessageRateLimiter rateLimiter
     ) {
         this.roomManager = roomManager;
-        this.physicsEngine = physicsEngine;
         this.authService = authService;
-        this.eventBus = eventBus;
         this.objectMapper = objectMapper;
+        this.rateLimiter = rateLimiter;
+
+        int senders = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger senderIndex = new AtomicInteger();
+        this.sendExecutor = Executors.newFixedThreadPool(senders, r -> {
+            Thread t = new Thread(r, "ws-send-" + senderIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sendExecutor.shutdownNow();
     }
 
     // ==================== 连接建立 / 关闭 ====================
@@ -63,7 +90,8 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         String sessionId = session.getId();
-        sessions.put(sessionId, session);
+        outboxes.put(sessionId, new SessionOutbox(session, sendExecutor, SessionOutbox.DEFAULT_CONTROL_CAPACITY));
+        limiters.put(sessionId, rateLimiter.newConnection("A"));
         logger.info("WebSocket connected: {}", sessionId);
 
         sendMessage(session, Map.of("type", "CONNECTED", "sessionId", sessionId));
@@ -91,7 +119,8 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
                 p2pHosts.remove(conn.roomId);
             }
         }
-        sessions.remove(sessionId);
+        outboxes.remove(sessionId);
+        limiters.remove(sessionId);
     }
 
     // ==================== 消息分发 ====================
@@ -101,6 +130,9 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
         String sessionId = session.getId();
         String payload = message.getPayload();
 
+        // 限流：超限的消息连 JSON 都不解析
+        if (!admit(session, MessageRateLimiter.sniffType(payload))) return;
+
         try {
             @SuppressWarnings("unchecked")
             Map<String, Object> msg = objectMapper.readValue(payload, Map.class);
@@ -142,6 +174,55 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
         }
     }
 
+    /**
+     * 二进制消息（Arch A）：
+     *   快照 ACK  u8 0x10 | u32 seq
+     *   输入帧    u8 (0x80 | 按键位) | u8 序号
+     * TextWebSocketHandler 默认会直接关闭连接，这里覆盖掉
+     */
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        ByteBuffer buf = message.getPayload();
+        if (buf.remaining() < 1) return;
+
+        byte type = buf.get(buf.position());
+        boolean inputFrame = (type & INPUT_FRAME_FLAG) != 0;
+        if (!admit(session, inputFrame ? "PLAYER_INPUT" : type == SNAPSHOT_ACK ? "SNAPSHOT_ACK" : null)) return;
+
+        PlayerConnection conn = connections.get(session.getId());
+        if (inputFrame) {
+            if (buf.remaining() >= 2 && conn != null) {
+                handleInputFrame(conn, type & INPUT_BITS_MASK, buf.get(buf.position() + 1) & 0xFF);
+            }
+        } else if (type == SNAPSHOT_ACK && buf.remaining() >= 5 && conn != null) {
+            long seq = Integer.toUnsignedLong(buf.getInt(buf.position() + 1));
+            // ACK 可能乱序到达，只往前走
+            if (seq > conn.ackedSnapshotSeq) {
+                conn.ackedSnapshotSeq = seq;
+            }
+        } else {
+            logger.warn("Unknown binary message type 0x{} from {}", Integer.toHexString(type & 0xFF), session.getId());
+        }
+    }
+
+    /**
+     * 上行限流：允许返回 true；刷屏的连接直接断开
+     */
+    private boolean admit(WebSocketSession session, String type) {
+        MessageRateLimiter.Connection limiter = limiters.get(session.getId());
+        if (limiter == null) return true;
+
+        MessageRateLimiter.Decision decision = limiter.acquire(type);
+        if (decision == MessageRateLimiter.Decision.SHED) {
+            SessionOutbox outbox = outboxes.get(session.getId());
+            if (outbox != null && outbox.isOpen()) {
+                logger.warn("Session {} is flooding, closing", session.getId());
+                outbox.close(CloseStatus.POLICY_VIOLATION);
+            }
+        }
+        return decision == MessageRateLimiter.Decision.ALLOW;
+    }
+
     // ==================== Architecture A ====================
 
     private void handleJoinGameArchA(WebSocketSession session, Map<String, Object> msg) throws IOException {
@@ -156,20 +237,22 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
 
         if (!validToken) {
             sendMessage(session, Map.of("type", "ERROR", "message", "Invalid token"));
-            session.close();
+            closeSession(session);
             return;
         }
 
         // 必须在房间
         if (!roomManager.isPlayerInRoom(roomId, username)) {
             sendMessage(session, Map.of("type", "NOT_IN_ROOM", "message", "Not in room"));
-            session.close();
+            closeSession(session);
             return;
         }
 
         // 注册连接
         String sessionId = session.getId();
-        connections.put(sessionId, new PlayerConnection(roomId, username, "A"));
+        // 快照格式协商：snapshotFormat = "binary" 用 BinaryMessage，否则沿用 JSON GAME_STATE
+        boolean binarySnapshots = "binary".equalsIgnoreCase(String.valueOf(msg.get("snapshotFormat")));
+        connections.put(sessionId, new PlayerConnection(roomId, username, "A", binarySnapshots));
         roomSessions.computeIfAbsent(roomId, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
 
         logger.info("Player {} joined room {} (Arch A, WebSocket OK)", username, roomId);
@@ -185,24 +268,28 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
 
         GameWorld world = worldOpt.get();
 
-        // 避免重复添加
-        if (!world.getPlayers().containsKey(username)) {
-            world.addPlayer(username);
-            logger.info("Player {} added to GameWorld room {}", username, roomId);
-        }
+        // world 只由 tick 线程修改：加入玩家 / 开始倒计时交给 tick 开始时执行
+        world.submitCommand(w -> {
+            // 避免重复添加
+            if (!w.getPlayers().containsKey(username)) {
+                w.addPlayer(username);
+                logger.info("Player {} added to GameWorld room {}", username, roomId);
+            }
 
-        // 如果是 WAITING → 开始倒计时
-        if (world.getPhase() == GameWorld.GamePhase.WAITING) {
-            world.setGameStartTime(System.currentTimeMillis() + 3000); // 3 秒倒计时
-            world.setPhase(GameWorld.GamePhase.COUNTDOWN);
-        }
+            // 如果是 WAITING → 开始倒计时
+            if (w.getPhase() == GameWorld.GamePhase.WAITING) {
+                w.setGameStartTime(System.currentTimeMillis() + 3000); // 3 秒倒计时
+                w.setPhase(GameWorld.GamePhase.COUNTDOWN);
+            }
+        });
 
         // 回复前端
         sendMessage(session, Map.of(
                 "type", "JOINED",
                 "roomId", roomId,
                 "username", username,
-                "architecture", "A"
+                "architecture", "A",
+                "snapshotFormat", binarySnapshots ? "binary" : "json"
         ));
     }
 
@@ -216,9 +303,6 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
         GameWorld world = worldOpt.get();
         if (world.getPhase() != GameWorld.GamePhase.IN_PROGRESS) return;
 
-        PlayerEntity player = world.getPlayers().get(conn.username);
-        if (player == null || !player.alive) return;
-
         PlayerInput input = new PlayerInput();
         input.setUsername(conn.username);
         input.setMoveUp((Boolean) msg.getOrDefault("moveUp", false));
@@ -228,25 +312,32 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
         input.setFire((Boolean) msg.getOrDefault("fire", false));
         input.setTimestamp(System.currentTimeMillis());
 
-        // 事件总线（可做日志 / 统计）
-        eventBus.publish(new InputReceivedEvent(conn.roomId, conn.username, input));
-
-        // 服务器权威移动
-        physicsEngine.applyPlayerInput(player, input);
-
-        // 服务器权威射击
-        if (input.isFire()) {
-            long now = System.currentTimeMillis();
-            if (physicsEngine.canFire(player, now)) {
-                BulletEntity bullet = physicsEngine.createBullet(
-                        player.username,
-                        player.x,
-                        player.y - PlayerEntity.HEIGHT / 2
-                );
-                world.getBullets().put(bullet.id, bullet);
-                player.lastFireTime = now;
-            }
-        }
+        // 只入队，不碰 world：下一次 tick 开始时统一应用（移动 / 射击 / InputReceivedEvent）
+        world.submitInput(input);
+    }
+
+    /**
+     * 二进制输入帧：客户端只在按键变化时（外加低频保活）发送，不经过 Jackson
+     * 序号是 u8，按与上一个序号的差值展开成 long；重复的序号直接忽略
+     */
+    private void handleInputFrame(PlayerConnection conn, int bits, int seq8) {
+        if (!"A".equals(conn.arch)) return;
+
+        long delta = (seq8 - conn.lastInputSeq) & 0xFF;
+        if (delta == 0) return;
+        long seq = conn.lastInputSeq + delta;
+        conn.lastInputSeq = seq;
+
+        Optional<GameWorld> worldOpt = roomManager.getGameRoom(conn.roomId);
+        if (worldOpt.isEmpty()) return;
+
+        GameWorld world = worldOpt.get();
+        if (world.getPhase() != GameWorld.GamePhase.IN_PROGRESS) return;
+
+        PlayerInput input = PlayerInput.fromBits(conn.username, bits, seq, System.currentTimeMillis());
+        // 同一连接上最新的快照 ACK = 客户端发这条输入时看到的画面（延迟补偿用）
+        input.setViewSnapshotSeq(conn.ackedSnapshotSeq);
+        world.submitInput(input);
     }
 
     private void handleLeaveGame(WebSocketSession session) {
@@ -271,18 +362,18 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
 
         if (!validToken) {
             sendMessage(session, Map.of("type", "ERROR", "message", "Invalid token"));
-            session.close();
+            closeSession(session);
             return;
         }
 
         if (!roomManager.isPlayerInRoom(roomId, username)) {
             sendMessage(session, Map.of("type", "NOT_IN_ROOM", "message", "Not in room"));
-            session.close();
+            closeSession(session);
             return;
         }
 
         String sessionId = session.getId();
-        connections.put(sessionId, new PlayerConnection(roomId, username, "B"));
+        connections.put(sessionId, new PlayerConnection(roomId, username, "B", false));
         roomSessions.computeIfAbsent(roomId, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
 
         // 选 host：如果当前房间没有 host，就把这个人设为 host
@@ -361,26 +452,74 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
 
     // ==================== 工具方法 ====================
 
-    /** 广播到房间所有 WebSocket 客户端 */
+    /** 广播到房间所有 WebSocket 客户端（入队，按顺序发送） */
     public void broadcastToRoom(long roomId, String message) {
         Set<String> set = roomSessions.get(roomId);
         if (set == null) return;
 
+        TextMessage text = new TextMessage(message);
+        for (String sid : set) {
+            SessionOutbox outbox = outboxes.get(sid);
+            if (outbox != null && outbox.isOpen()) {
+                outbox.send(text);
+            }
+        }
+    }
+
+    /** 房间里是否有使用该快照格式的客户端（没有就不用编码这种格式） */
+    public boolean hasSnapshotSubscribers(long roomId, boolean binary) {
+        Set<String> set = roomSessions.get(roomId);
+        if (set == null) return false;
+
+        for (String sid : set) {
+            PlayerConnection conn = connections.get(sid);
+            if (conn != null && conn.binarySnapshots == binary) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 广播快照：每个客户端按 JOIN 时协商的格式收 JSON 或二进制
+     * - 二进制客户端按各自最后 ACK 的快照序号取帧（binaryForAck 里做增量编码 + 缓存）
+     * - 某种格式为 null 表示没有编码（房间里没有这种客户端）
+     */
+    public void broadcastSnapshotToRoom(long roomId, String json, LongFunction<byte[]> binaryForAck) {
+        Set<String> set = roomSessions.get(roomId);
+        if (set == null) return;
+
+        TextMessage text = json != null ? new TextMessage(json) : null;
         for (String sid : set) {
-            WebSocketSession session = sessions.get(sid);
-            if (session != null && session.isOpen()) {
-                try {
-                    session.sendMessage(new TextMessage(message));
-                } catch (Exception e) {
-                    logger.error("Send fail session {}", sid, e);
+            SessionOutbox outbox = outboxes.get(sid);
+            PlayerConnection conn = connections.get(sid);
+            if (outbox == null || conn == null || !outbox.isOpen()) continue;
+
+            // 快照走 latest-wins 槽：慢客户端只会拿到最新一帧
+            if (conn.binarySnapshots) {
+                if (binaryForAck != null) {
+                    outbox.sendSnapshot(new BinaryMessage(binaryForAck.apply(conn.ackedSnapshotSeq)));
                 }
+            } else if (text != null) {
+                outbox.sendSnapshot(text);
             }
         }
     }
 
     private void sendMessage(WebSocketSession session, Map<String, Object> data) throws IOException {
         String json = objectMapper.writeValueAsString(data);
-        session.sendMessage(new TextMessage(json));
+        SessionOutbox outbox = outboxes.get(session.getId());
+        if (outbox != null) {
+            outbox.send(new TextMessage(json));
+        }
+    }
+
+    /** 排在已入队的消息后面关闭连接（保证 ERROR / NOT_IN_ROOM 先发到客户端） */
+    private void closeSession(WebSocketSession session) {
+        SessionOutbox outbox = outboxes.get(session.getId());
+        if (outbox != null) {
+            outbox.close(CloseStatus.NORMAL);
+        }
     }
 
     /** 玩家连接信息 */
@@ -388,11 +527,15 @@ public class GameWebSocketHandler extends TextWebSocketHandler {
         final long roomId;
         final String username;
         final String arch; // "A" or "B"
+        final boolean binarySnapshots; // Arch A：快照用二进制格式
+        volatile long ackedSnapshotSeq; // 客户端最后确认收到的快照序号（0 = 还没有，发关键帧）
+        long lastInputSeq;              // 最后一个二进制输入帧的序号（展开后，只在该连接的消息线程上读写）
 
-        PlayerConnection(long roomId, String username, String arch) {
+        PlayerConnection(long roomId, String username, String arch, boolean binarySnapshots) {
             this.roomId = roomId;
             this.username = username;
             this.arch = arch;
+            this.binarySnapshots = binarySnapshots;
         }
     }
 }
@@ -1,20 +1,34 @@
 package com.projectgroup5.gamedemo.websocket;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.projectgroup5.gamedemo.dao.GameLogRepository;
 import com.projectgroup5.gamedemo.entity.GameLog;
 import com.projectgroup5.gamedemo.service.AuthService;
+import com.projectgroup5.gamedemo.service.GossipAuditLog;
 import com.projectgroup5.gamedemo.service.LobbyService;
 import com.projectgroup5.gamedemo.entity.User;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Architecture B: P2P Gossip via Server Relay
@@ -22,11 +36,14 @@ import java.util.concurrent.ConcurrentHashMap;
  * 完全去中心化的P2P架构：
  *   1) 认证 / 房间校验
  *   2) 管理 WebSocket 连接
- *   3) 转发所有消息给房间其他玩家
- *   4) 打印所有消息到控制台（日志）
+ *   3) 转发所有消息给房间其他玩家（gossip 只读 type，原样转发）
+ *      每个接收者有一个合批窗口（gossip.batch.window-ms），窗口内的 gossip 合成一帧 BATCH，发送线程空闲时才发，
+ *      客户端跟不上时位置消息继续合并，不会堆满控制队列
+ *   4) 锁步模式（JOIN_GAME_B 带 mode=LOCKSTEP）：只聚合每帧输入并广播，见 LockstepRoom
+ *      每 K 帧比较一次各 peer 的状态哈希，发现不同步就通知房间，并让多数派玩家发完整状态给不同步的玩家
  *
  * 每个用户平等：
- *   - 每个用户生成自己的石头（username_asteroidId）
+ *   - 石头场由服务器在 JOINED_B 里下发种子和生成节奏，每个用户本地生成同一批石头（field_序号），不再 gossip 石头位置
  *   - 每个用户本地计算碰撞
  *   - 每个用户广播自己的状态
  *   - 服务器只做消息中转，不做任何游戏逻辑
@@ -36,13 +53,38 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(GameWebSocketHandlerB.class);
 
+    // 🔥 Gossip 消息：服务器不关心内容，只看 type，原样转发（不做完整 JSON 解析）
+    private static final Set<String> GOSSIP_TYPES = Set.of(
+            "PLAYER_POSITION",
+            "ASTEROID_DESTROYED",
+            "BULLET_FIRED",
+            "BULLET_POSITION",
+            "BULLET_DESTROYED",
+            "BULLET_HIT_ASTEROID",
+            "PLAYER_HIT",
+            "PLAYER_DEAD",
+            "SCORE_UPDATE"
+    );
+
     private final AuthService authService;
     private final LobbyService lobbyService;
     private final ObjectMapper objectMapper;
+    private final GossipAuditLog gossipAuditLog;
+    private final MessageRateLimiter rateLimiter;
     GameLogRepository gameLogRepository;
 
-    // sessionId -> WebSocketSession
-    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    // sessionId -> 该连接的上行限流（在读 type / 转发之前判断）
+    private final Map<String, MessageRateLimiter.Connection> limiters = new ConcurrentHashMap<>();
+
+    // sessionId -> 该连接的异步发送队列（所有发送都经过它，不直接调用 session.sendMessage）
+    private final Map<String, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+
+    // 所有连接共用的发送线程池
+    private final ExecutorService sendExecutor;
+
+    // 🔥 gossip 合批：窗口长度（0 = 不合批，逐条转发）+ 到点 flush 的定时线程
+    private final long batchWindowMillis;
+    private final ScheduledExecutorService batchTimer;
 
     // sessionId -> PlayerConnection
     private final Map<String, PlayerConnection> connections = new ConcurrentHashMap<>();
@@ -56,14 +98,69 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
     // 🔥 房间游戏开始时间：roomId -> startTime
     private final Map<Long, Long> roomStartTimes = new ConcurrentHashMap<>();
 
+    // 🔥 房间共享石头场：roomId -> 种子 + 生成节奏（第一个玩家加入时确定）
+    private final Map<Long, AsteroidField> asteroidFields = new ConcurrentHashMap<>();
+
+    // 🔥 锁步模式的房间：roomId -> 输入聚合（第一个加入的玩家决定房间是 gossip 还是 lockstep）
+    private final Map<Long, LockstepRoom> lockstepRooms = new ConcurrentHashMap<>();
+    private final int lockstepFrameMs;
+    private final int lockstepInputDelay;
+    private final int lockstepHashInterval;
+    private final boolean lockstepResync;
+    private final long lockstepStartTimeoutMs;
+    private final ScheduledExecutorService lockstepTimer;
+
     public GameWebSocketHandlerB(AuthService authService,
                                 LobbyService lobbyService,
                                 GameLogRepository gameLogRepository,
-                                ObjectMapper objectMapper) {
+                                ObjectMapper objectMapper,
+                                GossipAuditLog gossipAuditLog,
+                                MessageRateLimiter rateLimiter,
+                                @Value("${gossip.batch.window-ms:16}") long batchWindowMillis,
+                                @Value("${lockstep.frame-ms:33}") int lockstepFrameMs,
+                                @Value("${lockstep.input-delay-frames:3}") int lockstepInputDelay,
+                                @Value("${lockstep.hash-interval-frames:30}") int lockstepHashInterval,
+                                @Value("${lockstep.resync:true}") boolean lockstepResync,
+                                @Value("${lockstep.start-timeout-ms:10000}") long lockstepStartTimeoutMs) {
         this.authService = authService;
         this.lobbyService = lobbyService;
         this.gameLogRepository = gameLogRepository;
         this.objectMapper = objectMapper;
+        this.gossipAuditLog = gossipAuditLog;
+        this.rateLimiter = rateLimiter;
+        this.batchWindowMillis = Math.max(0, batchWindowMillis);
+        this.lockstepFrameMs = Math.max(10, lockstepFrameMs);
+        this.lockstepInputDelay = Math.max(1, lockstepInputDelay);
+        this.lockstepHashInterval = Math.max(1, lockstepHashInterval);
+        this.lockstepResync = lockstepResync;
+        this.lockstepStartTimeoutMs = Math.max(0, lockstepStartTimeoutMs);
+
+        int senders = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger senderIndex = new AtomicInteger();
+        this.sendExecutor = Executors.newFixedThreadPool(senders, r -> {
+            Thread t = new Thread(r, "ws-send-b-" + senderIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        this.batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "gossip-batch");
+            t.setDaemon(true);
+            return t;
+        });
+        this.lockstepTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lockstep-tick");
+            t.setDaemon(true);
+            return t;
+        });
+        logger.info("[ArchB] gossip batch window = {}ms, lockstep frame = {}ms, input delay = {} frames",
+                this.batchWindowMillis, this.lockstepFrameMs, this.lockstepInputDelay);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lockstepTimer.shutdownNow();
+        batchTimer.shutdownNow();
+        sendExecutor.shutdownNow();
     }
 
     // --- WebSocket 生命周期 ---
@@ -71,7 +168,8 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         String sessionId = session.getId();
-        sessions.put(sessionId, session);
+        outboxes.put(sessionId, new SessionOutbox(session, sendExecutor, SessionOutbox.DEFAULT_CONTROL_CAPACITY));
+        limiters.put(sessionId, rateLimiter.newConnection("B"));
         logger.info("[ArchB] WebSocket connected: {}", sessionId);
 
         sendJson(session, Map.of(
@@ -86,12 +184,28 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
         String sessionId = session.getId();
         String payload = message.getPayload();
 
+        // 限流：超限的消息不读 type、不转发
+        if (!admit(session, MessageRateLimiter.sniffType(payload))) return;
+
         try {
+            // 快速路径：流式扫描出 type（子弹位置顺带读出 bulletId），gossip 消息直接转发原始 payload
+            GossipHeader header = readHeader(payload);
+            String type = header.type;
+            if (type != null && GOSSIP_TYPES.contains(type)) {
+                handleGossipMessage(session, message, header);
+                return;
+            }
+            // 完整状态只转发，不解析
+            if ("RESYNC_STATE".equals(type)) {
+                handleResyncState(session, message);
+                return;
+            }
+
+            // 控制消息才做完整解析
             @SuppressWarnings("unchecked")
             Map<String, Object> msg = objectMapper.readValue(payload, Map.class);
-            String type = (String) msg.get("type");
 
-            switch (type) {
+            switch (type == null ? "" : type) {
                 case "JOIN_GAME_B":
                     handleJoinGame(session, msg);
                     break;
@@ -104,19 +218,6 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
                     handleGameEndVote(session, msg);
                     break;
 
-                // 🔥 P2P Gossip：所有游戏消息都直接转发+打印日志
-                case "PLAYER_POSITION":
-                case "ASTEROID_SPAWN":
-                case "ASTEROID_POSITION":
-                case "BULLET_FIRED":
-                case "BULLET_POSITION":
-                case "BULLET_HIT_ASTEROID":
-                case "PLAYER_HIT":
-                case "PLAYER_DEAD":
-                case "SCORE_UPDATE":
-                    handleGossipMessage(session, msg, type);
-                    break;
-
                 default:
                     logger.warn("[ArchB-Gossip] Unknown message type: {}", type);
             }
@@ -127,9 +228,160 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
         }
     }
 
+    /**
+     * 二进制消息（锁步模式）：
+     *   LOCKSTEP_INPUT u8 0x21 | u8 inputBits
+     *   STATE_HASH     u8 0x22 | u32 frame | u32 hash
+     */
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        ByteBuffer buf = message.getPayload();
+        if (buf.remaining() < 2) return;
+
+        int p = buf.position();
+        byte type = buf.get(p);
+        String limitKey = type == LockstepRoom.LOCKSTEP_INPUT ? "LOCKSTEP_INPUT"
+                : type == LockstepRoom.STATE_HASH ? "STATE_HASH" : null;
+        if (!admit(session, limitKey)) return;
+
+        PlayerConnection conn = connections.get(session.getId());
+        if (conn == null || conn.lockstepSlot < 0) return;
+        LockstepRoom lockstep = lockstepRooms.get(conn.roomId);
+        if (lockstep == null) return;
+
+        if (type == LockstepRoom.LOCKSTEP_INPUT) {
+            lockstep.submitInput(conn.lockstepSlot, buf.get(p + 1) & 0xFF);
+        } else if (type == LockstepRoom.STATE_HASH && buf.remaining() >= 9) {
+            long frame = buf.getInt(p + 1) & 0xFFFFFFFFL;
+            int hash = buf.getInt(p + 5);
+            LockstepRoom.HashCheck check = lockstep.submitHash(conn.lockstepSlot, frame, hash);
+            if (check != null) {
+                handleDesync(lockstep, check);
+            }
+        }
+    }
+
+    /**
+     * 发现不同步：通知房间里所有人；有多数派的话让基准玩家发 RESYNC_STATE 给不同步的玩家
+     */
+    private void handleDesync(LockstepRoom lockstep, LockstepRoom.HashCheck check) {
+        List<String> slots = lockstep.getSlots();
+        List<String> diverged = new ArrayList<>();
+        for (int slot : check.divergedSlots) {
+            diverged.add(slots.get(slot));
+        }
+        String reference = check.referenceSlot >= 0 ? slots.get(check.referenceSlot) : null;
+        logger.warn("[ArchB-Lockstep] Room {} desync at frame {}: diverged={}, reference={}",
+                lockstep.roomId, check.frame, diverged, reference);
+
+        Map<String, Object> desync = new LinkedHashMap<>();
+        desync.put("type", "DESYNC");
+        desync.put("frame", check.frame);
+        desync.put("diverged", diverged);
+        desync.put("reference", reference);
+        broadcastToRoom(lockstep.roomId, desync);
+
+        if (!lockstepResync || reference == null) return;
+        lockstep.expectResync(check.referenceSlot, check.divergedSlots);
+
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("type", "RESYNC_REQUEST");
+        request.put("frame", check.frame);
+        request.put("targets", diverged);
+        sendToPlayer(lockstep.roomId, reference, request);
+    }
+
+    /** 基准玩家发来的完整状态：原样转发给不同步的玩家 */
+    private void handleResyncState(WebSocketSession session, TextMessage message) {
+        PlayerConnection conn = connections.get(session.getId());
+        if (conn == null) return;
+        LockstepRoom lockstep = lockstepRooms.get(conn.roomId);
+        if (lockstep == null) return;
+
+        List<Integer> targets = lockstep.takeResyncTargets(conn.lockstepSlot);
+        if (targets.isEmpty()) return;
+
+        Set<String> set = roomSessions.get(conn.roomId);
+        if (set == null) return;
+        for (String sid : set) {
+            PlayerConnection target = connections.get(sid);
+            SessionOutbox outbox = outboxes.get(sid);
+            if (target != null && targets.contains(target.lockstepSlot) && outbox != null && outbox.isOpen()) {
+                outbox.send(message);
+            }
+        }
+        logger.info("[ArchB-Lockstep] Room {} resync state from {} forwarded to slots {}",
+                conn.roomId, conn.username, targets);
+    }
+
+    /**
+     * 上行限流：允许返回 true；刷屏的连接直接断开
+     */
+    private boolean admit(WebSocketSession session, String type) {
+        MessageRateLimiter.Connection limiter = limiters.get(session.getId());
+        if (limiter == null) return true;
+
+        MessageRateLimiter.Decision decision = limiter.acquire(type);
+        if (decision == MessageRateLimiter.Decision.SHED) {
+            SessionOutbox outbox = outboxes.get(session.getId());
+            if (outbox != null && outbox.isOpen()) {
+                logger.warn("[ArchB] Session {} is flooding, closing", session.getId());
+                outbox.close(CloseStatus.POLICY_VIOLATION);
+            }
+        }
+        return decision == MessageRateLimiter.Decision.ALLOW;
+    }
+
+    /**
+     * 用 Jackson 流式 API 只读出顶层的 type 字段，其余字段直接跳过
+     * 前端的消息 type 都写在第一个字段，通常读几个 token 就返回了
+     * BULLET_POSITION 还要合并 key 里的 bulletId，在同一遍扫描里接着读，不再解析第二次
+     */
+    private GossipHeader readHeader(String payload) throws IOException {
+        String type = null;
+        String bulletId = null;
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return GossipHeader.EMPTY;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(field)) {
+                    type = scalarText(parser, value);
+                    if (!"BULLET_POSITION".equals(type) || bulletId != null) break;
+                } else if ("bulletId".equals(field)) {
+                    bulletId = scalarText(parser, value);
+                    if (type != null) break;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return new GossipHeader(type, "BULLET_POSITION".equals(type) ? bulletId : null);
+    }
+
+    /** 标量字段的文本（字符串 / 数字都按文本返回），对象 / 数组 / null 返回 null */
+    private static String scalarText(JsonParser parser, JsonToken value) throws IOException {
+        return value.isScalarValue() && value != JsonToken.VALUE_NULL ? parser.getText() : null;
+    }
+
+    /** readHeader 的结果：消息类型，以及 BULLET_POSITION 的 bulletId（其余类型为 null） */
+    private static final class GossipHeader {
+        static final GossipHeader EMPTY = new GossipHeader(null, null);
+
+        final String type;
+        final String bulletId;
+
+        GossipHeader(String type, String bulletId) {
+            this.type = type;
+            this.bulletId = bulletId;
+        }
+    }
+
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         cleanupConnection(session.getId());
+        outboxes.remove(session.getId());
+        limiters.remove(session.getId());
         logger.info("[ArchB] WebSocket disconnected: {}, status={}", session.getId(), status);
     }
 
@@ -153,7 +405,7 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
 
         if (!validToken) {
             sendJson(session, Map.of("type", "ERROR", "message", "Invalid token"));
-            session.close();
+            closeSession(session);
             return;
         }
 
@@ -163,28 +415,59 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
                     "type", "NOT_IN_ROOM",
                     "message", "Not in room (Arch B - Gossip)"
             ));
-            session.close();
+            closeSession(session);
             return;
         }
 
-        // 3. 注册连接
-        connections.put(sessionId, new PlayerConnection(roomId, username));
+        // 3. 房间模式：第一个加入的玩家决定（之后加入的玩家跟随房间模式）
+        boolean firstInRoom = !roomSessions.containsKey(roomId);
+        if (firstInRoom && "LOCKSTEP".equalsIgnoreCase((String) msg.get("mode"))) {
+            List<String> expected = lobbyService.findRoom(roomId)
+                    .map(room -> List.copyOf(room.players))
+                    .orElse(List.of(username));
+            LockstepRoom created = new LockstepRoom(roomId, expected, lockstepFrameMs, lockstepInputDelay, lockstepHashInterval);
+            if (lockstepRooms.putIfAbsent(roomId, created) == null) {
+                scheduleLockstepDeadline(created);
+            }
+        }
+        LockstepRoom lockstep = lockstepRooms.get(roomId);
+        int lockstepSlot = lockstep != null ? lockstep.join(username) : -1;
+
+        // 注册连接（合批窗口属于接收者）
+        SessionOutbox outbox = outboxes.get(sessionId);
+        GossipBatch batch = null;
+        if (outbox != null) {
+            batch = new GossipBatch(outbox, batchTimer, batchWindowMillis);
+            outbox.attachGossip(batch);
+        }
+        connections.put(sessionId, new PlayerConnection(roomId, username, batch, lockstepSlot));
         roomSessions.computeIfAbsent(roomId, k -> ConcurrentHashMap.newKeySet())
                 .add(sessionId);
 
-        // 🔥 记录游戏开始时间（第一个玩家加入时）
-        roomStartTimes.putIfAbsent(roomId, System.currentTimeMillis());
+        // 🔥 记录游戏开始时间（第一个玩家加入时），石头场从这个时间开始生成
+        long startTime = roomStartTimes.computeIfAbsent(roomId, k -> System.currentTimeMillis());
+        AsteroidField field = asteroidFields.computeIfAbsent(roomId, k -> newAsteroidField(k, startTime));
 
-        logger.info("[ArchB-Gossip] Player {} joined room {} (peer-to-peer)", username, roomId);
+        logger.info("[ArchB-Gossip] Player {} joined room {} (peer-to-peer, {})",
+                username, roomId, lockstep != null ? "lockstep slot " + lockstepSlot : "gossip");
 
         // 4. 告诉客户端加入成功（所有玩家平等，无Host）
-        sendJson(session, Map.of(
-                "type", "JOINED_B",
-                "roomId", roomId,
-                "username", username,
-                "architecture", "B-Gossip",
-                "players", getRoomPlayerUsernames(roomId)
-        ));
+        //    serverTime 用来对齐客户端时钟，石头位置完全由 (服务器时间 - 生成时间) 算出
+        Map<String, Object> joined = new LinkedHashMap<>();
+        joined.put("type", "JOINED_B");
+        joined.put("roomId", roomId);
+        joined.put("username", username);
+        joined.put("architecture", "B-Gossip");
+        joined.put("players", getRoomPlayerUsernames(roomId));
+        joined.put("asteroidField", field.toMessage());
+        joined.put("serverTime", System.currentTimeMillis());
+        joined.put("mode", lockstep != null ? "LOCKSTEP" : "GOSSIP");
+        if (lockstep != null) {
+            joined.put("lockstepSlot", lockstepSlot);
+            joined.put("frameMs", lockstep.frameMs);
+            joined.put("inputDelay", lockstep.inputDelay);
+        }
+        sendJson(session, joined);
 
         // 5. 通知房间其他玩家：新玩家进入
         Map<String, Object> joinEvent = new HashMap<>();
@@ -192,98 +475,107 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
         joinEvent.put("username", username);
         joinEvent.put("players", getRoomPlayerUsernames(roomId));
         broadcastToRoomExcept(roomId, joinEvent, sessionId);
+
+        // 6. 锁步：人到齐后开始推进帧
+        if (lockstep != null) {
+            startLockstepIfReady(lockstep);
+        }
+    }
+
+    /**
+     * 所有玩家都加入（或开始期限已过）后广播 LOCKSTEP_START（slot 顺序），然后按固定间隔广播 LOCKSTEP_FRAME
+     */
+    private void startLockstepIfReady(LockstepRoom lockstep) {
+        synchronized (lockstep) {
+            if (!lockstep.readyToStart()) return;
+
+            Map<String, Object> start = new LinkedHashMap<>();
+            start.put("type", "LOCKSTEP_START");
+            start.put("players", lockstep.getSlots());
+            start.put("frameMs", lockstep.frameMs);
+            start.put("inputDelay", lockstep.inputDelay);
+            start.put("hashInterval", lockstep.hashInterval);
+            broadcastToRoom(lockstep.roomId, start);
+
+            ScheduledFuture<?> ticker = lockstepTimer.scheduleAtFixedRate(() -> {
+                try {
+                    broadcastBinaryToRoom(lockstep.roomId, lockstep.nextFrame());
+                } catch (Exception e) {
+                    logger.error("[ArchB-Lockstep] Room {} tick failed", lockstep.roomId, e);
+                }
+            }, lockstep.frameMs, lockstep.frameMs, TimeUnit.MILLISECONDS);
+            lockstep.markStarted(ticker);
+        }
+        logger.info("[ArchB-Lockstep] Room {} started, players={}", lockstep.roomId, lockstep.getSlots());
+    }
+
+    /**
+     * 开始期限：到时间还没到齐就用已连上的人开始，没连上的 slot 记为 ABSENT
+     */
+    private void scheduleLockstepDeadline(LockstepRoom lockstep) {
+        try {
+            lockstepTimer.schedule(() -> {
+                try {
+                    if (lockstepRooms.get(lockstep.roomId) != lockstep) return; // 房间已经结束
+                    if (!lockstep.passStartDeadline()) return; // 已经开始了，或者一个在线的人都没有
+                    logger.warn("[ArchB-Lockstep] Room {} start deadline ({}ms) passed, starting with slots {}",
+                            lockstep.roomId, lockstepStartTimeoutMs, lockstep.getSlots());
+                    startLockstepIfReady(lockstep);
+                } catch (Exception e) {
+                    logger.error("[ArchB-Lockstep] Room {} start deadline failed", lockstep.roomId, e);
+                }
+            }, lockstepStartTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 定时线程已关闭（应用正在停止）
+        }
+    }
+
+    private void stopLockstep(long roomId) {
+        LockstepRoom lockstep = lockstepRooms.remove(roomId);
+        if (lockstep != null) {
+            lockstep.stop();
+        }
     }
 
     /**
-     * 🔥 P2P Gossip消息处理：接收、打印日志、转发
+     * 🔥 P2P Gossip消息处理：原样转发给房间其他玩家
      * 
-     * 消息类型：
+     * 消息类型（见 GOSSIP_TYPES）：
      * - PLAYER_POSITION: 玩家位置
-     * - ASTEROID_SPAWN: 石头生成
-     * - ASTEROID_POSITION: 石头位置
-     * - BULLET_FIRED: 子弹发射
-     * - BULLET_POSITION: 子弹位置
+     * - ASTEROID_DESTROYED: 石头销毁（石头生成和位置由共享种子本地计算，不走 gossip）
+     * - BULLET_FIRED / BULLET_POSITION / BULLET_DESTROYED: 子弹发射 / 位置 / 销毁
      * - BULLET_HIT_ASTEROID: 子弹命中石头
      * - PLAYER_HIT: 玩家被撞
      * - PLAYER_DEAD: 玩家死亡
      * - SCORE_UPDATE: 分数更新
+     *
+     * 服务器不改内容，所以不解析也不重新序列化，同一个 TextMessage 发给所有人
+     * 位置类消息在接收者的合批窗口里 latest-wins（同一实体只保留最新位置）
      */
-    private void handleGossipMessage(WebSocketSession session, Map<String, Object> msg, String type) {
+    private void handleGossipMessage(WebSocketSession session, TextMessage message, GossipHeader header) {
         PlayerConnection conn = connections.get(session.getId());
         if (conn == null) return;
 
-        String username = conn.username;
-        long roomId = conn.roomId;
-
-        // 🔥 打印详细日志到控制台
-        logGossipMessage(type, username, msg);
+        String type = header.type;
+        // 每条 gossip 都打 INFO 会让日志成为瓶颈：按类型采样进审计日志（异步落盘），TRACE 时才输出原始内容
+        gossipAuditLog.record(conn.roomId, conn.username, type, message.getPayload());
+        if (logger.isTraceEnabled()) {
+            logger.trace("[ArchB-Gossip] [{}] {}: {}", conn.username, type, message.getPayload());
+        }
 
         // 转发给房间其他玩家（不包括发送者自己）
-        broadcastToRoomExcept(roomId, msg, session.getId());
+        relayToRoomExcept(conn.roomId, message, collapseKey(conn, header), session.getId());
     }
 
-    /**
-     * 打印P2P Gossip消息到控制台
-     */
-    private void logGossipMessage(String type, String username, Map<String, Object> msg) {
-        switch (type) {
+    /** 位置类消息的合并 key（类型 + 实体），其余消息返回 null（不可合并） */
+    private String collapseKey(PlayerConnection sender, GossipHeader header) {
+        switch (header.type) {
             case "PLAYER_POSITION":
-                logger.info("[ArchB-Gossip] [{}] PLAYER_POSITION: x={}, y={}",
-                        username, msg.get("x"), msg.get("y"));
-                break;
-
-            case "ASTEROID_SPAWN":
-                logger.info("[ArchB-Gossip] [{}] ASTEROID_SPAWN: id={} at ({}, {}), radius={}, hp={}",
-                        username, msg.get("asteroidId"), msg.get("x"), msg.get("y"),
-                        msg.get("radius"), msg.get("hp"));
-                break;
-
-            case "ASTEROID_POSITION":
-                logger.info("[ArchB-Gossip] [{}] ASTEROID_POSITION: id={} at ({}, {})",
-                        username, msg.get("asteroidId"), msg.get("x"), msg.get("y"));
-                break;
-
-            case "BULLET_FIRED":
-                logger.info("[ArchB-Gossip] [{}] BULLET_FIRED: id={} at ({}, {})",
-                        username, msg.get("bulletId"), msg.get("x"), msg.get("y"));
-                break;
-
+                return header.type + ':' + sender.username;
             case "BULLET_POSITION":
-                logger.info("[ArchB-Gossip] [{}] BULLET_POSITION: id={} at ({}, {})",
-                        username, msg.get("bulletId"), msg.get("x"), msg.get("y"));
-                break;
-
-            case "BULLET_HIT_ASTEROID":
-                logger.info("[ArchB-Gossip] [{}] BULLET_HIT_ASTEROID: bullet={} hit asteroid={} (owner={})",
-                        username, msg.get("bulletId"), msg.get("asteroidId"), msg.get("asteroidOwner"));
-                break;
-
-            case "PLAYER_HIT":
-                logger.info("[ArchB-Gossip] [{}] PLAYER_HIT: by asteroid={}, hp={}",
-                        username, msg.get("asteroidId"), msg.get("hp"));
-                break;
-
-            case "PLAYER_DEAD":
-                logger.info("[ArchB-Gossip] [{}] PLAYER_DEAD", username);
-                break;
-
-            case "SCORE_UPDATE":
-                logger.info("[ArchB-Gossip] [{}] SCORE_UPDATE: score={}, reason={}",
-                        username, msg.get("score"), msg.get("reason"));
-                break;
-
-            case "ASTEROID_DESTROYED":
-                logger.info("[ArchB-Gossip] [{}] ASTEROID_DESTROYED: id={}, reason={}",
-                        username, msg.get("asteroidId"), msg.get("reason"));
-                break;
-
-            case "BULLET_DESTROYED":
-                logger.info("[ArchB-Gossip] [{}] BULLET_DESTROYED: id={}, reason={}",
-                        username, msg.get("bulletId"), msg.get("reason"));
-                break;
-
+                return header.bulletId == null ? null : header.type + ':' + sender.username + ':' + header.bulletId;
             default:
-                logger.info("[ArchB-Gossip] [{}] {}: {}", username, type, msg);
+                return null;
         }
     }
 
@@ -367,6 +659,8 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
             // 清理投票记录
             gameEndVotes.remove(roomId);
             roomStartTimes.remove(roomId);
+            asteroidFields.remove(roomId);
+            stopLockstep(roomId);
         }
     }
 
@@ -442,6 +736,20 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
 
     // --- 工具方法 ---
 
+    /**
+     * 新房间的石头场：人越多生成越快（原来每人各自 800ms 一个），但不低于 MIN_SPAWN_INTERVAL
+     */
+    private AsteroidField newAsteroidField(long roomId, long startTime) {
+        int players = lobbyService.findRoom(roomId)
+                .map(room -> room.players.size())
+                .orElse(1);
+        int interval = Math.max(AsteroidField.MIN_SPAWN_INTERVAL_MS,
+                AsteroidField.BASE_SPAWN_INTERVAL_MS / Math.max(1, players));
+        int seed = ThreadLocalRandom.current().nextInt();
+        logger.info("[ArchB-Gossip] Room {} asteroid field seed={}, interval={}ms", roomId, seed, interval);
+        return new AsteroidField(seed, startTime, interval);
+    }
+
     /**
      * 清理玩家连接（P2P Gossip模式：无Host概念）
      */
@@ -452,11 +760,19 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
         long roomId = conn.roomId;
         String username = conn.username;
 
+        LockstepRoom lockstep = lockstepRooms.get(roomId);
+        if (lockstep != null) {
+            lockstep.leave(username);
+        }
+
         Set<String> set = roomSessions.get(roomId);
         if (set != null) {
             set.remove(sessionId);
             if (set.isEmpty()) {
                 roomSessions.remove(roomId);
+                roomStartTimes.remove(roomId);
+                asteroidFields.remove(roomId);
+                stopLockstep(roomId);
                 logger.info("[ArchB-Gossip] Room {} all players left, cleared.", roomId);
             } else {
                 // 通知其他玩家：有人离开了
@@ -474,7 +790,18 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
 
     private void sendJson(WebSocketSession session, Map<String, Object> data) throws IOException {
         String json = objectMapper.writeValueAsString(data);
-        session.sendMessage(new TextMessage(json));
+        SessionOutbox outbox = outboxes.get(session.getId());
+        if (outbox != null) {
+            outbox.send(new TextMessage(json));
+        }
+    }
+
+    /** 排在已入队的消息后面关闭连接（保证 ERROR / NOT_IN_ROOM 先发到客户端） */
+    private void closeSession(WebSocketSession session) {
+        SessionOutbox outbox = outboxes.get(session.getId());
+        if (outbox != null) {
+            outbox.close(CloseStatus.NORMAL);
+        }
     }
 
     /**
@@ -492,14 +819,11 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
         Set<String> set = roomSessions.get(roomId);
         if (set == null) return;
 
+        TextMessage text = new TextMessage(json);
         for (String sid : set) {
-            WebSocketSession session = sessions.get(sid);
-            if (session != null && session.isOpen()) {
-                try {
-                    session.sendMessage(new TextMessage(json));
-                } catch (IOException e) {
-                    logger.error("[ArchB-Gossip] Failed to send msg to session {}", sid, e);
-                }
+            SessionOutbox outbox = outboxes.get(sid);
+            if (outbox != null && outbox.isOpen()) {
+                outbox.send(text);
             }
         }
     }
@@ -519,16 +843,67 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
         Set<String> set = roomSessions.get(roomId);
         if (set == null) return;
 
+        TextMessage text = new TextMessage(json);
         for (String sid : set) {
             if (sid.equals(exceptSessionId)) continue; // 跳过发送者
 
-            WebSocketSession session = sessions.get(sid);
-            if (session != null && session.isOpen()) {
+            SessionOutbox outbox = outboxes.get(sid);
+            if (outbox != null && outbox.isOpen()) {
+                outbox.send(text);
+            }
+        }
+    }
+
+    /**
+     * 发给房间里的某个玩家
+     */
+    private void sendToPlayer(long roomId, String username, Map<String, Object> data) {
+        Set<String> set = roomSessions.get(roomId);
+        if (set == null) return;
+        for (String sid : set) {
+            PlayerConnection conn = connections.get(sid);
+            SessionOutbox outbox = outboxes.get(sid);
+            if (conn != null && conn.username.equals(username) && outbox != null) {
                 try {
-                    session.sendMessage(new TextMessage(json));
-                } catch (IOException e) {
-                    logger.error("[ArchB-Gossip] Failed to send msg to session {}", sid, e);
+                    outbox.send(new TextMessage(objectMapper.writeValueAsString(data)));
+                } catch (Exception e) {
+                    logger.error("[ArchB-Gossip] Failed to serialize json", e);
                 }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 锁步帧广播给房间所有玩家（每帧都必须送达，走有序的控制队列）
+     */
+    private void broadcastBinaryToRoom(long roomId, byte[] payload) {
+        Set<String> set = roomSessions.get(roomId);
+        if (set == null) return;
+
+        BinaryMessage message = new BinaryMessage(payload);
+        for (String sid : set) {
+            SessionOutbox outbox = outboxes.get(sid);
+            if (outbox != null && outbox.isOpen()) {
+                outbox.send(message);
+            }
+        }
+    }
+
+    /**
+     * 原样转发一条消息给房间其他玩家（gossip 快速路径，不做序列化）
+     * 进接收者的合批窗口，由它的发送线程空闲时取走（不占控制队列）
+     */
+    private void relayToRoomExcept(long roomId, TextMessage message, String collapseKey, String exceptSessionId) {
+        Set<String> set = roomSessions.get(roomId);
+        if (set == null) return;
+
+        for (String sid : set) {
+            if (sid.equals(exceptSessionId)) continue; // 跳过发送者
+
+            PlayerConnection recipient = connections.get(sid);
+            if (recipient != null && recipient.batch != null) {
+                recipient.batch.add(collapseKey, message.getPayload());
             }
         }
     }
@@ -554,9 +929,47 @@ public class GameWebSocketHandlerB extends TextWebSocketHandler {
     private static class PlayerConnection {
         final long roomId;
         final String username;
-        PlayerConnection(long roomId, String username) {
+        final GossipBatch batch; // 发给这个玩家的 gossip 合批窗口，null 表示连接已经没有发送队列
+        final int lockstepSlot;  // 锁步模式的 slot，-1 表示不是锁步玩家
+        PlayerConnection(long roomId, String username, GossipBatch batch, int lockstepSlot) {
             this.roomId = roomId;
             this.username = username;
+            this.batch = batch;
+            this.lockstepSlot = lockstepSlot;
+        }
+    }
+
+    /**
+     * 共享石头场参数：第 i 个石头在 startTime + i * spawnIntervalMs 生成，
+     * 属性由 (seed, i) 哈希得到，客户端按同样的算法生成（见 game-architecture-b.js fieldRandom）
+     */
+    private static class AsteroidField {
+        static final int BASE_SPAWN_INTERVAL_MS = 800;
+        static final int MIN_SPAWN_INTERVAL_MS = 300;
+
+        final int seed;
+        final long startTime;
+        final int spawnIntervalMs;
+
+        AsteroidField(int seed, long startTime, int spawnIntervalMs) {
+            this.seed = seed;
+            this.startTime = startTime;
+            this.spawnIntervalMs = spawnIntervalMs;
+        }
+
+        Map<String, Object> toMessage() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("seed", seed);
+            m.put("startTime", startTime);
+            m.put("spawnIntervalMs", spawnIntervalMs);
+            m.put("minSpeed", 80);
+            m.put("maxSpeed", 160);
+            m.put("bigChance", 0.4);
+            m.put("bigRadius", 26);
+            m.put("smallRadius", 16);
+            m.put("bigHp", 2);
+            m.put("smallHp", 1);
+            return m;
         }
     }
 
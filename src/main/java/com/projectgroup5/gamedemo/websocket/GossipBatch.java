@@ -0,0 +1,135 @@
+package com.projectgroup5.gamedemo.websocket;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Architecture B：单个接收者的 gossip 合批窗口
+ * - 收到的 gossip 先攒在这里，由接收者的 SessionOutbox 在发送线程空闲时取走，合成一帧 {"type":"BATCH","m":[...]}
+ *   发送线程忙（慢客户端）时消息继续在这里合并，不进控制队列
+ * - 窗口（windowMillis）结束前不交出去，0 表示不等窗口，发送线程空闲就取
+ * - 位置类消息（collapseKey 不为 null）latest-wins：同一实体只保留最新一条，位置不变（保持和其他事件的先后顺序）
+ * - 其他消息（生成 / 命中 / 死亡 ...）一条都不丢，按到达顺序排列；攒到 MAX_BACKLOG 条还取不走说明客户端跟不上，断开
+ * - 一帧最多 MAX_PENDING 条，只有一条时直接原样发送，不包 BATCH
+ *
+ * payload 本身就是合法 JSON，直接拼进数组，不做解析和重新序列化。
+ */
+class GossipBatch {
+    // 一帧最多带多少条；攒到这么多就不等窗口结束
+    static final int MAX_PENDING = 512;
+    // 不能合并的消息攒到这么多还发不出去，按慢客户端处理
+    static final int MAX_BACKLOG = 4096;
+
+    private static final String BATCH_PREFIX = "{\"type\":\"BATCH\",\"m\":[";
+    private static final String BATCH_SUFFIX = "]}";
+
+    private final SessionOutbox outbox;
+    private final ScheduledExecutorService timer;
+    private final long windowMillis;
+
+    // collapseKey(String) 或 自增序号(Long) -> 原始 payload
+    private final Map<Object, String> pending = new LinkedHashMap<>();
+    private long nextUniqueKey;
+    private int pendingChars;
+    private boolean scheduled;
+    // 窗口已结束，可以被发送线程取走
+    private boolean ready;
+
+    GossipBatch(SessionOutbox outbox, ScheduledExecutorService timer, long windowMillis) {
+        this.outbox = outbox;
+        this.timer = timer;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * 加入一条 gossip（任意线程调用）
+     * @param collapseKey 位置类消息的实体 key，null 表示不可合并
+     */
+    void add(String collapseKey, String payload) {
+        if (!outbox.isOpen()) return;
+        boolean wake = false;
+        boolean overflow;
+        synchronized (this) {
+            String previous = collapseKey != null
+                    ? pending.put(collapseKey, payload)
+                    : pending.put(nextUniqueKey++, payload);
+            pendingChars += payload.length() - (previous != null ? previous.length() : 0);
+
+            overflow = pending.size() > MAX_BACKLOG;
+            if (!ready) {
+                if (windowMillis == 0 || pending.size() >= MAX_PENDING) {
+                    ready = wake = true;
+                } else if (!scheduled) {
+                    scheduled = true;
+                    try {
+                        timer.schedule(this::windowElapsed, windowMillis, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // 定时线程已关闭（应用正在停止）
+                        ready = wake = true;
+                    }
+                }
+            }
+        }
+        if (overflow) {
+            outbox.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } else if (wake) {
+            outbox.gossipReady();
+        }
+    }
+
+    /** 窗口结束：交给发送线程，它空闲时来取 */
+    private void windowElapsed() {
+        synchronized (this) {
+            scheduled = false;
+            if (pending.isEmpty()) return;
+            ready = true;
+        }
+        outbox.gossipReady();
+    }
+
+    /** 有没有可以马上取走的消息 */
+    synchronized boolean isReady() {
+        return ready && !pending.isEmpty();
+    }
+
+    /**
+     * 取出攒下的消息合成一帧（SessionOutbox 在自己的锁里调用，一次最多 MAX_PENDING 条）
+     * @param force true 表示不管窗口有没有结束都取（有控制消息要排在这些 gossip 后面）
+     * @return 没有可发的返回 null
+     */
+    synchronized TextMessage take(boolean force) {
+        if (pending.isEmpty() || !(ready || force)) return null;
+
+        Iterator<String> it = pending.values().iterator();
+        String first = it.next();
+        it.remove();
+        pendingChars -= first.length();
+
+        TextMessage frame;
+        if (!it.hasNext()) {
+            frame = new TextMessage(first);
+        } else {
+            StringBuilder sb = new StringBuilder(BATCH_PREFIX.length() + first.length() + pendingChars
+                    + MAX_PENDING + BATCH_SUFFIX.length());
+            sb.append(BATCH_PREFIX).append(first);
+            for (int count = 1; count < MAX_PENDING && it.hasNext(); count++) {
+                String message = it.next();
+                it.remove();
+                pendingChars -= message.length();
+                sb.append(',').append(message);
+            }
+            sb.append(BATCH_SUFFIX);
+            frame = new TextMessage(sb.toString());
+        }
+        // 超过一帧的剩余部分下次接着取
+        ready = !pending.isEmpty();
+        return frame;
+    }
+}
@@ -0,0 +1,348 @@
+package com.projectgroup5.gamedemo.websocket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Architecture B 锁步模式：一个房间的输入聚合（服务器只转发输入，不跑游戏逻辑）
+ * - 服务器按固定帧间隔推进帧号，每帧把所有玩家的输入位掩码打包成一条 LOCKSTEP_FRAME 广播
+ * - 玩家输入只在变化时发送；服务器把它排到 (最后广播的帧 + inputDelay) 帧生效，没有新输入就沿用上一帧
+ * - 输入延迟由服务器统一施加，所有 peer 在同一帧看到同一份输入，本地确定性模拟
+ *
+ * 每帧消息大小只和玩家数有关，和场上实体数量无关。
+ *
+ * LOCKSTEP_FRAME（服务器 -> 客户端，二进制）：
+ *   u8 0x20 | u32 frame | u8 playerCount | playerCount × u8 inputBits（按 slot 顺序）
+ * LOCKSTEP_INPUT（客户端 -> 服务器，二进制）：
+ *   u8 0x21 | u8 inputBits
+ * STATE_HASH（客户端 -> 服务器，二进制，每 hashInterval 帧一次）：
+ *   u8 0x22 | u32 frame | u32 hash
+ *
+ * 开始条件：大厅里的玩家都连上，或者等到开始期限（startDeadline）为止，
+ * 到期时没连上的大厅玩家也占一个 slot，记为 ABSENT（之后连上按断线重连处理）。
+ *
+ * 状态哈希：同一帧所有在线玩家都报上来后比较，少数派判定为不同步；
+ * 多数派里挑一个作为基准，由它发完整状态给不同步的玩家（RESYNC_STATE）。
+ */
+class LockstepRoom {
+    static final byte LOCKSTEP_FRAME = 0x20;
+    static final byte LOCKSTEP_INPUT = 0x21;
+    static final byte STATE_HASH = 0x22;
+
+    // 只比较最近几轮哈希，太旧的（有人没报）直接丢掉
+    static final int HASH_WINDOW = 8;
+
+    // 输入位
+    static final int INPUT_UP = 1;
+    static final int INPUT_DOWN = 1 << 1;
+    static final int INPUT_LEFT = 1 << 2;
+    static final int INPUT_RIGHT = 1 << 3;
+    static final int INPUT_FIRE = 1 << 4;
+    static final int INPUT_MASK = 0x1F;
+    static final int ABSENT = 0x80; // 玩家已断开
+
+    final long roomId;
+    final int frameMs;
+    final int inputDelay;
+    final int hashInterval;
+    // 大厅里的玩家（创建房间时的快照），到齐的标准
+    private final List<String> expectedPlayers;
+
+    // slot 顺序 = 加入顺序，开始后固定
+    private final List<String> slots = new ArrayList<>();
+    private final List<InputSchedule> schedules = new ArrayList<>(); // 每个 slot 还没生效的输入
+    private int[] currentBits = new int[0];
+
+    private boolean started;
+    private boolean deadlinePassed;
+    private long lastBroadcastFrame = -1;
+    private ScheduledFuture<?> ticker;
+
+    // frame -> 各 slot 上报的哈希（按帧递增）
+    private final LinkedHashMap<Long, HashRound> hashRounds = new LinkedHashMap<>();
+    private long lastCheckedFrame = -1;
+
+    // 等待基准玩家发来 RESYNC_STATE 的 slot
+    private int resyncSource = -1;
+    private final Set<Integer> resyncTargets = new HashSet<>();
+
+    LockstepRoom(long roomId, List<String> expectedPlayers, int frameMs, int inputDelay, int hashInterval) {
+        this.roomId = roomId;
+        this.expectedPlayers = List.copyOf(expectedPlayers);
+        this.frameMs = frameMs;
+        this.inputDelay = inputDelay;
+        this.hashInterval = hashInterval;
+    }
+
+    /**
+     * 玩家加入，返回 slot；开始之后加入的玩家不分配 slot（返回 -1）
+     * 断线重连（同名）沿用原来的 slot
+     */
+    synchronized int join(String username) {
+        int existing = slots.indexOf(username);
+        if (existing >= 0) {
+            currentBits[existing] = 0;
+            return existing;
+        }
+        if (started) return -1;
+        slots.add(username);
+        schedules.add(new InputSchedule(inputDelay + 1));
+        currentBits = Arrays.copyOf(currentBits, slots.size());
+        return slots.size() - 1;
+    }
+
+    synchronized void leave(String username) {
+        int slot = slots.indexOf(username);
+        if (slot < 0) return;
+        schedules.get(slot).clear();
+        currentBits[slot] = ABSENT;
+    }
+
+    /** 所有人都到齐（或开始期限已过）才开始推进帧（开始后才加入的人无法追上确定性模拟） */
+    synchronized boolean readyToStart() {
+        return !started && (deadlinePassed || slots.size() >= Math.max(1, expectedPlayers.size()));
+    }
+
+    /**
+     * 开始期限到了：还没连上的大厅玩家补一个 ABSENT 的 slot，之后 readyToStart 不再等人
+     * @return 至少有一个玩家在线、可以开始时返回 true
+     */
+    synchronized boolean passStartDeadline() {
+        if (started) return false;
+        for (String username : expectedPlayers) {
+            if (slots.contains(username)) continue;
+            slots.add(username);
+            schedules.add(new InputSchedule(inputDelay + 1));
+            currentBits = Arrays.copyOf(currentBits, slots.size());
+            currentBits[slots.size() - 1] = ABSENT;
+        }
+        deadlinePassed = true;
+        for (int bits : currentBits) {
+            if (bits != ABSENT) return true;
+        }
+        return false;
+    }
+
+    synchronized void markStarted(ScheduledFuture<?> ticker) {
+        this.started = true;
+        this.ticker = ticker;
+    }
+
+    synchronized boolean isStarted() {
+        return started;
+    }
+
+    synchronized List<String> getSlots() {
+        return Collections.unmodifiableList(new ArrayList<>(slots));
+    }
+
+    synchronized int slotOf(String username) {
+        return slots.indexOf(username);
+    }
+
+    /**
+     * 记录一个输入变化：排到 lastBroadcastFrame + inputDelay 帧
+     * 同一帧内多次变化取最后一次，但开火位做 OR（一帧内按下又松开也算开过火）
+     */
+    synchronized void submitInput(int slot, int bits) {
+        if (slot < 0 || slot >= slots.size() || currentBits[slot] == ABSENT) return;
+        bits &= INPUT_MASK;
+        schedules.get(slot).put(lastBroadcastFrame + inputDelay, bits);
+    }
+
+    /**
+     * 推进一帧，返回要广播的 LOCKSTEP_FRAME
+     * 每帧只分配这一个数组（所有接收者共用）；发送队列是异步的，不能下一帧接着往同一个数组里写
+     */
+    synchronized byte[] nextFrame() {
+        long frame = ++lastBroadcastFrame;
+        int n = slots.size();
+        byte[] out = new byte[6 + n];
+        out[0] = LOCKSTEP_FRAME;
+        out[1] = (byte) (frame >>> 24);
+        out[2] = (byte) (frame >>> 16);
+        out[3] = (byte) (frame >>> 8);
+        out[4] = (byte) frame;
+        out[5] = (byte) n;
+        for (int slot = 0; slot < n; slot++) {
+            int bits = schedules.get(slot).takeUpTo(frame);
+            if (bits >= 0) {
+                currentBits[slot] = bits;
+            }
+            out[6 + slot] = (byte) currentBits[slot];
+        }
+        return out;
+    }
+
+    /**
+     * 记录一个状态哈希；这一帧所有在线玩家都报齐后做比较
+     * @return 有人不同步时返回比较结果，否则（没报齐 / 全部一致 / 帧太旧）返回 null
+     */
+    synchronized HashCheck submitHash(int slot, long frame, int hash) {
+        if (slot < 0 || slot >= slots.size() || frame <= lastCheckedFrame) return null;
+
+        HashRound round = hashRounds.get(frame);
+        if (round == null) {
+            round = new HashRound(slots.size());
+            hashRounds.put(frame, round);
+            while (hashRounds.size() > HASH_WINDOW) {
+                Long oldest = hashRounds.keySet().iterator().next();
+                hashRounds.remove(oldest);
+            }
+        }
+        if (!round.reported[slot]) {
+            round.reported[slot] = true;
+            round.count++;
+        }
+        round.hashes[slot] = hash;
+
+        int active = 0;
+        for (int s = 0; s < slots.size(); s++) {
+            if (currentBits[s] != ABSENT) active++;
+        }
+        if (round.count < active) return null;
+
+        hashRounds.remove(frame);
+        lastCheckedFrame = Math.max(lastCheckedFrame, frame);
+        return round.compare(frame);
+    }
+
+    /** 记下这次 resync 由谁发、发给谁（RESYNC_STATE 到达时按这个转发） */
+    synchronized void expectResync(int source, List<Integer> targets) {
+        resyncSource = source;
+        resyncTargets.clear();
+        resyncTargets.addAll(targets);
+    }
+
+    /** 基准玩家发来了 RESYNC_STATE：返回要转发的 slot，并清空等待状态 */
+    synchronized List<Integer> takeResyncTargets(int fromSlot) {
+        if (fromSlot < 0 || fromSlot != resyncSource) return Collections.emptyList();
+        List<Integer> targets = new ArrayList<>(resyncTargets);
+        resyncSource = -1;
+        resyncTargets.clear();
+        return targets;
+    }
+
+    synchronized void stop() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+
+    /**
+     * 一个 slot 还没生效的输入（帧号递增）：定长环形数组，提交输入不分配对象
+     * 待生效的帧都在 (lastBroadcastFrame, lastBroadcastFrame + inputDelay] 里，同一帧只占一格，所以 inputDelay + 1 格够用
+     */
+    private static final class InputSchedule {
+        private final long[] frames;
+        private final int[] bits;
+        private int head;
+        private int size;
+
+        InputSchedule(int capacity) {
+            frames = new long[capacity];
+            bits = new int[capacity];
+        }
+
+        /** 同一帧多次变化取最后一次，但开火位做 OR */
+        void put(long frame, int value) {
+            if (size > 0) {
+                int last = (head + size - 1) % frames.length;
+                if (frames[last] == frame) {
+                    bits[last] = value | (bits[last] & INPUT_FIRE);
+                    return;
+                }
+            }
+            if (size == frames.length) {
+                // 按上面的范围不会发生；真满了就丢最旧的，不让它越界
+                head = (head + 1) % frames.length;
+                size--;
+            }
+            int tail = (head + size) % frames.length;
+            frames[tail] = frame;
+            bits[tail] = value;
+            size++;
+        }
+
+        /** 取出到 frame 为止生效的输入，返回最后一个；没有返回 -1 */
+        int takeUpTo(long frame) {
+            int result = -1;
+            while (size > 0 && frames[head] <= frame) {
+                result = bits[head];
+                head = (head + 1) % frames.length;
+                size--;
+            }
+            return result;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+
+    /** 一帧的哈希上报 */
+    private static class HashRound {
+        final int[] hashes;
+        final boolean[] reported;
+        int count;
+
+        HashRound(int players) {
+            hashes = new int[players];
+            reported = new boolean[players];
+        }
+
+        /** 多数派为准：严格过半才有基准玩家，否则所有人都算不同步（2 人各执一词分不出对错） */
+        HashCheck compare(long frame) {
+            int majorityHash = 0;
+            int majorityCount = 0;
+            int reporters = 0;
+            for (int i = 0; i < hashes.length; i++) {
+                if (!reported[i]) continue;
+                reporters++;
+                int c = 0;
+                for (int j = 0; j < hashes.length; j++) {
+                    if (reported[j] && hashes[j] == hashes[i]) c++;
+                }
+                if (c > majorityCount) {
+                    majorityCount = c;
+                    majorityHash = hashes[i];
+                }
+            }
+            if (majorityCount == reporters) return null; // 全部一致
+
+            boolean hasMajority = majorityCount * 2 > reporters;
+            int reference = -1;
+            List<Integer> diverged = new ArrayList<>();
+            for (int i = 0; i < hashes.length; i++) {
+                if (!reported[i]) continue;
+                if (hasMajority && hashes[i] == majorityHash) {
+                    if (reference < 0) reference = i;
+                } else {
+                    diverged.add(i);
+                }
+            }
+            return new HashCheck(frame, reference, diverged);
+        }
+    }
+
+    /** 哈希比较结果：referenceSlot = -1 表示没有多数派 */
+    static class HashCheck {
+        final long frame;
+        final int referenceSlot;
+        final List<Integer> divergedSlots;
+
+        HashCheck(long frame, int referenceSlot, List<Integer> divergedSlots) {
+            this.frame = frame;
+            this.referenceSlot = referenceSlot;
+            this.divergedSlots = divergedSlots;
+        }
+    }
+}
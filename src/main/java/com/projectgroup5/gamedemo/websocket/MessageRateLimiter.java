@@ -0,0 +1,205 @@
+package com.projectgroup5.gamedemo.websocket;
+
+import com.projectgroup5.gamedemo.game.GameWorld;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WebSocket 上行限流（两个 handler 共用）
+ * - 每个连接、每种消息一个令牌桶：ws.rate-limit.types 里配置 TYPE=每秒速率:突发容量，没配置的类型共用 default 桶
+ * - 在任何 JSON 解析之前判断：文本消息只看前缀 {"type":"..."，二进制消息看第一个字节
+ * - 超限直接丢弃并计数；一秒内丢弃超过 max-drops-per-second 说明客户端在刷屏，返回 SHED 由 handler 断开
+ * - SNAPSHOT_ACK 的桶至少按最高快照频率放行（客户端每个快照都 ACK，丢了会让增量基线变旧、延迟估计变偏）
+ * - LOCKSTEP_INPUT 只在按键变化时发一次、不会重发，丢一条所有人都会算错，所以超限不丢弃而是直接 SHED
+ */
+@Component
+public class MessageRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(MessageRateLimiter.class);
+
+    private static final String TYPE_PREFIX = "{\"type\":\"";
+    private static final String DEFAULT_KEY = "*";
+
+    // 不能丢的消息：超限时断开连接，而不是悄悄丢掉
+    private static final Set<String> NEVER_DROP = Set.of("LOCKSTEP_INPUT");
+
+    public enum Decision { ALLOW, DROP, SHED }
+
+    private final Limit defaultLimit;
+    private final Map<String, Limit> typeLimits;
+    private final int maxDropsPerSecond;
+
+    // handler:type -> 丢弃次数
+    private final Map<String, LongAdder> dropped = new ConcurrentHashMap<>();
+    private final LongAdder shedConnections = new LongAdder();
+
+    public MessageRateLimiter(
+            @Value("${ws.rate-limit.default:30:60}") String defaultSpec,
+            @Value("${ws.rate-limit.types:}") String typeSpec,
+            @Value("${ws.rate-limit.max-drops-per-second:200}") int maxDropsPerSecond) {
+        Limit parsed = parseLimit(defaultSpec);
+        this.defaultLimit = parsed != null ? parsed : new Limit(30, 60);
+        this.typeLimits = parseTypeLimits(typeSpec);
+        raiseToAtLeast(typeLimits, "SNAPSHOT_ACK", GameWorld.MAX_SIMULATION_HZ);
+        this.maxDropsPerSecond = maxDropsPerSecond;
+        logger.info("WebSocket rate limit default={}, types={}, maxDropsPerSecond={}",
+                defaultLimit, typeLimits, maxDropsPerSecond);
+    }
+
+    /** 每个 WebSocket 连接一个（handler 是 "A" / "B"，只用于统计） */
+    public Connection newConnection(String handler) {
+        return new Connection(handler);
+    }
+
+    /** 各 handler / 消息类型的丢弃次数，外加被断开的刷屏连接数 */
+    public Map<String, Long> getDropCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        dropped.forEach((k, v) -> result.put(k, v.sum()));
+        result.put("shedConnections", shedConnections.sum());
+        return result;
+    }
+
+    /**
+     * 不解析 JSON，只认前端固定的 {"type":"XXX" 开头（JSON.stringify 保持字段顺序）
+     * 不是这个格式返回 null，走 default 桶
+     */
+    static String sniffType(String payload) {
+        if (!payload.startsWith(TYPE_PREFIX)) return null;
+        int end = payload.indexOf('"', TYPE_PREFIX.length());
+        if (end < 0 || end - TYPE_PREFIX.length() > 32) return null;
+        return payload.substring(TYPE_PREFIX.length(), end);
+    }
+
+    static Map<String, Limit> parseTypeLimits(String spec) {
+        Map<String, Limit> map = new HashMap<>();
+        if (spec == null) return map;
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) continue;
+            Limit limit = parseLimit(kv[1]);
+            if (limit != null) {
+                map.put(kv[0].trim(), limit);
+            } else {
+                logger.warn("Ignore bad ws.rate-limit.types entry: {}", part);
+            }
+        }
+        return map;
+    }
+
+    /** 配置的速率低于 perSecond 时提高到 perSecond（突发 2 倍），用于按协议本身频率发送的消息 */
+    static void raiseToAtLeast(Map<String, Limit> limits, String type, double perSecond) {
+        Limit limit = limits.get(type);
+        if (limit == null || limit.perSecond < perSecond) {
+            limits.put(type, new Limit(perSecond, Math.max(perSecond * 2, limit != null ? limit.burst : 0)));
+        }
+    }
+
+    /** "速率:突发" */
+    static Limit parseLimit(String spec) {
+        if (spec == null) return null;
+        String[] parts = spec.trim().split(":");
+        try {
+            double rate = Double.parseDouble(parts[0]);
+            double burst = parts.length > 1 ? Double.parseDouble(parts[1]) : rate;
+            if (rate <= 0 || burst < 1) return null;
+            return new Limit(rate, burst);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** 单个连接的令牌桶集合（同一连接的消息由 WebSocket 容器串行投递，加锁只是兜底） */
+    public class Connection {
+        private final String handler;
+        private final Map<String, TokenBucket> buckets = new HashMap<>();
+        private long dropWindowStart;
+        private int dropsInWindow;
+        private boolean shed;
+
+        private Connection(String handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * 一条消息到达时调用
+         * @param type 消息类型（sniffType 结果 / 二进制类型名），null 走 default 桶
+         */
+        public synchronized Decision acquire(String type) {
+            if (shed) return Decision.SHED;
+
+            Limit limit = type != null ? typeLimits.get(type) : null;
+            String key = limit != null ? type : DEFAULT_KEY;
+            if (limit == null) limit = defaultLimit;
+
+            long now = System.nanoTime();
+            TokenBucket bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new TokenBucket(limit, now);
+                buckets.put(key, bucket);
+            }
+            if (bucket.tryTake(now)) return Decision.ALLOW;
+
+            dropped.computeIfAbsent(handler + ":" + key, k -> new LongAdder()).increment();
+            if (NEVER_DROP.contains(key)) {
+                shed = true;
+                shedConnections.increment();
+                return Decision.SHED;
+            }
+            if (now - dropWindowStart > 1_000_000_000L) {
+                dropWindowStart = now;
+                dropsInWindow = 0;
+            }
+            if (maxDropsPerSecond > 0 && ++dropsInWindow > maxDropsPerSecond) {
+                shed = true;
+                shedConnections.increment();
+                return Decision.SHED;
+            }
+            return Decision.DROP;
+        }
+    }
+
+    static class Limit {
+        final double perSecond;
+        final double burst;
+
+        Limit(double perSecond, double burst) {
+            this.perSecond = perSecond;
+            this.burst = burst;
+        }
+
+        @Override
+        public String toString() {
+            return perSecond + "/s burst " + burst;
+        }
+    }
+
+    private static class TokenBucket {
+        private final double perNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(Limit limit, long now) {
+            this.perNano = limit.perSecond / 1_000_000_000d;
+            this.capacity = limit.burst;
+            this.tokens = limit.burst;
+            this.lastRefill = now;
+        }
+
+        boolean tryTake(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * perNano);
+            lastRefill = now;
+            if (tokens < 1) return false;
+            tokens -= 1;
+            return true;
+        }
+    }
+}
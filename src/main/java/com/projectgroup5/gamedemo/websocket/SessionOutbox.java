@@ -0,0 +1,195 @@
+package com.projectgroup5.gamedemo.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 单个 WebSocket 连接的异步发送队列
+ * - 控制消息（JOINED / ERROR / 广播事件）进有界队列，按顺序发送；队列满说明客户端已经跟不上，直接断开
+ * - Architecture B 的 gossip 不进控制队列：攒在接收者的 GossipBatch 里，发送线程空闲时才取一帧，
+ *   慢客户端的位置消息在那边继续合并；有控制消息入队时先把攒下的 gossip 排到它前面，保持先后顺序
+ * - 快照（GAME_STATE）只保留最新一帧（latest-wins），慢客户端跳过旧帧而不是堆积
+ * - 真正的 session.sendMessage 只在共享的发送线程池上执行，同一个连接同一时刻最多一个线程在发
+ *   （WebSocketSession 本身不允许并发发送）
+ *
+ * 调用方（tick 线程、WebSocket 线程）只做入队，永远不会等网络 I/O。
+ */
+public class SessionOutbox {
+    private static final Logger logger = LoggerFactory.getLogger(SessionOutbox.class);
+
+    public static final int DEFAULT_CONTROL_CAPACITY = 256;
+
+    private final WebSocketSession session;
+    private final Executor sender;
+    private final Queue<WebSocketMessage<?>> control;
+    private final AtomicReference<WebSocketMessage<?>> latestSnapshot = new AtomicReference<>();
+    // 发给这个连接的 gossip，null 表示没有；和 control 的出入队都在 control 的锁里，保证两边的先后顺序
+    private volatile GossipBatch gossip;
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private volatile CloseStatus pendingClose;
+    private volatile boolean closed;
+
+    // 统计
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong skippedSnapshots = new AtomicLong();
+
+    public SessionOutbox(WebSocketSession session, Executor sender, int controlCapacity) {
+        this.session = session;
+        this.sender = sender;
+        this.control = new ArrayBlockingQueue<>(Math.max(1, controlCapacity));
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    /**
+     * 发送一条控制消息（保证顺序，不会被覆盖）
+     * @return false 表示连接已关闭或队列已满（此时连接会被断开）
+     */
+    public boolean send(WebSocketMessage<?> message) {
+        if (closed || pendingClose != null) return false;
+        boolean offered = true;
+        synchronized (control) {
+            GossipBatch batch = gossip;
+            if (batch != null) {
+                TextMessage frame;
+                while (offered && (frame = batch.take(true)) != null) {
+                    offered = control.offer(frame);
+                }
+            }
+            offered = offered && control.offer(message);
+        }
+        if (!offered) {
+            logger.warn("Outbound queue full for session {}, closing slow consumer", session.getId());
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+            return false;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /** 发送一帧快照：还没发出去的旧快照直接被替换 */
+    public void sendSnapshot(WebSocketMessage<?> snapshot) {
+        if (closed || pendingClose != null) return;
+        if (latestSnapshot.getAndSet(snapshot) != null) {
+            skippedSnapshots.incrementAndGet();
+        }
+        scheduleDrain();
+    }
+
+    /** 挂上这个连接的 gossip 合批（Architecture B） */
+    void attachGossip(GossipBatch batch) {
+        this.gossip = batch;
+    }
+
+    /** GossipBatch 有可发的消息了：发送线程空闲就来取 */
+    void gossipReady() {
+        if (closed || pendingClose != null) return;
+        scheduleDrain();
+    }
+
+    /** 发完已入队的控制消息之后再关闭连接（例如先发 ERROR 再断开） */
+    public void close(CloseStatus status) {
+        if (closed || pendingClose != null) return;
+        pendingClose = status;
+        scheduleDrain();
+    }
+
+    public boolean isOpen() {
+        return !closed && pendingClose == null && session.isOpen();
+    }
+
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    public long getSkippedSnapshots() {
+        return skippedSnapshots.get();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                sender.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // 发送线程池已关闭（应用正在停止）
+                draining.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            WebSocketMessage<?> message;
+            while (!closed && (message = nextMessage()) != null) {
+                if (!session.isOpen()) {
+                    closed = true;
+                    break;
+                }
+                try {
+                    session.sendMessage(message);
+                    sentMessages.incrementAndGet();
+                } catch (Exception e) {
+                    logger.error("Send fail session {}", session.getId(), e);
+                    closeNow(CloseStatus.SERVER_ERROR);
+                }
+            }
+
+            CloseStatus status = pendingClose;
+            if (!closed && status != null && control.isEmpty()) {
+                closeNow(status);
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        // 放弃 draining 标记之后可能又有新消息入队，补一次调度
+        GossipBatch batch = gossip;
+        if (!closed && (!control.isEmpty() || latestSnapshot.get() != null || pendingClose != null
+                || batch != null && batch.isReady())) {
+            scheduleDrain();
+        }
+    }
+
+    /** 控制消息优先，然后是 gossip，最后才是最新快照 */
+    private WebSocketMessage<?> nextMessage() {
+        WebSocketMessage<?> message;
+        synchronized (control) {
+            message = control.poll();
+            GossipBatch batch = gossip;
+            if (message == null && batch != null && pendingClose == null) {
+                message = batch.take(false);
+            }
+        }
+        if (message != null) return message;
+        if (pendingClose != null) return null; // 准备关闭：不再发快照和 gossip
+        return latestSnapshot.getAndSet(null);
+    }
+
+    private void closeNow(CloseStatus status) {
+        closed = true;
+        control.clear();
+        latestSnapshot.set(null);
+        try {
+            if (session.isOpen()) {
+                session.close(status);
+            }
+        } catch (Exception e) {
+            logger.debug("Close fail session {}", session.getId(), e);
+        }
+    }
+}
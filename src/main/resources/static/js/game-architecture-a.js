@@ -48,7 +48,17 @@ let keys = {
 
 let canvas, ctx;
 let lastSendTime = 0;
-const INPUT_SEND_INTERVAL = 50; // 20Hz
+let lastSentBits = -1;
+let inputSeq = 0;                    // 展开后的输入序号（线上只发低 8 位，服务器按差值展开成同一个数）
+const INPUT_POLL_INTERVAL = 16;      // 检查按键变化的间隔（变化才发，所以可以查得勤一点）
+const INPUT_KEEPALIVE_INTERVAL = 250; // 没变化时的保活间隔（4Hz）
+
+// 客户端预测：只预测自己的飞机，按服务器同样的固定步长模拟；其他实体仍以快照为准
+// 每个本地步记下当时生效的输入 { seq, bits }，快照到达后从权威位置重放服务器还没模拟到的步
+const PLAYER_SPEED = 200;            // 和 PhysicsEngine.PLAYER_SPEED 一致
+const PLAYER_HALF_SIZE = 16;
+const PREDICTION_MAX_STEPS = 256;    // 长时间收不到确认时最多保留的步数
+let prediction = null;               // { x, y, hz, acc, lastTime, history: [{ seq, bits }] }
 
 // ============ 帮助函数：根据 username 得到固定颜色 ============
 function getPlayerColor(u) {
@@ -109,7 +119,7 @@ function getPlayerColor(u) {
     setupInput();
 
     setInterval(renderLoop, 1000 / FPS);
-    setInterval(sendInput, INPUT_SEND_INTERVAL);
+    setInterval(sendInput, INPUT_POLL_INTERVAL);
 
     const btnLeave = document.getElementById('btnLeave');
     const btnBackLobby = document.getElementById('btnBackLobby');
@@ -122,6 +132,7 @@ function connectWebSocket() {
     const protocol = window.location.protocol === 'https:' ? 'wss:' : 'ws:';
     const wsUrl = `${protocol}//${window.location.host}/ws/game`;
     ws = new WebSocket(wsUrl);
+    ws.binaryType = 'arraybuffer'; // 二进制快照用 DataView 解码
 
     ws.onopen = () => {
         console.log('WebSocket connected (Architecture A)');
@@ -130,11 +141,17 @@ function connectWebSocket() {
             type: 'JOIN_GAME',
             roomId: roomId,
             username: username,
-            token: token
+            token: token,
+            snapshotFormat: 'binary'
         }));
     };
 
     ws.onmessage = (event) => {
+        if (event.data instanceof ArrayBuffer) {
+            const msg = decodeBinarySnapshot(event.data);
+            if (msg) handleServerMessage(msg);
+            return;
+        }
         const msg = JSON.parse(event.data);
         handleServerMessage(msg);
     };
@@ -149,6 +166,268 @@ function connectWebSocket() {
     };
 }
 
+// ================== 二进制快照解码（格式见 SnapshotEncoder.java） ==================
+const SNAPSHOT_KEYFRAME = 0x01;
+const SNAPSHOT_DELTA = 0x02;
+const SNAPSHOT_ACK = 0x10;
+// 二进制输入帧：u8 (0x80 | 按键位) | u8 序号
+const INPUT_FRAME_FLAG = 0x80;
+const INPUT_UP = 1, INPUT_DOWN = 2, INPUT_LEFT = 4, INPUT_RIGHT = 8, INPUT_FIRE = 16;
+const SNAPSHOT_PHASES = ['WAITING', 'COUNTDOWN', 'IN_PROGRESS', 'FINISHED'];
+const POSITION_SCALE = 4;
+const SNAPSHOT_HISTORY = 64; // 保留的已解码快照数（比服务器的 32 多，服务器引用的基线一定还在）
+const utf8Decoder = new TextDecoder('utf-8');
+
+// seq -> { frame, players: Map(name -> p), bullets: Map(id -> b), asteroids: Map(id -> a) }
+// 这里保存的是量化后的整数值，和服务器 SnapshotFrame 逐位一致，增量帧在它们上面叠加
+const snapshotStates = new Map();
+
+/**
+ * 解码关键帧 / 增量帧，成功后回 ACK，并转换成和 JSON GAME_STATE 一样的结构
+ * 增量帧的基线找不到时返回 null（不 ACK，服务器会继续用更早的基线或改发关键帧）
+ */
+function decodeBinarySnapshot(buffer) {
+    const view = new DataView(buffer);
+    const type = view.byteLength ? view.getUint8(0) : -1;
+    if (view.byteLength < 20 || (type !== SNAPSHOT_KEYFRAME && type !== SNAPSHOT_DELTA)) {
+        console.warn('[WS] unknown binary message, type =', type);
+        return null;
+    }
+
+    const header = {
+        phase: SNAPSHOT_PHASES[view.getUint8(2)] || 'WAITING',
+        simulationHz: view.getUint8(3),
+        seq: view.getUint32(4),
+        baseSeq: view.getUint32(8),
+        frame: view.getUint32(12),
+        timeMs: view.getUint32(16)
+    };
+
+    let state;
+    if (type === SNAPSHOT_KEYFRAME) {
+        state = readKeyframe(view, buffer, 20);
+    } else {
+        const base = snapshotStates.get(header.baseSeq);
+        if (!base) {
+            console.warn('[WS] delta baseline missing, seq =', header.seq, 'base =', header.baseSeq);
+            return null;
+        }
+        state = readDelta(view, buffer, 20, base, header);
+    }
+    state.frame = header.frame;
+    state.simulationHz = header.simulationHz;
+
+    snapshotStates.set(header.seq, state);
+    snapshotStates.delete(header.seq - SNAPSHOT_HISTORY);
+    sendSnapshotAck(header.seq);
+
+    return toGameStateMessage(header, state);
+}
+
+function readName(view, buffer, off) {
+    const len = view.getUint8(off);
+    return [utf8Decoder.decode(new Uint8Array(buffer, off + 1, len)), off + 1 + len];
+}
+
+function readMotion(view, off, e) {
+    e.x = view.getInt16(off);
+    e.y = view.getInt16(off + 2);
+    e.vx = view.getInt16(off + 4);
+    e.vy = view.getInt16(off + 6);
+    return off + 8;
+}
+
+function readAsteroid(view, off) {
+    const a = { id: view.getUint32(off) };
+    off = readMotion(view, off + 4, a);
+    a.radius = view.getUint8(off);
+    a.hp = view.getUint8(off + 1);
+    a.isBig = (view.getUint8(off + 2) & 1) === 1;
+    return [a, off + 3];
+}
+
+function readKeyframe(view, buffer, off) {
+    const players = new Map();
+    const names = [];
+    const playerCount = view.getUint8(off); off += 1;
+    for (let i = 0; i < playerCount; i++) {
+        let name;
+        [name, off] = readName(view, buffer, off);
+        players.set(name, {
+            username: name,
+            x: view.getInt16(off),
+            y: view.getInt16(off + 2),
+            hp: view.getUint8(off + 4),
+            alive: view.getUint8(off + 5) === 1,
+            score: view.getInt32(off + 6),
+            inputSeq: view.getUint32(off + 10),
+            inputFrame: view.getUint32(off + 14)
+        });
+        names.push(name);
+        off += 18;
+    }
+
+    const bullets = new Map();
+    const bulletCount = view.getUint16(off); off += 2;
+    for (let i = 0; i < bulletCount; i++) {
+        const ownerIdx = view.getUint8(off + 4);
+        const b = { id: view.getUint32(off), owner: ownerIdx < names.length ? names[ownerIdx] : null };
+        off = readMotion(view, off + 5, b);
+        bullets.set(b.id, b);
+    }
+
+    const asteroids = new Map();
+    const asteroidCount = view.getUint16(off); off += 2;
+    for (let i = 0; i < asteroidCount; i++) {
+        let a;
+        [a, off] = readAsteroid(view, off);
+        asteroids.set(a.id, a);
+    }
+
+    return { players, bullets, asteroids };
+}
+
+// 和 SnapshotEncoder.predict 一致：整数除法向 0 截断
+function predictPosition(position, velocity, frames, hz) {
+    return position + Math.trunc(velocity * frames / hz);
+}
+
+function readDelta(view, buffer, off, base, header) {
+    const frames = header.frame - base.frame;
+    const hz = Math.max(1, base.simulationHz);
+
+    // 玩家
+    const players = new Map(base.players);
+    const playerRecords = view.getUint8(off); off += 1;
+    for (let i = 0; i < playerRecords; i++) {
+        let name;
+        [name, off] = readName(view, buffer, off);
+        const mask = view.getUint8(off); off += 1;
+        if (mask & 0x80) {
+            players.delete(name);
+            continue;
+        }
+        const p = { ...(players.get(name) || { username: name }) };
+        if (mask & 0x01) { p.x = view.getInt16(off); off += 2; }
+        if (mask & 0x02) { p.y = view.getInt16(off); off += 2; }
+        if (mask & 0x04) { p.hp = view.getUint8(off); off += 1; }
+        if (mask & 0x08) { p.alive = view.getUint8(off) === 1; off += 1; }
+        if (mask & 0x10) { p.score = view.getInt32(off); off += 4; }
+        if (mask & 0x20) { p.inputSeq = view.getUint32(off); p.inputFrame = view.getUint32(off + 4); off += 8; }
+        players.set(name, p);
+    }
+
+    let bullets, asteroids;
+    [bullets, off] = readTableDelta(view, buffer, off, base.bullets, frames, hz, true);
+    [asteroids, off] = readTableDelta(view, buffer, off, base.asteroids, frames, hz, false);
+
+    return { players, bullets, asteroids };
+}
+
+function readTableDelta(view, buffer, off, baseTable, frames, hz, isBullet) {
+    // 先把基线里所有实体按速度推到当前帧
+    const table = new Map();
+    baseTable.forEach((e, id) => {
+        table.set(id, {
+            ...e,
+            x: predictPosition(e.x, e.vx, frames, hz),
+            y: predictPosition(e.y, e.vy, frames, hz)
+        });
+    });
+
+    const despawnCount = view.getUint16(off); off += 2;
+    for (let i = 0; i < despawnCount; i++) {
+        table.delete(view.getUint32(off)); off += 4;
+    }
+
+    const spawnCount = view.getUint16(off); off += 2;
+    for (let i = 0; i < spawnCount; i++) {
+        if (isBullet) {
+            const b = { id: view.getUint32(off) };
+            let owner;
+            [owner, off] = readName(view, buffer, off + 4);
+            b.owner = owner || null;
+            off = readMotion(view, off, b);
+            table.set(b.id, b);
+        } else {
+            let a;
+            [a, off] = readAsteroid(view, off);
+            table.set(a.id, a);
+        }
+    }
+
+    const updateCount = view.getUint16(off); off += 2;
+    for (let i = 0; i < updateCount; i++) {
+        const e = table.get(view.getUint32(off));
+        const mask = view.getUint8(off + 4); off += 5;
+        const small = (mask & 0x10) !== 0; // 残差用 i8
+        if (mask & 0x01) {
+            e.x += small ? view.getInt8(off) : view.getInt16(off);
+            off += small ? 1 : 2;
+        }
+        if (mask & 0x02) {
+            e.y += small ? view.getInt8(off) : view.getInt16(off);
+            off += small ? 1 : 2;
+        }
+        if (mask & 0x04) { e.vx = view.getInt16(off); e.vy = view.getInt16(off + 2); off += 4; }
+        if (mask & 0x08) { e.hp = view.getUint8(off); off += 1; }
+    }
+
+    return [table, off];
+}
+
+function sendSnapshotAck(seq) {
+    if (!ws || ws.readyState !== WebSocket.OPEN) return;
+    const ack = new DataView(new ArrayBuffer(5));
+    ack.setUint8(0, SNAPSHOT_ACK);
+    ack.setUint32(1, seq);
+    ws.send(ack.buffer);
+}
+
+/** 量化值 → 像素，拼成 JSON GAME_STATE 的结构，后面的处理逻辑不用区分格式 */
+function toGameStateMessage(header, state) {
+    const players = [];
+    state.players.forEach(p => players.push({
+        username: p.username,
+        x: p.x / POSITION_SCALE,
+        y: p.y / POSITION_SCALE,
+        hp: p.hp,
+        alive: p.alive,
+        score: p.score,
+        lastInputSeq: p.inputSeq,
+        lastInputFrame: p.inputFrame
+    }));
+    const bullets = [];
+    state.bullets.forEach(b => bullets.push({
+        id: b.id,
+        owner: b.owner,
+        x: b.x / POSITION_SCALE,
+        y: b.y / POSITION_SCALE
+    }));
+    const asteroids = [];
+    state.asteroids.forEach(a => asteroids.push({
+        id: a.id,
+        x: a.x / POSITION_SCALE,
+        y: a.y / POSITION_SCALE,
+        radius: a.radius,
+        hp: a.hp,
+        isBig: a.isBig
+    }));
+
+    return {
+        type: 'GAME_STATE',
+        roomId: roomId,
+        frame: header.frame,
+        phase: header.phase,
+        simulationHz: header.simulationHz,
+        countdownMs: header.phase === 'COUNTDOWN' ? header.timeMs : 0,
+        elapsedMs: header.phase === 'IN_PROGRESS' ? header.timeMs : 0,
+        players: players,
+        bullets: bullets,
+        asteroids: asteroids
+    };
+}
+
 function handleServerMessage(msg) {
     switch (msg.type) {
         case 'CONNECTED':
@@ -180,6 +459,8 @@ function handleServerMessage(msg) {
             gameState.bullets = msg.bullets || [];
             gameState.asteroids = msg.asteroids || [];
 
+            reconcilePrediction(msg);
+
             const newIds = new Set(gameState.asteroids.map(a => a.id));
             oldAsteroidsById.forEach((asteroid, id) => {
                 if (!newIds.has(id)) {
@@ -247,18 +528,90 @@ function sendInput() {
     if (!ws || ws.readyState !== WebSocket.OPEN) return;
     if (gameState.phase !== 'IN_PROGRESS') return;
 
+    let bits = 0;
+    if (keys.w) bits |= INPUT_UP;
+    if (keys.s) bits |= INPUT_DOWN;
+    if (keys.a) bits |= INPUT_LEFT;
+    if (keys.d) bits |= INPUT_RIGHT;
+    if (keys.j || keys[' ']) bits |= INPUT_FIRE;
+
+    // 只在按键变化时发送，没变化就低频保活（开火是持续状态，服务器按住就连发）
     const now = performance.now();
-    if (now - lastSendTime < INPUT_SEND_INTERVAL) return;
+    if (bits === lastSentBits && now - lastSendTime < INPUT_KEEPALIVE_INTERVAL) return;
     lastSendTime = now;
+    lastSentBits = bits;
 
-    ws.send(JSON.stringify({
-        type: 'PLAYER_INPUT',
-        moveUp: keys.w,
-        moveDown: keys.s,
-        moveLeft: keys.a,
-        moveRight: keys.d,
-        fire: keys.j || keys[' ']
-    }));
+    inputSeq++; // 从 1 开始，服务器按差值展开
+    ws.send(new Uint8Array([INPUT_FRAME_FLAG | bits, inputSeq & 0xFF]));
+}
+
+// ================== 客户端预测 & 对账 ==================
+/** 和 PhysicsEngine.applyPlayerInput + updatePositions 一样的单步移动 */
+function movePredicted(p, bits, dt) {
+    let vx = 0, vy = 0;
+    if (bits & INPUT_UP) vy -= 1;
+    if (bits & INPUT_DOWN) vy += 1;
+    if (bits & INPUT_LEFT) vx -= 1;
+    if (bits & INPUT_RIGHT) vx += 1;
+    const magnitude = Math.sqrt(vx * vx + vy * vy);
+    if (magnitude > 0) {
+        vx = vx / magnitude * PLAYER_SPEED;
+        vy = vy / magnitude * PLAYER_SPEED;
+    }
+    p.x = Math.max(PLAYER_HALF_SIZE, Math.min(CANVAS_WIDTH - PLAYER_HALF_SIZE, p.x + vx * dt));
+    p.y = Math.max(PLAYER_HALF_SIZE, Math.min(CANVAS_HEIGHT - PLAYER_HALF_SIZE, p.y + vy * dt));
+}
+
+/** 每个渲染帧调用：按真实经过时间推进本地固定步，每步用最近一次发出的输入 */
+function advancePrediction(now) {
+    if (!prediction) return;
+    const stepMs = 1000 / prediction.hz;
+    prediction.acc += Math.min(250, now - prediction.lastTime);
+    prediction.lastTime = now;
+    const bits = lastSentBits < 0 ? 0 : lastSentBits;
+    while (prediction.acc >= stepMs) {
+        prediction.acc -= stepMs;
+        prediction.history.push({ seq: inputSeq, bits: bits });
+        movePredicted(prediction, bits, 1 / prediction.hz);
+    }
+    if (prediction.history.length > PREDICTION_MAX_STEPS) {
+        prediction.history.splice(0, prediction.history.length - PREDICTION_MAX_STEPS);
+    }
+}
+
+/**
+ * 快照到达时对账：
+ * - 服务器已经应用到 lastInputSeq，并且从 lastInputFrame 起用它模拟了 (frame - lastInputFrame) 步
+ * - 丢掉更早的输入步，以及 lastInputSeq 已被服务器模拟过的那几步
+ * - 从权威位置重放剩下的步，得到“现在”的预测位置
+ */
+function reconcilePrediction(msg) {
+    const me = (msg.players || []).find(p => p.username === username);
+    if (msg.phase !== 'IN_PROGRESS' || !me || !me.alive || me.lastInputSeq === undefined) {
+        prediction = null;
+        return;
+    }
+    const hz = msg.simulationHz || 25;
+    if (!prediction || prediction.hz !== hz) {
+        prediction = { x: me.x, y: me.y, hz: hz, acc: 0, lastTime: performance.now(), history: [] };
+        return;
+    }
+
+    const ack = me.lastInputSeq;
+    let simulated = Math.max(0, msg.frame - me.lastInputFrame);
+    prediction.history = prediction.history.filter(h => {
+        if (h.seq < ack) return false;
+        if (h.seq === ack && simulated > 0) {
+            simulated--;
+            return false;
+        }
+        return true;
+    });
+
+    prediction.x = me.x;
+    prediction.y = me.y;
+    const dt = 1 / hz;
+    prediction.history.forEach(h => movePredicted(prediction, h.bits, dt));
 }
 
 // ================== 渲染 ==================
@@ -288,6 +641,7 @@ function renderLoop() {
         }
 
         case 'IN_PROGRESS':
+            advancePrediction(performance.now());
             renderGame();
             break;
 
@@ -340,26 +694,28 @@ function renderGame() {
         }
 
         const color = getPlayerColor(player.username);
+        // 自己的飞机画在预测位置上，不用等一个来回
+        const pos = isMe && prediction ? prediction : player;
 
         // 机体
         ctx.fillStyle = color;
-        ctx.fillRect(player.x - 16, player.y - 16, 32, 32);
+        ctx.fillRect(pos.x - 16, pos.y - 16, 32, 32);
 
         // 名字 + 小飞机图标
         ctx.fillStyle = '#fff';
         ctx.font = '12px Arial';
         ctx.textAlign = 'center';
-        ctx.fillText(`✈ ${player.username}`, player.x, player.y - 25);
+        ctx.fillText(`✈ ${player.username}`, pos.x, pos.y - 25);
 
         // HP 条
         const barWidth = 32;
         const barHeight = 4;
         ctx.fillStyle = '#f00';
-        ctx.fillRect(player.x - barWidth / 2, player.y - 20, barWidth, barHeight);
+        ctx.fillRect(pos.x - barWidth / 2, pos.y - 20, barWidth, barHeight);
         ctx.fillStyle = '#0f0';
         ctx.fillRect(
-            player.x - barWidth / 2,
-            player.y - 20,
+            pos.x - barWidth / 2,
+            pos.y - 20,
             barWidth * (player.hp / 100),
             barHeight
         );
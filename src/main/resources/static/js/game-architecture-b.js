@@ -1,6 +1,8 @@
 // game-architecture-b.js
 // 🔥 Architecture B: P2P Gossip（完全去中心化）
-// 每个用户平等，生成自己的石头，本地计算碰撞，广播状态
+// 每个用户平等，本地计算碰撞，广播状态
+// 石头场由服务器下发的种子决定，所有人本地生成同一批石头，只 gossip 命中 / 销毁
+// 锁步模式（URL 参数 sync=lockstep）：只发输入，服务器按帧打包所有人的输入，每个客户端做同样的定点数模拟
 
 const CANVAS_WIDTH = 480;
 const CANVAS_HEIGHT = 640;
@@ -28,7 +30,7 @@ let allPlayers = []; // ['xushikuan', 'zhaoyuan', ...]
 let gameState = {
     phase: 'IN_PROGRESS',
     players: {}, // username -> {x, y, hp, score, alive}
-    asteroids: {}, // asteroidId -> {owner, x, y, velocityY, radius, hp, isBig}
+    asteroids: {}, // asteroidId -> {owner, x, y, velocityY, radius, hp, isBig, spawnAt}
     bullets: {} // bulletId -> {owner, x, y, velocityY}
 };
 
@@ -43,9 +45,18 @@ let myPlayer = {
 };
 
 // 本地生成的游戏对象
-let myAsteroids = {}; // asteroidId -> AsteroidEntity
 let myBullets = {}; // bulletId -> BulletEntity
 
+// 🔥 共享石头场（JOINED_B 下发）：第 i 个石头在 startTime + i * spawnIntervalMs 生成
+let asteroidField = null;
+let nextFieldIndex = 0;
+let serverClockOffset = 0; // 服务器时间 - 本地时间
+
+// 🔥 锁步模式
+let syncMode = 'GOSSIP'; // 'GOSSIP' | 'LOCKSTEP'（以服务器 JOINED_B 返回的房间模式为准）
+let lockstep = null;     // {slot, frameMs, inputDelay, hashInterval, sim, history}
+let lastSentInputBits = -1;
+
 // 输入
 let keys = {
     w: false,
@@ -57,9 +68,7 @@ let keys = {
 };
 
 let canvas, ctx;
-let asteroidIdCounter = 0;
 let bulletIdCounter = 0;
-let lastAsteroidSpawnTime = 0;
 let lastPositionBroadcast = 0;
 let lastStateBroadcast = 0;
 
@@ -71,15 +80,20 @@ let gameEndReason = null; // 结束原因
 // 常量
 const PLAYER_SPEED = 200; // pixels/second
 const BULLET_SPEED = 400;
-const ASTEROID_MIN_SPEED = 80;
-const ASTEROID_MAX_SPEED = 160;
-const ASTEROID_SPAWN_INTERVAL = 800; // ms
 const PLAYER_RADIUS = 16;
 const BULLET_RADIUS = 4;
 const MIN_FIRE_INTERVAL = 200; // ms
 
+// 锁步协议（见 LockstepRoom.java）
+const LOCKSTEP_FRAME = 0x20;
+const LOCKSTEP_INPUT = 0x21;
+const STATE_HASH = 0x22;
+const LOCKSTEP_HISTORY = 256; // 保留最近多少帧的输入（resync 后重放用）
+const INPUT_UP = 1, INPUT_DOWN = 2, INPUT_LEFT = 4, INPUT_RIGHT = 8, INPUT_FIRE = 16, INPUT_ABSENT = 0x80;
+const FP = 256; // 锁步模拟用定点数：1 像素 = 256，全部整数运算，各浏览器结果一致
+
 const POSITION_BROADCAST_INTERVAL = 50; // 20Hz
-const STATE_BROADCAST_INTERVAL = 100; // 10Hz (石头/子弹位置)
+const STATE_BROADCAST_INTERVAL = 100; // 10Hz (子弹位置)
 
 // ============ 启动入口 ============
 (function initGameArchB() {
@@ -88,6 +102,7 @@ const STATE_BROADCAST_INTERVAL = 100; // 10Hz (石头/子弹位置)
     const params = new URLSearchParams(window.location.search);
     roomId = parseInt(params.get('roomId'));
     winMode = params.get('win') || 'SCORE_50';
+    syncMode = (params.get('sync') || 'gossip').toUpperCase() === 'LOCKSTEP' ? 'LOCKSTEP' : 'GOSSIP';
     const arch = params.get('arch') || 'B';
 
     console.log('[ArchB-Gossip] roomId:', roomId, 'winMode:', winMode, 'arch:', arch);
@@ -140,6 +155,7 @@ function connectWebSocket() {
     const protocol = window.location.protocol === 'https:' ? 'wss:' : 'ws:';
     const wsUrl = `${protocol}//${window.location.host}/ws/game-b`;
     ws = new WebSocket(wsUrl);
+    ws.binaryType = 'arraybuffer';
 
     ws.onopen = () => {
         console.log('[ArchB-Gossip] WebSocket connected');
@@ -148,12 +164,22 @@ function connectWebSocket() {
             type: 'JOIN_GAME_B',
             roomId,
             username,
-            token
+            token,
+            mode: syncMode
         }));
     };
 
     ws.onmessage = (event) => {
+        if (event.data instanceof ArrayBuffer) {
+            handleBinaryMessage(event.data);
+            return;
+        }
         const msg = JSON.parse(event.data);
+        // 服务器按接收者合批：一帧里是一个窗口内的多条 gossip，按顺序逐条处理
+        if (msg.type === 'BATCH') {
+            msg.m.forEach(handleServerMessage);
+            return;
+        }
         handleServerMessage(msg);
     };
 
@@ -180,6 +206,28 @@ function handleServerMessage(msg) {
             // 🔥 记录游戏开始时间
             gameStartTime = Date.now();
             console.log('[ArchB-Gossip] Game started at:', gameStartTime);
+            initAsteroidField(msg);
+            syncMode = msg.mode === 'LOCKSTEP' ? 'LOCKSTEP' : 'GOSSIP';
+            if (syncMode === 'LOCKSTEP') {
+                lockstep = { slot: msg.lockstepSlot, frameMs: msg.frameMs, inputDelay: msg.inputDelay, sim: null };
+                console.log('[ArchB-Lockstep] Waiting for all players, slot:', msg.lockstepSlot);
+            }
+            break;
+
+        case 'LOCKSTEP_START':
+            startLockstep(msg);
+            break;
+
+        case 'DESYNC':
+            console.warn('[ArchB-Lockstep] Desync at frame', msg.frame, 'diverged:', msg.diverged, 'reference:', msg.reference);
+            break;
+
+        case 'RESYNC_REQUEST':
+            sendResyncState();
+            break;
+
+        case 'RESYNC_STATE':
+            applyResyncState(msg);
             break;
 
         case 'PLAYER_JOINED':
@@ -209,14 +257,6 @@ function handleServerMessage(msg) {
             updatePlayerPosition(msg);
             break;
 
-        case 'ASTEROID_SPAWN':
-            handleAsteroidSpawn(msg);
-            break;
-
-        case 'ASTEROID_POSITION':
-            handleAsteroidPosition(msg);
-            break;
-
         case 'BULLET_FIRED':
             handleBulletFired(msg);
             break;
@@ -282,19 +322,6 @@ function updatePlayerPosition(msg) {
     }
 }
 
-function handleAsteroidSpawn(msg) {
-    const { asteroidId, owner, x, y, velocityY, radius, hp, isBig } = msg;
-    gameState.asteroids[asteroidId] = { owner, x, y, velocityY, radius, hp, isBig };
-}
-
-function handleAsteroidPosition(msg) {
-    const { asteroidId, x, y } = msg;
-    if (gameState.asteroids[asteroidId]) {
-        gameState.asteroids[asteroidId].x = x;
-        gameState.asteroids[asteroidId].y = y;
-    }
-}
-
 function handleBulletFired(msg) {
     const { bulletId, owner, x, y, velocityY } = msg;
     gameState.bullets[bulletId] = { owner, x, y, velocityY };
@@ -313,10 +340,6 @@ function handleBulletHitAsteroid(msg) {
     // 删除石头和子弹
     delete gameState.asteroids[asteroidId];
     delete gameState.bullets[bulletId];
-    // 如果是自己的石头，也删除本地副本
-    if (myAsteroids[asteroidId]) {
-        delete myAsteroids[asteroidId];
-    }
     if (myBullets[bulletId]) {
         delete myBullets[bulletId];
     }
@@ -348,9 +371,6 @@ function handleAsteroidDestroyed(msg) {
     const { asteroidId } = msg;
     // 删除石头
     delete gameState.asteroids[asteroidId];
-    if (myAsteroids[asteroidId]) {
-        delete myAsteroids[asteroidId];
-    }
 }
 
 function handleBulletDestroyed(msg) {
@@ -379,14 +399,20 @@ function gameLoop() {
     const deltaSeconds = 1 / FPS;
     const now = performance.now();
 
+    // 锁步模式：只发输入，状态由收到的 LOCKSTEP_FRAME 推进
+    if (syncMode === 'LOCKSTEP') {
+        sendLockstepInput();
+        if (lockstep && lockstep.sim) checkGameEndConditions();
+        render();
+        updateUI();
+        return;
+    }
+
     // 1. 更新本地玩家位置
     updateMyPlayer(deltaSeconds);
 
-    // 2. 生成本地石头
-    spawnMyAsteroids(now, deltaSeconds);
-
-    // 3. 更新本地石头位置
-    updateMyAsteroids(deltaSeconds);
+    // 2 + 3. 共享石头场：生成到期的石头，按时间算出位置
+    updateFieldAsteroids();
 
     // 4. 更新本地子弹位置
     updateMyBullets(deltaSeconds);
@@ -474,69 +500,61 @@ function fireBullet() {
     });
 }
 
-// ============ 本地石头管理 ============
-function spawnMyAsteroids(now, deltaSeconds) {
-    if (now - lastAsteroidSpawnTime < ASTEROID_SPAWN_INTERVAL) return;
-    if (Object.keys(myAsteroids).length >= 5) return; // 每个用户最多5个石头
+// ============ 🔥 共享石头场 ============
+function initAsteroidField(msg) {
+    if (!msg.asteroidField) return;
+    asteroidField = msg.asteroidField;
+    serverClockOffset = (msg.serverTime || Date.now()) - Date.now();
+
+    // 中途加入：跳过已经飞出屏幕的石头
+    const maxLifeMs = (CANVAS_HEIGHT + 2 * asteroidField.bigRadius + 50) / asteroidField.minSpeed * 1000;
+    const elapsed = fieldNow() - asteroidField.startTime;
+    nextFieldIndex = Math.max(0, Math.floor((elapsed - maxLifeMs) / asteroidField.spawnIntervalMs));
+    console.log('[ArchB-Gossip] Asteroid field:', asteroidField, 'clock offset:', serverClockOffset);
+}
 
-    lastAsteroidSpawnTime = now;
+function fieldNow() {
+    return Date.now() + serverClockOffset;
+}
 
-    const asteroidId = `${username}_asteroid_${asteroidIdCounter++}`;
-    const x = 30 + Math.random() * (CANVAS_WIDTH - 60);
-    const isBig = Math.random() < 0.4;
-    const radius = isBig ? 26 : 16;
-    const hp = isBig ? 2 : 1;
-    const velocityY = ASTEROID_MIN_SPEED + Math.random() * (ASTEROID_MAX_SPEED - ASTEROID_MIN_SPEED);
+// 由 (seed, 石头序号, 属性编号) 得到 [0, 1) 的随机数：纯整数哈希，所有浏览器结果一致
+function fieldRandom(index, salt) {
+    let h = asteroidField.seed ^ Math.imul(index, 0x9E3779B1) ^ Math.imul(salt + 1, 0x85EBCA77);
+    h = Math.imul(h ^ (h >>> 16), 0x7FEB352D);
+    h = Math.imul(h ^ (h >>> 15), 0x846CA68B);
+    h ^= h >>> 16;
+    return (h >>> 0) / 4294967296;
+}
 
-    const asteroid = {
-        owner: username,
-        x,
+function createFieldAsteroid(index) {
+    const f = asteroidField;
+    const isBig = fieldRandom(index, 1) < f.bigChance;
+    const radius = isBig ? f.bigRadius : f.smallRadius;
+    return {
+        owner: null, // 共享石头不属于任何玩家
+        x: 30 + fieldRandom(index, 0) * (CANVAS_WIDTH - 60),
         y: -radius,
-        velocityY,
+        velocityY: f.minSpeed + fieldRandom(index, 2) * (f.maxSpeed - f.minSpeed),
         radius,
-        hp,
-        isBig
+        hp: isBig ? f.bigHp : f.smallHp,
+        isBig,
+        spawnAt: f.startTime + index * f.spawnIntervalMs
     };
-
-    myAsteroids[asteroidId] = asteroid;
-    gameState.asteroids[asteroidId] = asteroid;
-
-    // 广播石头生成
-    sendMessage({
-        type: 'ASTEROID_SPAWN',
-        asteroidId,
-        owner: username,
-        x,
-        y: asteroid.y,
-        velocityY,
-        radius,
-        hp,
-        isBig
-    });
 }
 
-function updateMyAsteroids(deltaSeconds) {
-    Object.keys(myAsteroids).forEach(asteroidId => {
-        const asteroid = myAsteroids[asteroidId];
-        asteroid.y += asteroid.velocityY * deltaSeconds;
+function updateFieldAsteroids() {
+    if (!asteroidField) return;
+    const now = fieldNow();
 
-        // 更新全局状态
-        if (gameState.asteroids[asteroidId]) {
-            gameState.asteroids[asteroidId].y = asteroid.y;
-        }
+    // 生成到期的石头（id 在所有客户端上一致）
+    while (asteroidField.startTime + nextFieldIndex * asteroidField.spawnIntervalMs <= now) {
+        const index = nextFieldIndex++;
+        gameState.asteroids[`field_${index}`] = createFieldAsteroid(index);
+    }
 
-        // 移除飞出屏幕的石头
-        if (asteroid.y - asteroid.radius > CANVAS_HEIGHT + 40) {
-            delete myAsteroids[asteroidId];
-            delete gameState.asteroids[asteroidId];
-            
-            // 🔥 广播石头被销毁（超出边界）
-            sendMessage({
-                type: 'ASTEROID_DESTROYED',
-                asteroidId,
-                reason: 'out_of_bounds'
-            });
-        }
+    // 位置只由时间决定，不累加帧间误差；飞出屏幕由 cleanupOutOfBoundsEntities 清理
+    Object.values(gameState.asteroids).forEach(asteroid => {
+        asteroid.y = -asteroid.radius + asteroid.velocityY * (now - asteroid.spawnAt) / 1000;
     });
 }
 
@@ -567,19 +585,7 @@ function updateMyBullets(deltaSeconds) {
 
 // ============ 🔥 更新其他玩家的实体（本地预测） ============
 function updateOthersEntities(deltaSeconds) {
-    // 更新其他玩家的石头（如果没有收到owner的位置更新，本地预测）
-    Object.keys(gameState.asteroids).forEach(asteroidId => {
-        // 跳过自己的石头（已经在updateMyAsteroids中处理）
-        if (myAsteroids[asteroidId]) return;
-
-        const asteroid = gameState.asteroids[asteroidId];
-        if (!asteroid || !asteroid.velocityY) return;
-
-        // 本地预测：匀速向下运动
-        asteroid.y += asteroid.velocityY * deltaSeconds;
-    });
-
-    // 更新其他玩家的子弹
+    // 更新其他玩家的子弹（石头位置由 updateFieldAsteroids 按时间计算）
     Object.keys(gameState.bullets).forEach(bulletId => {
         // 跳过自己的子弹（已经在updateMyBullets中处理）
         if (myBullets[bulletId]) return;
@@ -599,11 +605,9 @@ function cleanupOutOfBoundsEntities() {
         const asteroid = gameState.asteroids[asteroidId];
         if (!asteroid) return;
 
-        // 如果石头超出下边界，本地删除（防止残留）
+        // 石头超出下边界，每个客户端各自删除（不需要 gossip）
         if (asteroid.y - asteroid.radius > CANVAS_HEIGHT + 50) {
-            console.log('[ArchB-Gossip] 本地清理超出边界的石头:', asteroidId);
             delete gameState.asteroids[asteroidId];
-            // 注意：不删除myAsteroids，因为那是owner的责任
         }
     });
 
@@ -642,9 +646,6 @@ function detectMyCollisions() {
                 if (asteroid.hp <= 0) {
                     // 石头被打爆
                     delete gameState.asteroids[asteroidId];
-                    if (myAsteroids[asteroidId]) {
-                        delete myAsteroids[asteroidId];
-                    }
 
                     // 增加分数
                     const scoreGain = asteroid.isBig ? 10 : 5;
@@ -701,9 +702,6 @@ function detectMyCollisions() {
 
                 // 删除石头
                 delete gameState.asteroids[asteroidId];
-                if (myAsteroids[asteroidId]) {
-                    delete myAsteroids[asteroidId];
-                }
 
                 // 🔥 广播石头被销毁（被玩家撞击）
                 sendMessage({
@@ -807,21 +805,10 @@ function broadcastStates(now) {
         });
     }
 
-    // 2. 石头和子弹位置（低频：10Hz）
+    // 2. 子弹位置（低频：10Hz；石头由共享种子本地生成，不再广播）
     if (now - lastStateBroadcast >= STATE_BROADCAST_INTERVAL) {
         lastStateBroadcast = now;
 
-        // 广播石头位置
-        Object.keys(myAsteroids).forEach(asteroidId => {
-            const asteroid = myAsteroids[asteroidId];
-            sendMessage({
-                type: 'ASTEROID_POSITION',
-                asteroidId,
-                x: Math.round(asteroid.x),
-                y: Math.round(asteroid.y)
-            });
-        });
-
         // 广播子弹位置
         Object.keys(myBullets).forEach(bulletId => {
             const bullet = myBullets[bulletId];
@@ -841,6 +828,263 @@ function sendMessage(msg) {
     }
 }
 
+// ============ 🔥 锁步模式 ============
+function handleBinaryMessage(buffer) {
+    const view = new DataView(buffer);
+    if (view.byteLength < 6 || view.getUint8(0) !== LOCKSTEP_FRAME) return;
+    if (!lockstep || !lockstep.sim) return;
+
+    const frame = view.getUint32(1);
+    const count = view.getUint8(5);
+    const inputs = [];
+    for (let i = 0; i < count; i++) {
+        inputs.push(view.getUint8(6 + i));
+    }
+
+    lockstep.history.set(frame, inputs);
+    lockstep.history.delete(frame - LOCKSTEP_HISTORY);
+
+    // resync 之后本地可能已经领先（那几帧已包含在收到的状态里）
+    if (frame < lockstep.sim.frame) return;
+    if (frame > lockstep.sim.frame) {
+        console.warn('[ArchB-Lockstep] Unexpected frame', frame, 'expected', lockstep.sim.frame);
+        return;
+    }
+    stepLockstep(lockstep.sim, inputs);
+    syncGameStateFromSim(lockstep.sim);
+
+    if (lockstep.sim.frame % lockstep.hashInterval === 0) {
+        sendStateHash(lockstep.sim);
+    }
+}
+
+// 每 hashInterval 帧上报一次状态哈希（9 字节），服务器比较各 peer 是否一致
+function sendStateHash(sim) {
+    if (!ws || ws.readyState !== WebSocket.OPEN) return;
+    const buf = new ArrayBuffer(9);
+    const view = new DataView(buf);
+    view.setUint8(0, STATE_HASH);
+    view.setUint32(1, sim.frame);
+    view.setUint32(5, hashLockstepState(sim));
+    ws.send(buf);
+}
+
+// FNV-1a：按固定顺序哈希模拟状态里的所有整数
+function hashLockstepState(sim) {
+    let h = 0x811C9DC5;
+    const mix = v => {
+        h ^= v | 0;
+        h = Math.imul(h, 0x01000193);
+        h ^= (v / 4294967296) | 0; // 高位（坐标在 FP 精度下可能超过 32 位）
+        h = Math.imul(h, 0x01000193);
+    };
+    mix(sim.frame);
+    mix(sim.nextBulletId);
+    mix(sim.nextAsteroidIndex);
+    sim.players.forEach(p => {
+        mix(p.x); mix(p.y); mix(p.hp); mix(p.score); mix(p.alive ? 1 : 0); mix(p.cooldown);
+    });
+    mix(sim.bullets.length);
+    sim.bullets.forEach(b => { mix(b.owner); mix(b.x); mix(b.y); });
+    mix(sim.asteroids.length);
+    sim.asteroids.forEach(a => { mix(a.x); mix(a.y); mix(a.hp); });
+    return h >>> 0;
+}
+
+// 服务器让我们（多数派）把完整状态发给不同步的玩家
+function sendResyncState() {
+    if (!lockstep || !lockstep.sim) return;
+    sendMessage({ type: 'RESYNC_STATE', frame: lockstep.sim.frame, state: lockstep.sim });
+}
+
+// 收到基准玩家的完整状态：替换本地模拟，再用输入历史追到当前帧
+function applyResyncState(msg) {
+    if (!lockstep || !lockstep.sim || !msg.state) return;
+    const localFrame = lockstep.sim.frame;
+    const sim = msg.state;
+
+    while (sim.frame < localFrame) {
+        const inputs = lockstep.history.get(sim.frame);
+        if (!inputs) {
+            console.warn('[ArchB-Lockstep] Resync failed: missing inputs for frame', sim.frame);
+            return;
+        }
+        stepLockstep(sim, inputs);
+    }
+    lockstep.sim = sim;
+    syncGameStateFromSim(sim);
+    console.log('[ArchB-Lockstep] Resynced at frame', msg.frame, '-> now', sim.frame);
+}
+
+function startLockstep(msg) {
+    if (!lockstep) return;
+    allPlayers = msg.players;
+    lockstep.frameMs = msg.frameMs;
+    lockstep.inputDelay = msg.inputDelay;
+    lockstep.hashInterval = msg.hashInterval || 30;
+    lockstep.history = new Map();
+    lockstep.slot = msg.players.indexOf(username);
+    lockstep.sim = createLockstepSim(msg.players);
+    gameState.players = {};
+    gameState.asteroids = {};
+    gameState.bullets = {};
+    gameStartTime = Date.now();
+    syncGameStateFromSim(lockstep.sim);
+    console.log('[ArchB-Lockstep] Started:', msg);
+}
+
+// 输入变化时才发送（2 字节）；服务器排到 inputDelay 帧之后生效
+function sendLockstepInput() {
+    if (!ws || ws.readyState !== WebSocket.OPEN || !lockstep || !lockstep.sim) return;
+
+    let bits = 0;
+    if (keys.w) bits |= INPUT_UP;
+    if (keys.s) bits |= INPUT_DOWN;
+    if (keys.a) bits |= INPUT_LEFT;
+    if (keys.d) bits |= INPUT_RIGHT;
+    if (keys.j || keys[' ']) bits |= INPUT_FIRE;
+
+    if (bits === lastSentInputBits) return;
+    lastSentInputBits = bits;
+    ws.send(new Uint8Array([LOCKSTEP_INPUT, bits]));
+}
+
+// 每帧位移（定点数）：只依赖服务器下发的 frameMs，所有客户端算出来一样
+function perFrame(pixelsPerSecond) {
+    return Math.round(pixelsPerSecond * FP * lockstep.frameMs / 1000);
+}
+
+function createLockstepSim(players) {
+    const n = players.length;
+    const playerStep = perFrame(PLAYER_SPEED);
+    return {
+        frame: 0,
+        players: players.map((name, i) => ({
+            name,
+            x: Math.floor((i + 1) * CANVAS_WIDTH * FP / (n + 1)),
+            y: (CANVAS_HEIGHT - 80) * FP,
+            hp: 3,
+            score: 0,
+            alive: true,
+            cooldown: 0
+        })),
+        bullets: [],   // {id, owner(slot), x, y}
+        asteroids: [], // {id, x, y, vy, radius, hp, isBig}
+        nextBulletId: 0,
+        nextAsteroidIndex: 0,
+        playerStep,
+        diagonalStep: Math.round(playerStep * 181 / 256), // ≈ 1/√2
+        bulletStep: perFrame(BULLET_SPEED),
+        fireCooldown: Math.ceil(MIN_FIRE_INTERVAL / lockstep.frameMs),
+        spawnEvery: Math.max(1, Math.round(asteroidField.spawnIntervalMs / lockstep.frameMs))
+    };
+}
+
+// 推进一帧：顺序固定（玩家 -> 子弹 -> 石头 -> 碰撞），只用整数
+function stepLockstep(sim, inputs) {
+    // 1. 玩家移动 + 开火
+    sim.players.forEach((p, slot) => {
+        const bits = inputs[slot] || 0;
+        if (p.cooldown > 0) p.cooldown--;
+        if (!p.alive || (bits & INPUT_ABSENT)) return;
+
+        const dx = ((bits & INPUT_RIGHT) ? 1 : 0) - ((bits & INPUT_LEFT) ? 1 : 0);
+        const dy = ((bits & INPUT_DOWN) ? 1 : 0) - ((bits & INPUT_UP) ? 1 : 0);
+        const step = dx !== 0 && dy !== 0 ? sim.diagonalStep : sim.playerStep;
+        p.x = Math.max(PLAYER_RADIUS * FP, Math.min((CANVAS_WIDTH - PLAYER_RADIUS) * FP, p.x + dx * step));
+        p.y = Math.max(PLAYER_RADIUS * FP, Math.min((CANVAS_HEIGHT - PLAYER_RADIUS) * FP, p.y + dy * step));
+
+        if ((bits & INPUT_FIRE) && p.cooldown === 0) {
+            sim.bullets.push({ id: `ls_bullet_${sim.nextBulletId++}`, owner: slot, x: p.x, y: p.y - 20 * FP });
+            p.cooldown = sim.fireCooldown;
+        }
+    });
+
+    // 2. 子弹
+    sim.bullets.forEach(b => { b.y -= sim.bulletStep; });
+    sim.bullets = sim.bullets.filter(b => b.y >= -10 * FP);
+
+    // 3. 石头：按共享种子定时生成
+    if (sim.frame % sim.spawnEvery === 0) {
+        const index = sim.nextAsteroidIndex++;
+        const f = asteroidField;
+        const isBig = fieldRandom(index, 1) < f.bigChance;
+        const radius = isBig ? f.bigRadius : f.smallRadius;
+        sim.asteroids.push({
+            id: `field_${index}`,
+            x: (30 + Math.floor(fieldRandom(index, 0) * (CANVAS_WIDTH - 60))) * FP,
+            y: -radius * FP,
+            vy: perFrame(f.minSpeed + Math.floor(fieldRandom(index, 2) * (f.maxSpeed - f.minSpeed))),
+            radius,
+            hp: isBig ? f.bigHp : f.smallHp,
+            isBig
+        });
+    }
+    sim.asteroids.forEach(a => { a.y += a.vy; });
+    sim.asteroids = sim.asteroids.filter(a => a.y - a.radius * FP <= (CANVAS_HEIGHT + 40) * FP);
+
+    // 4. 碰撞：子弹 vs 石头
+    sim.bullets = sim.bullets.filter(b => {
+        for (const a of sim.asteroids) {
+            if (a.hp <= 0) continue;
+            const dx = b.x - a.x, dy = b.y - a.y, r = (BULLET_RADIUS + a.radius) * FP;
+            if (dx * dx + dy * dy < r * r) {
+                a.hp--;
+                if (a.hp <= 0) sim.players[b.owner].score += a.isBig ? 10 : 5;
+                return false;
+            }
+        }
+        return true;
+    });
+
+    // 石头 vs 玩家
+    sim.asteroids.forEach(a => {
+        if (a.hp <= 0) return;
+        for (const p of sim.players) {
+            if (!p.alive) continue;
+            const dx = p.x - a.x, dy = p.y - a.y, r = (PLAYER_RADIUS + a.radius) * FP;
+            if (dx * dx + dy * dy < r * r) {
+                a.hp = 0;
+                p.hp--;
+                if (p.hp <= 0) {
+                    p.hp = 0;
+                    p.alive = false;
+                }
+                break;
+            }
+        }
+    });
+    sim.asteroids = sim.asteroids.filter(a => a.hp > 0);
+
+    sim.frame++;
+}
+
+// 把定点数模拟状态转换成渲染用的 gameState
+function syncGameStateFromSim(sim) {
+    sim.players.forEach(p => {
+        gameState.players[p.name] = { x: p.x / FP, y: p.y / FP, hp: p.hp, score: p.score, alive: p.alive };
+    });
+
+    gameState.asteroids = {};
+    sim.asteroids.forEach(a => {
+        gameState.asteroids[a.id] = { owner: null, x: a.x / FP, y: a.y / FP, radius: a.radius, hp: a.hp, isBig: a.isBig };
+    });
+
+    gameState.bullets = {};
+    sim.bullets.forEach(b => {
+        gameState.bullets[b.id] = { owner: sim.players[b.owner].name, x: b.x / FP, y: b.y / FP };
+    });
+
+    const me = sim.players[lockstep.slot];
+    if (me) {
+        myPlayer.x = me.x / FP;
+        myPlayer.y = me.y / FP;
+        myPlayer.hp = me.hp;
+        myPlayer.score = me.score;
+        myPlayer.alive = me.alive;
+    }
+}
+
 // ============ 渲染 ============
 function render() {
     if (!ctx) return;
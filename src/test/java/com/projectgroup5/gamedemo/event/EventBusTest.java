@@ -0,0 +1,123 @@
+package com.projectgroup5.gamedemo.event;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventBusTest {
+
+    @Test
+    void pooledEventStaysOutOfPoolUntilBlockingLaneFinishes() throws Exception {
+        EventBus bus = new EventBus(16, 1, 1);
+        EventPool<CollisionDetectedEvent> pool = CollisionDetectedEvent.newPool(4);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch handled = new CountDownLatch(1);
+        AtomicReference<String> seenByBlocking = new AtomicReference<>();
+        AtomicReference<String> seenBySync = new AtomicReference<>();
+
+        bus.subscribe(CollisionDetectedEvent.class, e -> seenBySync.set(e.getEntity1()));
+        bus.subscribeBlocking(CollisionDetectedEvent.class, e -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            seenByBlocking.set(e.getEntity1());
+            handled.countDown();
+        });
+
+        try {
+            CollisionDetectedEvent event = pool.acquire()
+                    .set(1L, "alice", "bob", CollisionDetectedEvent.CollisionType.BULLET_HIT_PLAYER, 0L);
+            bus.publish(event);
+            assertEquals("alice", seenBySync.get());
+
+            // 同步订阅者已经跑完，但 blocking lane 还拿着这个事件：池里不能有它
+            CollisionDetectedEvent other = pool.acquire();
+            assertNotSame(event, other);
+            other.set(1L, "mallory", "eve", CollisionDetectedEvent.CollisionType.PLAYER_COLLISION, 0L);
+
+            release.countDown();
+            assertTrue(handled.await(5, TimeUnit.SECONDS));
+            assertEquals("alice", seenByBlocking.get());
+
+            // blocking lane 处理完后只归还一次
+            awaitReturned(pool, event);
+            assertNotSame(event, pool.acquire());
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    void releasedRoomDrainsQueuedEventsThenDropsNewOnes() throws Exception {
+        EventBus bus = new EventBus(16, 1, 1);
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> seen = new CopyOnWriteArrayList<>();
+
+        bus.subscribe(PlayerJoinedEvent.class, e -> {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            seen.add(e.getUsername());
+        });
+
+        try {
+            bus.publishAsync(new PlayerJoinedEvent(7L, "alice"));
+            bus.publishAsync(new PlayerJoinedEvent(7L, "bob"));
+            bus.releaseRoom(7L);
+            // 销毁之后发布的不会再建 lane
+            bus.publishAsync(new PlayerJoinedEvent(7L, "late"));
+            assertEquals(1L, (long) bus.getStats().get("releasedRoomEvents"));
+
+            gate.countDown();
+            awaitStat(bus, "asyncLanes", 0L);
+            assertEquals(List.of("alice", "bob"), seen);
+
+            // 同一个房间号开新一局
+            bus.openRoom(7L);
+            bus.publishAsync(new PlayerJoinedEvent(7L, "carol"));
+            awaitStat(bus, "asyncLanes", 1L);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (seen.size() < 3 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(List.of("alice", "bob", "carol"), seen);
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    private static void awaitStat(EventBus bus, String name, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (bus.getStats().get(name) != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, (long) bus.getStats().get(name), name);
+    }
+
+    /** 归还发生在 blocking 处理器返回之后，稍等一下再取 */
+    private static void awaitReturned(EventPool<CollisionDetectedEvent> pool, CollisionDetectedEvent event)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            CollisionDetectedEvent next = pool.acquire();
+            if (next == event) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+        assertSame(event, pool.acquire(), "event was never returned to the pool");
+    }
+}
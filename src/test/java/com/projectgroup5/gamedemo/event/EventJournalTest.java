@@ -0,0 +1,109 @@
+package com.projectgroup5.gamedemo.event;
+
+import com.projectgroup5.gamedemo.game.PlayerInput;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class EventJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsRoundTripThroughSegments() throws Exception {
+        EventBus bus = new EventBus(16, 1, 1);
+        EventJournal journal = new EventJournal(bus, dir.toString(), 64, 0, 0);
+        try {
+            Map<String, Integer> scores = new LinkedHashMap<>();
+            scores.put("alice", 30);
+            scores.put("bob", 10);
+
+            journal.append(new PlayerJoinedEvent(7, "alice"));
+            journal.append(new InputReceivedEvent(7, "alice",
+                    PlayerInput.fromBits("alice", PlayerInput.BIT_UP | PlayerInput.BIT_FIRE, 42, 0)));
+            journal.append(new CollisionDetectedEvent(7, "bullet-1", "bob",
+                    CollisionDetectedEvent.CollisionType.BULLET_HIT_PLAYER));
+            journal.append(new ScoreUpdatedEvent(7, "alice", 10, 30));
+            journal.append(new GameEndedEvent(7, scores, "alice"));
+
+            List<EventJournal.Entry> entries = awaitMatchEnd(journal, 7, "alice");
+            assertEquals(5, entries.size());
+
+            assertEquals("PLAYER_JOINED", entries.get(0).getType());
+            assertEquals("alice", entries.get(0).getData().get("username"));
+
+            assertEquals("INPUT", entries.get(1).getType());
+            assertEquals(PlayerInput.BIT_UP | PlayerInput.BIT_FIRE, entries.get(1).getData().get("bits"));
+            assertEquals(42L, entries.get(1).getData().get("sequence"));
+
+            assertEquals("COLLISION", entries.get(2).getType());
+            assertEquals("bullet-1", entries.get(2).getData().get("entity1"));
+            assertEquals("bob", entries.get(2).getData().get("entity2"));
+            assertEquals("BULLET_HIT_PLAYER", entries.get(2).getData().get("collisionType"));
+
+            assertEquals("SCORE", entries.get(3).getType());
+            assertEquals(10, entries.get(3).getData().get("delta"));
+            assertEquals(30, entries.get(3).getData().get("newTotal"));
+
+            assertEquals("GAME_ENDED", entries.get(4).getType());
+            assertEquals("alice", entries.get(4).getData().get("winner"));
+            assertEquals(scores, entries.get(4).getData().get("finalScores"));
+        } finally {
+            journal.shutdown();
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    void oldSegmentsArePrunedOnRoll() throws Exception {
+        EventBus bus = new EventBus(16, 1, 1);
+        EventJournal journal = new EventJournal(bus, dir.toString(), 64, 2, 0);
+        try {
+            // 每局结束都关段，下一局换新段
+            for (int match = 0; match < 4; match++) {
+                String player = "p" + match;
+                journal.append(new PlayerJoinedEvent(3, player));
+                journal.append(new GameEndedEvent(3, Map.of(player, match), player));
+            }
+            awaitMatchEnd(journal, 3, "p3");
+
+            try (Stream<Path> segments = Files.list(dir.resolve("room-3"))) {
+                assertEquals(2, segments.count());
+            }
+            List<EventJournal.Entry> entries = journal.readLast(3, 100);
+            assertEquals(4, entries.size());
+            assertEquals("p2", entries.get(0).getData().get("username"));
+        } finally {
+            journal.shutdown();
+            bus.shutdown();
+        }
+    }
+
+    /** 写线程是异步的：等到这个房间读得到 winner 的 GAME_ENDED 并且已经关段 */
+    private static List<EventJournal.Entry> awaitMatchEnd(EventJournal journal, long roomId, String winner)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            List<EventJournal.Entry> entries = journal.readLast(roomId, 100);
+            if (!entries.isEmpty() && journal.getStats().get("openRooms") == 0) {
+                EventJournal.Entry last = entries.get(entries.size() - 1);
+                if ("GAME_ENDED".equals(last.getType()) && winner.equals(last.getData().get("winner"))) {
+                    return entries;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail("journal for room " + roomId + " never reached the end of " + winner + "'s match");
+        return List.of();
+    }
+}
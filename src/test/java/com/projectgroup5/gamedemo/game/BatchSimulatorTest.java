@@ -0,0 +1,36 @@
+package com.projectgroup5.gamedemo.game;
+
+import com.projectgroup5.gamedemo.dto.SimulationRequest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchSimulatorTest {
+
+    @Test
+    void sameSeedGivesSameResults() {
+        BatchSimulator simulator = new BatchSimulator(4);
+        try {
+            SimulationRequest req = new SimulationRequest();
+            req.setMatches(40);
+            req.setPlayers(2);
+            req.setWinMode("TIME_1M");
+            req.setBots("AIM,RANDOM");
+            req.setSeed(7L);
+
+            BatchSimulator.Report first = simulator.run(req);
+            BatchSimulator.Report second = simulator.run(req);
+
+            assertEquals(40, first.getMatches());
+            assertTrue(first.getTotalTicks() > 0);
+            assertEquals(first.getTotalTicks(), second.getTotalTicks());
+            assertEquals(first.getTotalEntityUpdates(), second.getTotalEntityUpdates());
+            assertEquals(first.getEndReasons(), second.getEndReasons());
+            assertEquals(first.getScores().getMean(), second.getScores().getMean());
+            assertEquals(first.getSlots().get(0).getWinRate(), second.getSlots().get(0).getWinRate());
+        } finally {
+            simulator.shutdown();
+        }
+    }
+}
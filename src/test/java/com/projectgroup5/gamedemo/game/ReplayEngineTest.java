@@ -0,0 +1,40 @@
+package com.projectgroup5.gamedemo.game;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplayEngineTest {
+
+    @Test
+    void replayReproducesRecordedMatch() {
+        PhysicsEngine physics = PhysicsEngine.headless(200);
+        GameWorld world = new GameWorld(1, "default", "TIME_1M", 2, 25, 25, 42L);
+        world.startRecording();
+        world.addPlayer("alice");
+        world.addPlayer("bob");
+        world.setPhase(GameWorld.GamePhase.IN_PROGRESS);
+
+        long seq = 0;
+        for (int frame = 0; frame < 1500; frame++) {
+            if (frame % 7 == 0) {
+                int bits = PlayerInput.BIT_FIRE | (frame % 14 == 0 ? PlayerInput.BIT_LEFT : PlayerInput.BIT_RIGHT);
+                physics.processInput(world, PlayerInput.fromBits("alice", bits, ++seq, 0));
+            }
+            if (frame % 11 == 0) {
+                physics.processInput(world, PlayerInput.fromBits("bob", PlayerInput.BIT_FIRE | PlayerInput.BIT_UP, seq, 0));
+            }
+            physics.step(world);
+        }
+        InputRecording recording = world.finishRecording(0);
+
+        ReplayEngine.Result result = new ReplayEngine(true, 30, 4).replay(recording);
+
+        assertTrue(result.isIdentical(), "diverged at frame " + result.getFirstMismatchFrame());
+        assertEquals(1500, result.getFrames());
+        assertEquals(1500, result.getVerifiedFrames());
+        assertEquals(world.getPlayers().get("alice").score, result.getFinalScores().get("alice"));
+        assertEquals(world.getPlayers().get("bob").score, result.getFinalScores().get("bob"));
+    }
+}
@@ -0,0 +1,403 @@
+package com.projectgroup5.gamedemo.game;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 编码后按 game-architecture-a.js decodeBinarySnapshot 的规则解码，和编码前的快照逐字段比较
+ */
+class SnapshotEncoderTest {
+    private static final int HZ = 60;
+    private static final int FRAMES_PER_SNAPSHOT = 2;
+
+    private final SnapshotEncoder encoder = new SnapshotEncoder();
+    private final SnapshotHistory history = new SnapshotHistory();
+
+    @Test
+    void keyframeThenDeltasAgainstOlderAckedBaselines() {
+        SnapshotFrame[] frames = new SnapshotFrame[5];
+        for (int k = 1; k <= 4; k++) {
+            frames[k] = movingFrame(k);
+        }
+        Map<Long, Decoded> client = new HashMap<>();
+
+        Decoded key = decode(encoder.encode(history, frames[1], null), client);
+        assertEquals(SnapshotEncoder.TYPE_KEYFRAME, key.type);
+        assertEquals(expected(frames[1]), key.state());
+
+        // 依次按 1 -> 2、1 -> 3（2 的 ACK 丢了）、2 -> 4 做增量
+        long[][] pairs = {{1, 2}, {1, 3}, {2, 4}};
+        for (long[] pair : pairs) {
+            SnapshotFrame base = frames[(int) pair[0]];
+            SnapshotFrame cur = frames[(int) pair[1]];
+            Decoded delta = decode(encoder.encode(history, cur, base), client);
+            assertEquals(SnapshotEncoder.TYPE_DELTA, delta.type);
+            assertEquals(base.seq, delta.baseSeq);
+            assertEquals(expected(cur), delta.state(), "delta " + pair[0] + " -> " + pair[1]);
+        }
+    }
+
+    @Test
+    void residualOverflowFallsBackToAbsoluteValues() {
+        SnapshotFrame base = frame(1, 100);
+        addPlayer(base, "alice", 400, 400, 3, true, 0, 0, 0);
+        // 预测位置 32000，实际 -32000：残差 -64000 超出 int16
+        addBullet(base, 1, "alice", 400, 0, 0, 32000);
+        addAsteroid(base, 10, -30000, 0, 0, 0, 20, 3, true);
+        addAsteroid(base, 11, 800, 0, 0, 160, 10, 1, false);
+
+        SnapshotFrame cur = frame(2, 100 + HZ);
+        addPlayer(cur, "alice", 400, 400, 3, true, 0, 0, 0);
+        addBullet(cur, 1, "alice", 400, -32000, 0, 32000);
+        addAsteroid(cur, 10, 30000, 0, 0, 0, 20, 3, true);
+        addAsteroid(cur, 11, 800, 163, 0, 160, 10, 1, false);
+
+        Map<Long, Decoded> client = new HashMap<>();
+        decode(encoder.encode(history, base, null), client);
+        Decoded delta = decode(encoder.encode(history, cur, base), client);
+
+        assertEquals(expected(cur), delta.state());
+        assertEquals(List.of(1), delta.bulletStats.despawns);
+        assertEquals(List.of(1), delta.bulletStats.spawns);
+        assertTrue(delta.bulletStats.updates.isEmpty());
+        assertEquals(List.of(10), delta.asteroidStats.despawns);
+        assertEquals(List.of(10), delta.asteroidStats.spawns);
+        assertEquals(List.of(11), delta.asteroidStats.updates);
+    }
+
+    @Test
+    void entitiesAddedAndRemovedThroughTableDelta() {
+        SnapshotFrame base = frame(1, 10);
+        addPlayer(base, "alice", 100, 100, 3, true, 10, 4, 8);
+        addPlayer(base, "bob", 200, 100, 3, true, 0, 2, 6);
+        addBullet(base, 1, "alice", 100, 90, 0, -1600);
+        addBullet(base, 2, "bob", 200, 90, 0, -1600);
+        addBullet(base, 3, "alice", 100, 50, 0, -1600);
+        addAsteroid(base, 20, 500, 0, 0, 160, 20, 3, true);
+        addAsteroid(base, 21, 600, 0, 0, 160, 10, 1, false);
+
+        SnapshotFrame cur = frame(2, 12);
+        addPlayer(cur, "alice", 104, 100, 3, true, 60, 5, 11);
+        addPlayer(cur, "carol", 300, 100, 3, true, 0, 0, 0);
+        addBullet(cur, 2, "bob", 200, 37, 0, -1600);
+        addBullet(cur, 3, "alice", 100, -3, 0, -1600);
+        addBullet(cur, 5, "carol", 300, 90, 0, -1600);
+        addAsteroid(cur, 21, 600, 5, 0, 160, 10, 1, false);
+        addAsteroid(cur, 22, 700, 0, 0, 200, 10, 1, false);
+
+        Map<Long, Decoded> client = new HashMap<>();
+        decode(encoder.encode(history, base, null), client);
+        Decoded delta = decode(encoder.encode(history, cur, base), client);
+
+        assertEquals(expected(cur), delta.state());
+        assertEquals(List.of(1), delta.bulletStats.despawns);
+        assertEquals(List.of(5), delta.bulletStats.spawns);
+        assertEquals(List.of(20), delta.asteroidStats.despawns);
+        assertEquals(List.of(22), delta.asteroidStats.spawns);
+        assertFalse(delta.players.containsKey("bob"));
+        assertTrue(delta.players.containsKey("carol"));
+    }
+
+    // ==================== 测试数据 ====================
+
+    /** 第 k 次快照：玩家移动 / 加分，子弹匀速，石头有匀速的、漂移的（残差从 i8 变到 i16）、中途生成的 */
+    private static SnapshotFrame movingFrame(int k) {
+        SnapshotFrame f = frame(k, 100 + (long) k * FRAMES_PER_SNAPSHOT);
+        addPlayer(f, "alice", 400 + 12 * k, 1800, 3, true, 50 * (k / 2), k, 100 + k * FRAMES_PER_SNAPSHOT);
+        addPlayer(f, "bob", 800, 1800 - 5 * k, k < 3 ? 3 : 2, true, 0, 1, 100);
+        addBullet(f, 1, "alice", 400, 1700 - 53 * k, 0, -1600);
+        if (k >= 3) {
+            addBullet(f, 2, "bob", 800, 1700 - 53 * (k - 3), 0, -1600);
+        }
+        addAsteroid(f, 10, 400, -80 + 7 * k, 0, 160, 20, 3, true);
+        addAsteroid(f, 11, 200 + 90 * k * k, 300, 0, 0, 10, k < 3 ? 1 : 0, false);
+        return f;
+    }
+
+    private static SnapshotFrame frame(long seq, long frameNo) {
+        SnapshotFrame f = new SnapshotFrame();
+        f.seq = seq;
+        f.frame = frameNo;
+        f.phase = GameWorld.GamePhase.IN_PROGRESS.ordinal();
+        f.simulationHz = HZ;
+        f.timeMs = frameNo * 1000 / HZ;
+        return f;
+    }
+
+    private static void addPlayer(SnapshotFrame f, String name, int x, int y, int hp, boolean alive,
+                                  int score, int inputSeq, int inputFrame) {
+        SnapshotFrame.Players p = f.players;
+        int i = p.count++;
+        p.name[i] = name;
+        p.nameUtf8[i] = name.getBytes(StandardCharsets.UTF_8);
+        p.x[i] = (short) x;
+        p.y[i] = (short) y;
+        p.hp[i] = hp;
+        p.alive[i] = alive;
+        p.score[i] = score;
+        p.inputSeq[i] = inputSeq;
+        p.inputFrame[i] = inputFrame;
+    }
+
+    /** 按 id 升序调用 */
+    private static void addBullet(SnapshotFrame f, int id, String owner, int x, int y, int vx, int vy) {
+        SnapshotFrame.Table t = f.bullets;
+        int i = add(t, id, x, y, vx, vy);
+        t.owner[i] = owner;
+        int p = f.players.indexOf(owner);
+        t.ownerUtf8[i] = p >= 0 ? f.players.nameUtf8[p] : new byte[0];
+    }
+
+    /** 按 id 升序调用 */
+    private static void addAsteroid(SnapshotFrame f, int id, int x, int y, int vx, int vy,
+                                    int radius, int hp, boolean big) {
+        SnapshotFrame.Table t = f.asteroids;
+        int i = add(t, id, x, y, vx, vy);
+        t.radius[i] = radius;
+        t.hp[i] = hp;
+        t.big[i] = big;
+    }
+
+    private static int add(SnapshotFrame.Table t, int id, int x, int y, int vx, int vy) {
+        int i = t.count++;
+        t.id[i] = id;
+        t.x[i] = (short) x;
+        t.y[i] = (short) y;
+        t.vx[i] = (short) vx;
+        t.vy[i] = (short) vy;
+        return i;
+    }
+
+    /** 快照本身对应的解码结果（子弹不发 hp / 半径，按 0 比较） */
+    private static State expected(SnapshotFrame f) {
+        State s = new State();
+        SnapshotFrame.Players p = f.players;
+        for (int i = 0; i < p.count; i++) {
+            s.players.put(p.name[i], new Player(p.x[i], p.y[i], p.hp[i], p.alive[i], p.score[i],
+                    p.inputSeq[i], p.inputFrame[i]));
+        }
+        SnapshotFrame.Table b = f.bullets;
+        for (int i = 0; i < b.count; i++) {
+            s.bullets.put(b.id[i], new Entity(b.x[i], b.y[i], b.vx[i], b.vy[i], b.owner[i], 0, 0, false));
+        }
+        SnapshotFrame.Table a = f.asteroids;
+        for (int i = 0; i < a.count; i++) {
+            s.asteroids.put(a.id[i], new Entity(a.x[i], a.y[i], a.vx[i], a.vy[i], null, a.radius[i], a.hp[i], a.big[i]));
+        }
+        return s;
+    }
+
+    // ==================== 解码（和前端一致） ====================
+
+    /** 解码一条快照；增量从 client 里取基线，解码结果按 seq 存回 client（模拟客户端 ACK 过的帧） */
+    private static Decoded decode(byte[] bytes, Map<Long, Decoded> client) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        Decoded d = new Decoded();
+        d.type = buf.get();
+        assertEquals(SnapshotEncoder.VERSION, buf.get());
+        d.phase = buf.get() & 0xFF;
+        d.hz = buf.get() & 0xFF;
+        d.seq = buf.getInt() & 0xFFFFFFFFL;
+        d.baseSeq = buf.getInt() & 0xFFFFFFFFL;
+        d.frame = buf.getInt() & 0xFFFFFFFFL;
+        d.timeMs = buf.getInt() & 0xFFFFFFFFL;
+
+        if (d.type == SnapshotEncoder.TYPE_KEYFRAME) {
+            decodeKeyframe(buf, d);
+        } else {
+            Decoded base = client.get(d.baseSeq);
+            assertTrue(base != null, "baseline " + d.baseSeq + " was never decoded");
+            decodeDelta(buf, base, d);
+        }
+        assertEquals(0, buf.remaining(), "trailing bytes");
+        client.put(d.seq, d);
+        return d;
+    }
+
+    private static void decodeKeyframe(ByteBuffer buf, Decoded d) {
+        List<String> order = new ArrayList<>();
+        int players = buf.get() & 0xFF;
+        for (int i = 0; i < players; i++) {
+            String name = readName(buf);
+            order.add(name);
+            d.players.put(name, new Player(buf.getShort(), buf.getShort(), buf.get() & 0xFF, buf.get() != 0,
+                    buf.getInt(), buf.getInt(), buf.getInt()));
+        }
+        int bullets = buf.getShort() & 0xFFFF;
+        for (int i = 0; i < bullets; i++) {
+            int id = buf.getInt();
+            int owner = buf.get() & 0xFF;
+            d.bullets.put(id, readBulletMotion(buf, owner < order.size() ? order.get(owner) : null));
+        }
+        int asteroids = buf.getShort() & 0xFFFF;
+        for (int i = 0; i < asteroids; i++) {
+            d.asteroids.put(buf.getInt(), readAsteroid(buf));
+        }
+    }
+
+    private static void decodeDelta(ByteBuffer buf, Decoded base, Decoded d) {
+        long frames = d.frame - base.frame;
+        int hz = Math.max(1, base.hz);
+
+        d.players.putAll(base.players);
+        int records = buf.get() & 0xFF;
+        for (int i = 0; i < records; i++) {
+            String name = readName(buf);
+            int mask = buf.get() & 0xFF;
+            if ((mask & 0x80) != 0) {
+                d.players.remove(name);
+                continue;
+            }
+            Player p = d.players.getOrDefault(name, new Player(0, 0, 0, false, 0, 0, 0));
+            int x = (mask & 1) != 0 ? buf.getShort() : p.x;
+            int y = (mask & 2) != 0 ? buf.getShort() : p.y;
+            int hp = (mask & 4) != 0 ? buf.get() & 0xFF : p.hp;
+            boolean alive = (mask & 8) != 0 ? buf.get() != 0 : p.alive;
+            int score = (mask & 16) != 0 ? buf.getInt() : p.score;
+            int inputSeq = p.inputSeq, inputFrame = p.inputFrame;
+            if ((mask & 32) != 0) {
+                inputSeq = buf.getInt();
+                inputFrame = buf.getInt();
+            }
+            d.players.put(name, new Player(x, y, hp, alive, score, inputSeq, inputFrame));
+        }
+
+        decodeTableDelta(buf, base.bullets, d.bullets, d.bulletStats, frames, hz, true);
+        decodeTableDelta(buf, base.asteroids, d.asteroids, d.asteroidStats, frames, hz, false);
+    }
+
+    private static void decodeTableDelta(ByteBuffer buf, Map<Integer, Entity> base, Map<Integer, Entity> out,
+                                         TableStats stats, long frames, int hz, boolean bullets) {
+        int despawns = buf.getShort() & 0xFFFF;
+        for (int i = 0; i < despawns; i++) {
+            stats.despawns.add(buf.getInt());
+        }
+        Map<Integer, Entity> spawned = new LinkedHashMap<>();
+        int spawns = buf.getShort() & 0xFFFF;
+        for (int i = 0; i < spawns; i++) {
+            int id = buf.getInt();
+            stats.spawns.add(id);
+            spawned.put(id, bullets ? readBulletMotion(buf, readName(buf)) : readAsteroid(buf));
+        }
+
+        Set<Integer> gone = new HashSet<>(stats.despawns);
+        for (Map.Entry<Integer, Entity> e : base.entrySet()) {
+            if (gone.contains(e.getKey())) continue;
+            Entity b = e.getValue();
+            out.put(e.getKey(), new Entity(predict(b.x, b.vx, frames, hz), predict(b.y, b.vy, frames, hz),
+                    b.vx, b.vy, b.owner, b.radius, b.hp, b.big));
+        }
+
+        int updates = buf.getShort() & 0xFFFF;
+        for (int i = 0; i < updates; i++) {
+            int id = buf.getInt();
+            stats.updates.add(id);
+            int mask = buf.get() & 0xFF;
+            boolean small = (mask & 16) != 0;
+            Entity e = out.get(id);
+            assertTrue(e != null, "update for unknown entity " + id);
+            int x = e.x, y = e.y, vx = e.vx, vy = e.vy, hp = e.hp;
+            if ((mask & 1) != 0) x += small ? buf.get() : buf.getShort();
+            if ((mask & 2) != 0) y += small ? buf.get() : buf.getShort();
+            if ((mask & 4) != 0) {
+                vx = buf.getShort();
+                vy = buf.getShort();
+            }
+            if ((mask & 8) != 0) hp = buf.get() & 0xFF;
+            out.put(id, new Entity(x, y, vx, vy, e.owner, e.radius, hp, e.big));
+        }
+        out.putAll(spawned);
+    }
+
+    /** Math.trunc(pos + v * frames / hz)，和前端一样 */
+    private static int predict(int position, int velocity, long frames, int hz) {
+        return (int) (position + (velocity * frames) / hz);
+    }
+
+    private static Entity readBulletMotion(ByteBuffer buf, String owner) {
+        return new Entity(buf.getShort(), buf.getShort(), buf.getShort(), buf.getShort(), owner, 0, 0, false);
+    }
+
+    private static Entity readAsteroid(ByteBuffer buf) {
+        short x = buf.getShort(), y = buf.getShort(), vx = buf.getShort(), vy = buf.getShort();
+        int radius = buf.get() & 0xFF;
+        int hp = buf.get() & 0xFF;
+        boolean big = (buf.get() & 1) != 0;
+        return new Entity(x, y, vx, vy, null, radius, hp, big);
+    }
+
+    private static String readName(ByteBuffer buf) {
+        byte[] utf8 = new byte[buf.get() & 0xFF];
+        buf.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private record Player(int x, int y, int hp, boolean alive, int score, int inputSeq, int inputFrame) {
+    }
+
+    private record Entity(int x, int y, int vx, int vy, String owner, int radius, int hp, boolean big) {
+    }
+
+    private static class State {
+        final Map<String, Player> players = new TreeMap<>();
+        final Map<Integer, Entity> bullets = new TreeMap<>();
+        final Map<Integer, Entity> asteroids = new TreeMap<>();
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof State s && players.equals(s.players)
+                    && bullets.equals(s.bullets) && asteroids.equals(s.asteroids);
+        }
+
+        @Override
+        public int hashCode() {
+            return players.hashCode() * 31 + bullets.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "players=" + players + ", bullets=" + bullets + ", asteroids=" + asteroids;
+        }
+    }
+
+    /** 一张表在这条增量里的 despawn / spawn / update id（按出现顺序） */
+    private static class TableStats {
+        final List<Integer> despawns = new ArrayList<>();
+        final List<Integer> spawns = new ArrayList<>();
+        final List<Integer> updates = new ArrayList<>();
+    }
+
+    private static class Decoded extends State {
+        byte type;
+        int phase;
+        int hz;
+        long seq;
+        long baseSeq;
+        long frame;
+        long timeMs;
+        final TableStats bulletStats = new TableStats();
+        final TableStats asteroidStats = new TableStats();
+
+        State state() {
+            State s = new State();
+            s.players.putAll(players);
+            s.bullets.putAll(bullets);
+            s.asteroids.putAll(asteroids);
+            return s;
+        }
+    }
+}
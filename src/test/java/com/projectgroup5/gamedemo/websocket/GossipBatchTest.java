@@ -0,0 +1,118 @@
+package com.projectgroup5.gamedemo.websocket;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GossipBatchTest {
+
+    /** 记录发出去的消息和关闭状态的假连接 */
+    private static final class FakeSession {
+        final List<String> sent = new ArrayList<>();
+        CloseStatus closedWith;
+        final WebSocketSession session = (WebSocketSession) Proxy.newProxyInstance(
+                WebSocketSession.class.getClassLoader(), new Class<?>[]{WebSocketSession.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> "s1";
+                    case "isOpen" -> closedWith == null;
+                    case "sendMessage" -> {
+                        sent.add(((TextMessage) args[0]).getPayload());
+                        yield null;
+                    }
+                    case "close" -> {
+                        closedWith = (CloseStatus) args[0];
+                        yield null;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    // 手动执行的发送线程池：不调用 runAll 就相当于发送线程一直在忙
+    private final Queue<Runnable> senderTasks = new ArrayDeque<>();
+
+    private void runAll() {
+        Runnable task;
+        while ((task = senderTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    void positionsKeepCollapsingWhileSenderIsBusy() {
+        FakeSession fake = new FakeSession();
+        SessionOutbox outbox = new SessionOutbox(fake.session, senderTasks::add, 4);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            GossipBatch batch = new GossipBatch(outbox, timer, 0);
+            outbox.attachGossip(batch);
+
+            // 远超控制队列容量的位置消息，发送线程忙的时候只在合批里合并
+            for (int i = 0; i < 1000; i++) {
+                batch.add("p:alice", "{\"type\":\"PLAYER_POSITION\",\"x\":" + i + "}");
+                batch.add("p:bob", "{\"type\":\"PLAYER_POSITION\",\"x\":" + -i + "}");
+            }
+            runAll();
+
+            assertNull(fake.closedWith);
+            assertEquals(List.of("{\"type\":\"BATCH\",\"m\":["
+                    + "{\"type\":\"PLAYER_POSITION\",\"x\":999},{\"type\":\"PLAYER_POSITION\",\"x\":-999}]}"), fake.sent);
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    void pendingGossipIsSentBeforeALaterControlMessage() {
+        FakeSession fake = new FakeSession();
+        SessionOutbox outbox = new SessionOutbox(fake.session, senderTasks::add, 4);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            // 窗口很长：不靠定时器，靠控制消息把 gossip 带出去
+            GossipBatch batch = new GossipBatch(outbox, timer, 60_000);
+            outbox.attachGossip(batch);
+
+            batch.add(null, "{\"type\":\"ASTEROID_DESTROYED\",\"id\":1}");
+            outbox.send(new TextMessage("{\"type\":\"PLAYER_LEFT\"}"));
+            batch.add(null, "{\"type\":\"ASTEROID_DESTROYED\",\"id\":2}");
+            runAll();
+
+            assertEquals(List.of("{\"type\":\"ASTEROID_DESTROYED\",\"id\":1}", "{\"type\":\"PLAYER_LEFT\"}"), fake.sent);
+            assertNull(fake.closedWith);
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    void unsentEventBacklogClosesSlowConsumer() {
+        FakeSession fake = new FakeSession();
+        SessionOutbox outbox = new SessionOutbox(fake.session, senderTasks::add, 4);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            GossipBatch batch = new GossipBatch(outbox, timer, 0);
+            outbox.attachGossip(batch);
+
+            for (int i = 0; i <= GossipBatch.MAX_BACKLOG; i++) {
+                batch.add(null, "{\"type\":\"BULLET_FIRED\",\"id\":" + i + "}");
+            }
+            runAll();
+
+            assertEquals(CloseStatus.SESSION_NOT_RELIABLE, fake.closedWith);
+            assertEquals(List.<String>of(), fake.sent);
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.projectgroup5.gamedemo.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LockstepRoomTest {
+
+    @Test
+    void startDeadlineStartsWithConnectedSlotsAndMarksTheRestAbsent() {
+        LockstepRoom room = new LockstepRoom(1L, List.of("alice", "bob", "carol"), 33, 2, 30);
+        assertEquals(0, room.join("bob"));
+        assertFalse(room.readyToStart());
+
+        assertTrue(room.passStartDeadline());
+        assertTrue(room.readyToStart());
+        assertEquals(List.of("bob", "alice", "carol"), room.getSlots());
+
+        byte[] frame = room.nextFrame();
+        assertEquals(LockstepRoom.LOCKSTEP_FRAME, frame[0]);
+        assertEquals(3, frame[5]);
+        assertEquals(0, frame[6]);
+        assertEquals(LockstepRoom.ABSENT, frame[7] & 0xFF);
+        assertEquals(LockstepRoom.ABSENT, frame[8] & 0xFF);
+    }
+
+    @Test
+    void deadlineWithNobodyOnlineWaitsForFirstJoin() {
+        LockstepRoom room = new LockstepRoom(1L, List.of("alice", "bob"), 33, 2, 30);
+        assertFalse(room.passStartDeadline());
+
+        // 到期之后第一个连上的人不用再等其他人
+        assertEquals(1, room.join("bob"));
+        assertTrue(room.readyToStart());
+    }
+
+    @Test
+    void inputsTakeEffectAfterInputDelay() {
+        LockstepRoom room = new LockstepRoom(1L, List.of("alice"), 33, 2, 30);
+        room.join("alice");
+
+        room.nextFrame(); // 帧 0
+        room.submitInput(0, LockstepRoom.INPUT_UP | LockstepRoom.INPUT_FIRE);
+        room.submitInput(0, LockstepRoom.INPUT_UP); // 同一帧松开：开火位保留
+
+        assertEquals(0, room.nextFrame()[6]); // 帧 1
+        assertEquals(LockstepRoom.INPUT_UP | LockstepRoom.INPUT_FIRE, room.nextFrame()[6]); // 帧 2
+        assertEquals(LockstepRoom.INPUT_UP | LockstepRoom.INPUT_FIRE, room.nextFrame()[6]); // 没有新输入沿用上一帧
+    }
+}